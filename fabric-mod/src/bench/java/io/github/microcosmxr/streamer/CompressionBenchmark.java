@@ -0,0 +1,153 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Ratio and cost of frame compression per section, for picking -Dmicrocosm.streamer.compressLevel.
+ * Run: ./gradlew benchCompression
+ * <p>
+ * Sections are synthetic but shaped like the ones we stream (surface with a sky-light gradient, underground with ores
+ * and caves, tree canopy, empty air), encoded in both protocol versions and deflated with the preset dictionary at
+ * each level. Prints bytes before/after and microseconds per section for encoding and for deflate.
+ */
+public final class CompressionBenchmark {
+
+	private static final int[] LEVELS = {1, 3, 6, 9};
+	private static final int ROUNDS = 200;
+
+	public static void main(String[] args) {
+		List<String> names = List.of("surface", "underground", "canopy", "air");
+		List<ChunkSerializer.SectionSnapshot> sections = List.of(surface(), underground(), canopy(), air());
+
+		System.out.printf("%-12s %-3s %8s %6s %9s %9s %9s%n", "section", "v", "raw", "level", "deflated", "ratio", "us/sec");
+		for (int s = 0; s < sections.size(); s++) {
+			for (int version = 1; version <= 2; version++) {
+				ChunkSerializer.SectionSnapshot snap = sections.get(s);
+				int v = version;
+				long encodeNanos = time(() -> ProtocolEncoder.sectionSnapshot(v, 0, 0, 4, snap, null, false));
+				byte[] raw = bytes(ProtocolEncoder.sectionSnapshot(version, 0, 0, 4, snap, null, false));
+				System.out.printf("%-12s %-3d %8d %6s %9s %9s %9.1f%n", names.get(s), version, raw.length, "-", "-", "-",
+					encodeNanos / 1000.0);
+				for (int level : LEVELS) {
+					Deflater deflater = new Deflater(level);
+					byte[] deflated = FrameCompressor.deflate(raw, deflater);
+					long deflateNanos = time(() -> FrameCompressor.deflate(raw, deflater));
+					deflater.end();
+					System.out.printf("%-12s %-3d %8d %6d %9d %8.1fx %9.1f%n", names.get(s), version, raw.length, level,
+						deflated.length, raw.length / (double) deflated.length, deflateNanos / 1000.0);
+				}
+			}
+		}
+		System.out.println("dictionary id " + Long.toHexString(FrameCompressor.dictionaryId()));
+	}
+
+	/** Median nanoseconds of one call, after warmup. */
+	private static long time(Runnable work) {
+		for (int i = 0; i < ROUNDS; i++) work.run();
+		long[] samples = new long[ROUNDS];
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			work.run();
+			samples[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(samples);
+		return samples[ROUNDS / 2];
+	}
+
+	private static byte[] bytes(EncodedFrame frame) {
+		byte[] b = new byte[frame.size()];
+		frame.payload().get(b);
+		return b;
+	}
+
+	private static int index(int x, int y, int z) {
+		return (y * 16 + z) * 16 + x;
+	}
+
+	/** Grass over dirt over stone with a few ores, air above; sky light falls off below the surface. */
+	private static ChunkSerializer.SectionSnapshot surface() {
+		Random random = new Random(1);
+		List<String> palette = List.of("minecraft:air", "minecraft:grass_block", "minecraft:dirt", "minecraft:stone",
+			"minecraft:coal_ore", "minecraft:short_grass", "minecraft:gravel");
+		short[] indices = new short[4096];
+		byte[] sky = new byte[4096];
+		for (int x = 0; x < 16; x++) {
+			for (int z = 0; z < 16; z++) {
+				int top = 7 + random.nextInt(3);
+				for (int y = 0; y < 16; y++) {
+					int i = index(x, y, z);
+					int id;
+					if (y > top) id = y == top + 1 && random.nextInt(5) == 0 ? 5 : 0;
+					else if (y == top) id = 1;
+					else if (y > top - 4) id = 2;
+					else id = random.nextInt(40) == 0 ? 4 : random.nextInt(60) == 0 ? 6 : 3;
+					indices[i] = (short) id;
+					sky[i] = (byte) (y > top ? 15 : Math.max(0, 15 - (top - y + 1) * 4));
+				}
+			}
+		}
+		return new ChunkSerializer.SectionSnapshot(palette, indices, new byte[4096], sky,
+			List.of("ResourceKey[minecraft:worldgen/biome / minecraft:plains]"), new short[64]);
+	}
+
+	/** Stone and deepslate with scattered ores and a lit cave; sky light 0 throughout. */
+	private static ChunkSerializer.SectionSnapshot underground() {
+		Random random = new Random(2);
+		List<String> palette = List.of("minecraft:stone", "minecraft:deepslate", "minecraft:iron_ore", "minecraft:coal_ore",
+			"minecraft:cave_air", "minecraft:andesite", "minecraft:copper_ore", "minecraft:torch", "minecraft:tuff");
+		short[] indices = new short[4096];
+		byte[] blockLight = new byte[4096];
+		for (int x = 0; x < 16; x++) {
+			for (int z = 0; z < 16; z++) {
+				for (int y = 0; y < 16; y++) {
+					int i = index(x, y, z);
+					int dx = x - 8, dy = y - 6, dz = z - 8;
+					boolean cave = dx * dx + dy * dy * 3 + dz * dz < 30;
+					int id;
+					if (cave) id = x == 8 && z == 8 && y == 4 ? 7 : 4;
+					else if (y < 4) id = 1;
+					else {
+						int roll = random.nextInt(100);
+						id = roll < 2 ? 2 : roll < 4 ? 3 : roll < 5 ? 6 : roll < 12 ? 5 : roll < 15 ? 8 : 0;
+					}
+					indices[i] = (short) id;
+					int d = Math.abs(dx) + Math.abs(y - 4) + Math.abs(dz);
+					blockLight[i] = (byte) (cave ? Math.max(0, 14 - d) : 0);
+				}
+			}
+		}
+		return new ChunkSerializer.SectionSnapshot(palette, indices, blockLight, new byte[4096],
+			List.of("ResourceKey[minecraft:worldgen/biome / minecraft:dripstone_caves]"), new short[64]);
+	}
+
+	/** Leaves and logs in air with patchy sky light and two biomes. */
+	private static ChunkSerializer.SectionSnapshot canopy() {
+		Random random = new Random(3);
+		List<String> palette = List.of("minecraft:air", "minecraft:oak_leaves", "minecraft:oak_log", "minecraft:birch_leaves",
+			"minecraft:birch_log", "minecraft:vine");
+		short[] indices = new short[4096];
+		byte[] sky = new byte[4096];
+		for (int i = 0; i < 4096; i++) {
+			int roll = random.nextInt(100);
+			int id = roll < 45 ? 0 : roll < 75 ? 1 : roll < 80 ? 2 : roll < 92 ? 3 : roll < 95 ? 4 : 5;
+			indices[i] = (short) id;
+			sky[i] = (byte) (id == 0 ? 12 + random.nextInt(4) : random.nextInt(12));
+		}
+		short[] biomes = new short[64];
+		for (int i = 32; i < 64; i++) biomes[i] = 1;
+		List<String> biomePalette = new ArrayList<>(List.of("ResourceKey[minecraft:worldgen/biome / minecraft:forest]",
+			"ResourceKey[minecraft:worldgen/biome / minecraft:birch_forest]"));
+		return new ChunkSerializer.SectionSnapshot(palette, indices, new byte[4096], sky, biomePalette, biomes);
+	}
+
+	private static ChunkSerializer.SectionSnapshot air() {
+		byte[] sky = new byte[4096];
+		Arrays.fill(sky, (byte) 15);
+		return new ChunkSerializer.SectionSnapshot(List.of("minecraft:air"), new short[4096], new byte[4096], sky,
+			List.of("ResourceKey[minecraft:worldgen/biome / minecraft:plains]"), new short[64]);
+	}
+}
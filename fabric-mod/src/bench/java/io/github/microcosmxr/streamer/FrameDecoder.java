@@ -0,0 +1,407 @@
+package io.github.microcosmxr.streamer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Client-side decoder for every binary message of the protocol (README "Protocol"), strict enough to verify what the
+ * server sends: lengths must be consumed exactly, palette indices must fall inside their palette, bit widths must match
+ * the palette size and numeric ids must exist in the connection's ID_TABLE. One per connection (it holds the id table
+ * and an {@link Inflater}); not thread-safe.
+ */
+final class FrameDecoder {
+
+	/**
+	 * What a message was about, for the load generator's bookkeeping; section is true for a section's full state, and
+	 * blocks holds the block states it carries (null for none, or for a LOD or hidden section).
+	 */
+	record Decoded(int type, int wireBytes, int cx, int cz, int sy, boolean section, Blocks blocks) {
+		static final int NONE = Integer.MIN_VALUE;
+
+		/** Whether the message is about one section (cx, cz, sy set). */
+		boolean hasSection() {
+			return sy != NONE;
+		}
+	}
+
+	/**
+	 * Block states of one section in a message: all 4096 of a full section (positions null), or the positions a delta
+	 * changes. Positions are local indices, (y * 16 + z) * 16 + x; states index palette.
+	 */
+	record Blocks(List<String> palette, int[] positions, int[] states) {
+		int count() {
+			return states.length;
+		}
+
+		/** Local index of entry i. */
+		int position(int i) {
+			return positions != null ? positions[i] : i;
+		}
+
+		/** Block state of entry i; for a full section, i is the local index. */
+		String state(int i) {
+			return palette.get(states[i]);
+		}
+
+		boolean full() {
+			return positions == null;
+		}
+	}
+
+	/** Thrown for a frame that does not follow the protocol. */
+	static final class MalformedFrameException extends RuntimeException {
+		MalformedFrameException(String message) {
+			super(message);
+		}
+	}
+
+	private static final byte[] DICTIONARY = loadDictionary();
+
+	private final Inflater inflater = new Inflater();
+	/** Block and biome ids of the ID_TABLE this connection received (null before one arrives). */
+	private List<String> blockIds;
+	private List<String> biomeIds;
+	/** World y of section index 0, for BLOCK_DELTA (world coordinates) to section index. */
+	private final int minY;
+
+	FrameDecoder(int minY) {
+		this.minY = minY;
+	}
+
+	/** Decode and verify one binary message; throws {@link MalformedFrameException} if it breaks the protocol. */
+	Decoded decode(ByteBuffer message) {
+		int wireBytes = message.remaining();
+		ByteBuffer in = message.slice();
+		try {
+			if (in.get(0) == ProtocolEncoder.MSG_COMPRESSED) in = inflate(in);
+			int type = in.get();
+			Decoded decoded = switch (type) {
+				case ProtocolEncoder.MSG_CHUNK_SECTION_SNAPSHOT -> snapshot(in, wireBytes);
+				case ProtocolEncoder.MSG_BLOCK_DELTA -> {
+					int x = in.getInt();
+					int y = in.getInt();
+					int z = in.getInt();
+					int local = (((y - minY) & 15) * 16 + (z & 15)) * 16 + (x & 15);
+					Blocks blocks = new Blocks(List.of(shortString(in)), new int[] {local}, new int[1]);
+					yield new Decoded(type, wireBytes, x >> 4, z >> 4, (y - minY) >> 4, false, blocks);
+				}
+				case ProtocolEncoder.MSG_BLOCK_ENTITY -> {
+					in.position(in.position() + 12);
+					shortString(in);
+					int nbtLength = in.getInt();
+					check(nbtLength >= 0 && nbtLength <= in.remaining(), "block entity NBT length " + nbtLength);
+					in.position(in.position() + nbtLength);
+					yield none(type, wireBytes);
+				}
+				case ProtocolEncoder.MSG_ENTITY_SPAWN -> {
+					in.getInt();
+					shortString(in);
+					in.position(in.position() + 32);
+					yield none(type, wireBytes);
+				}
+				case ProtocolEncoder.MSG_BLOCK_DELTA_BATCH -> deltaBatch(in, wireBytes);
+				case ProtocolEncoder.MSG_CHUNK_SECTION_COMPACT -> compact(in, wireBytes);
+				case ProtocolEncoder.MSG_ID_TABLE -> idTable(in, wireBytes);
+				case ProtocolEncoder.MSG_BLOCK_DELTA_IDS -> deltaIds(in, wireBytes);
+				case ProtocolEncoder.MSG_SECTIONS_UNCHANGED, ProtocolEncoder.MSG_SECTIONS_UNLOAD -> {
+					int count = varInt(in);
+					for (int i = 0; i < count; i++) {
+						varInt(in);
+						varInt(in);
+						varInt(in);
+					}
+					yield none(type, wireBytes);
+				}
+				case ProtocolEncoder.MSG_ENTITY_UPDATE -> entityUpdate(in, wireBytes);
+				case ProtocolEncoder.MSG_ENTITY_DESPAWN -> {
+					int count = varInt(in);
+					for (int i = 0; i < count; i++) {
+						varInt(in);
+					}
+					yield none(type, wireBytes);
+				}
+				case ProtocolEncoder.MSG_SECTION_LOD -> lod(in, wireBytes);
+				case ProtocolEncoder.MSG_COLUMN_SUMMARY -> columnSummary(in, wireBytes);
+				case ProtocolEncoder.MSG_SECTION_HIDDEN -> {
+					int cx = unZigZag(varInt(in));
+					int cz = unZigZag(varInt(in));
+					yield new Decoded(type, wireBytes, cx, cz, varInt(in), true, null);
+				}
+				default -> throw new MalformedFrameException("unknown message type " + type);
+			};
+			check(!in.hasRemaining(), in.remaining() + " trailing bytes after type " + type);
+			return decoded;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new MalformedFrameException("truncated frame (" + wireBytes + " bytes, type " + message.get(message.position()) + ")");
+		}
+	}
+
+	private ByteBuffer inflate(ByteBuffer in) {
+		in.get();
+		int rawLength = varInt(in);
+		byte[] deflated = new byte[in.remaining()];
+		in.get(deflated);
+		byte[] raw = new byte[rawLength];
+		inflater.reset();
+		inflater.setInput(deflated);
+		try {
+			int n = inflater.inflate(raw);
+			if (n == 0 && inflater.needsDictionary()) {
+				inflater.setDictionary(DICTIONARY);
+				n = inflater.inflate(raw);
+			}
+			check(n == rawLength && inflater.finished(), "COMPRESSED inflates to " + n + " bytes, header says " + rawLength);
+		} catch (DataFormatException e) {
+			throw new MalformedFrameException("COMPRESSED frame does not inflate: " + e.getMessage());
+		}
+		check(raw.length > 0 && raw[0] != ProtocolEncoder.MSG_COMPRESSED, "COMPRESSED frame nested or empty");
+		return ByteBuffer.wrap(raw);
+	}
+
+	private Decoded snapshot(ByteBuffer in, int wireBytes) {
+		int cx = in.getInt();
+		int cz = in.getInt();
+		int sy = in.getInt();
+		int paletteLength = in.getInt();
+		check(paletteLength > 0 && paletteLength <= 4096, "snapshot palette length " + paletteLength);
+		String[] palette = new String[paletteLength];
+		for (int i = 0; i < paletteLength; i++) {
+			palette[i] = shortString(in);
+		}
+		int[] states = new int[4096];
+		for (int i = 0; i < 4096; i++) {
+			states[i] = in.getShort() & 0xFFFF;
+			checkIndex(states[i], paletteLength, "snapshot block");
+		}
+		in.position(in.position() + 8192);
+		int biomeLength = in.getInt();
+		check(biomeLength > 0 && biomeLength <= 64, "snapshot biome palette length " + biomeLength);
+		for (int i = 0; i < biomeLength; i++) {
+			shortString(in);
+		}
+		for (int i = 0; i < 64; i++) {
+			checkIndex(in.getShort() & 0xFFFF, biomeLength, "snapshot biome");
+		}
+		return new Decoded(ProtocolEncoder.MSG_CHUNK_SECTION_SNAPSHOT, wireBytes, cx, cz, sy, true, new Blocks(Arrays.asList(palette), null, states));
+	}
+
+	private Decoded compact(ByteBuffer in, int wireBytes) {
+		int cx = unZigZag(varInt(in));
+		int cz = unZigZag(varInt(in));
+		int sy = varInt(in);
+		int flags = in.get() & 0xFF;
+		check((flags & ~127) == 0, "unknown compact flags " + flags);
+		if ((flags & ProtocolEncoder.COMPACT_CONTENT_HASH) != 0) in.getLong();
+		boolean ids = (flags & ProtocolEncoder.COMPACT_NUMERIC_IDS) != 0;
+		String[] palette = palette(in, ids, blockIds);
+		check(palette.length > 0, "compact section with an empty palette");
+		check(((flags & ProtocolEncoder.COMPACT_SINGLE_BLOCK) != 0) == (palette.length == 1), "single-block flag with " + palette.length + " entries");
+		int[] states = palette.length > 1 ? packed(in, 4096, palette.length, "compact block") : new int[4096];
+		light(in, (flags & ProtocolEncoder.COMPACT_UNIFORM_BLOCK_LIGHT) != 0);
+		light(in, (flags & ProtocolEncoder.COMPACT_UNIFORM_SKY_LIGHT) != 0);
+		int biomes = palette(in, ids, biomeIds).length;
+		check(((flags & ProtocolEncoder.COMPACT_SINGLE_BIOME) != 0) == (biomes == 1), "single-biome flag with " + biomes + " entries");
+		if (biomes > 1) packed(in, 64, biomes, "compact biome");
+		if ((flags & ProtocolEncoder.COMPACT_SURFACE) != 0) in.position(in.position() + 512);
+		return new Decoded(ProtocolEncoder.MSG_CHUNK_SECTION_COMPACT, wireBytes, cx, cz, sy, true, new Blocks(Arrays.asList(palette), null, states));
+	}
+
+	private Decoded lod(ByteBuffer in, int wireBytes) {
+		int cx = unZigZag(varInt(in));
+		int cz = unZigZag(varInt(in));
+		int sy = varInt(in);
+		int level = in.get();
+		check(level >= 1 && level <= SectionLod.MAX_LEVEL, "LOD level " + level);
+		int flags = in.get() & 0xFF;
+		int palette = palette(in, (flags & ProtocolEncoder.COMPACT_NUMERIC_IDS) != 0, blockIds).length;
+		int side = 16 >> level;
+		if (palette > 1) packed(in, side * side * side, palette, "LOD cell");
+		return new Decoded(ProtocolEncoder.MSG_SECTION_LOD, wireBytes, cx, cz, sy, true, null);
+	}
+
+	private Decoded columnSummary(ByteBuffer in, int wireBytes) {
+		varInt(in);
+		varInt(in);
+		int flags = in.get() & 0xFF;
+		int palette = palette(in, (flags & ProtocolEncoder.COMPACT_NUMERIC_IDS) != 0, blockIds).length;
+		if (palette > 1) packed(in, 256, palette, "column summary");
+		for (int i = 0; i < 256; i++) {
+			varInt(in);
+		}
+		return none(ProtocolEncoder.MSG_COLUMN_SUMMARY, wireBytes);
+	}
+
+	private Decoded deltaBatch(ByteBuffer in, int wireBytes) {
+		int cx = in.getInt();
+		int cz = in.getInt();
+		int sy = in.getInt();
+		String[] palette = new String[in.getShort() & 0xFFFF];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = shortString(in);
+		}
+		int count = in.getShort() & 0xFFFF;
+		check(count > 0, "empty delta batch");
+		int[] positions = new int[count];
+		int[] states = new int[count];
+		for (int i = 0; i < count; i++) {
+			positions[i] = in.getShort() & 0xFFFF;
+			checkIndex(positions[i], 4096, "delta position");
+			states[i] = in.getShort() & 0xFFFF;
+			checkIndex(states[i], palette.length, "delta palette");
+		}
+		return new Decoded(ProtocolEncoder.MSG_BLOCK_DELTA_BATCH, wireBytes, cx, cz, sy, false, new Blocks(Arrays.asList(palette), positions, states));
+	}
+
+	private Decoded deltaIds(ByteBuffer in, int wireBytes) {
+		check(blockIds != null, "BLOCK_DELTA_IDS before ID_TABLE");
+		int cx = unZigZag(varInt(in));
+		int cz = unZigZag(varInt(in));
+		int sy = varInt(in);
+		int count = varInt(in);
+		check(count > 0, "empty delta id batch");
+		int[] positions = new int[count];
+		int[] states = new int[count];
+		for (int i = 0; i < count; i++) {
+			positions[i] = in.getShort() & 0xFFFF;
+			checkIndex(positions[i], 4096, "delta position");
+			states[i] = varInt(in);
+			checkIndex(states[i], blockIds.size(), "delta block id");
+		}
+		Blocks blocks = new Blocks(blockIds, positions, states);
+		return new Decoded(ProtocolEncoder.MSG_BLOCK_DELTA_IDS, wireBytes, cx, cz, sy, false, blocks);
+	}
+
+	private Decoded idTable(ByteBuffer in, int wireBytes) {
+		in.getLong();
+		List<List<String>> lists = new ArrayList<>(4);
+		for (int l = 0; l < 4; l++) {
+			int count = varInt(in);
+			List<String> list = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				list.add(varString(in));
+			}
+			lists.add(list);
+		}
+		blockIds = lists.get(0);
+		biomeIds = lists.get(1);
+		return none(ProtocolEncoder.MSG_ID_TABLE, wireBytes);
+	}
+
+	private Decoded entityUpdate(ByteBuffer in, int wireBytes) {
+		int count = varInt(in);
+		for (int i = 0; i < count; i++) {
+			varInt(in);
+			int mask = in.get() & 0xFF;
+			check((mask & ~31) == 0, "unknown entity update mask " + mask);
+			if ((mask & ProtocolEncoder.ENTITY_X) != 0) varInt(in);
+			if ((mask & ProtocolEncoder.ENTITY_Y) != 0) varInt(in);
+			if ((mask & ProtocolEncoder.ENTITY_Z) != 0) varInt(in);
+			if ((mask & ProtocolEncoder.ENTITY_YAW) != 0) in.get();
+			if ((mask & ProtocolEncoder.ENTITY_PITCH) != 0) in.get();
+		}
+		return none(ProtocolEncoder.MSG_ENTITY_UPDATE, wireBytes);
+	}
+
+	/** Palette entries: strings, or with ids varint (id + 1) into table (null: none received yet), 0 before a string. */
+	private String[] palette(ByteBuffer in, boolean ids, List<String> table) {
+		int length = varInt(in);
+		check(!ids || table != null, "numeric ids before ID_TABLE");
+		String[] entries = new String[length];
+		for (int i = 0; i < length; i++) {
+			int id = ids ? varInt(in) : 0;
+			if (id == 0) {
+				entries[i] = varString(in);
+			} else {
+				checkIndex(id - 1, table.size(), "palette id");
+				entries[i] = table.get(id - 1);
+			}
+		}
+		return entries;
+	}
+
+	/** Bits byte and count packed indices, each below palette (see {@link ProtocolEncoder#packBits}); returns them. */
+	private static int[] packed(ByteBuffer in, int count, int palette, String what) {
+		int bits = in.get();
+		check(bits == ProtocolEncoder.bitsFor(palette), what + " indices at " + bits + " bits for " + palette + " entries");
+		byte[] packed = new byte[(count * bits + 7) >> 3];
+		in.get(packed);
+		long acc = 0;
+		int accBits = 0;
+		int o = 0;
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			while (accBits < bits) {
+				acc |= (packed[o++] & 0xFFL) << accBits;
+				accBits += 8;
+			}
+			indices[i] = (int) (acc & ((1L << bits) - 1));
+			checkIndex(indices[i], palette, what);
+			acc >>>= bits;
+			accBits -= bits;
+		}
+		return indices;
+	}
+
+	private static void light(ByteBuffer in, boolean uniform) {
+		if (uniform) {
+			check((in.get() & 0xF0) == 0, "uniform light above 15");
+		} else {
+			in.position(in.position() + 2048);
+		}
+	}
+
+	private static Decoded none(int type, int wireBytes) {
+		return new Decoded(type, wireBytes, 0, 0, Decoded.NONE, false, null);
+	}
+
+	private static String shortString(ByteBuffer in) {
+		byte[] b = new byte[in.getShort() & 0xFFFF];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static String varString(ByteBuffer in) {
+		byte[] b = new byte[varInt(in)];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	static int varInt(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new MalformedFrameException("varint longer than 5 bytes");
+	}
+
+	static int unZigZag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static void checkIndex(int index, int size, String what) {
+		if (index < 0 || index >= size) throw new MalformedFrameException(what + " index " + index + " outside 0.." + (size - 1));
+	}
+
+	private static void check(boolean ok, String message) {
+		if (!ok) throw new MalformedFrameException(message);
+	}
+
+	private static byte[] loadDictionary() {
+		try (InputStream in = FrameDecoder.class.getResourceAsStream(FrameCompressor.DICTIONARY_RESOURCE)) {
+			return in != null ? in.readAllBytes() : new byte[0];
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package io.github.microcosmxr.streamer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a client's outbound lane does with a section or a block delta batch before it reaches the socket: encode the
+ * message ({@link ProtocolEncoder}), deflate it for "deflate" clients ({@link FrameCompressor}) and build the shared
+ * WebSocket wire frame ({@link EncodedFrame#wireFrame()}). Run: ./gradlew jmh -Pjmh=FrameEncode
+ * <p>
+ * Bytes per section for each format are printed once per fixture at setup (JMH has no size metric); allocation per
+ * operation comes from the GC profiler the jmh task enables.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameEncodeBenchmark {
+
+	@Param({"AIR", "SINGLE", "TERRAIN", "BUILD"})
+	public SectionFixtures.Kind section;
+
+	private ChunkSerializer.SectionSnapshot snapshot;
+	private SectionSurface surface;
+	private byte[] compact;
+	private short[] deltaPositions;
+	private short[] deltaIndices;
+	private List<String> deltaPalette;
+
+	@Setup
+	public void setup() {
+		ChunkSerializer.SectionCapture capture = SectionFixtures.capture(section);
+		snapshot = ChunkSerializer.translate(SectionFixtures.REGISTRIES, capture);
+		surface = SectionSurface.compute(capture, 0);
+		compact = bytes(ProtocolEncoder.chunkSectionCompact(0, 0, 4, snapshot, null, false));
+		EncodedFrame deflated = FrameCompressor.compress(new EncodedFrame(ProtocolEncoder.MSG_CHUNK_SECTION_COMPACT, compact));
+		System.out.printf("%n%s: v1 %d bytes, compact %d bytes, compact with surface %d bytes, deflated compact %d bytes%n",
+			section, ProtocolEncoder.chunkSectionSnapshot(0, 0, 4, snapshot).size(), compact.length,
+			ProtocolEncoder.chunkSectionCompact(0, 0, 4, snapshot, null, true, surface).size(),
+			deflated != null ? deflated.size() : compact.length);
+
+		// A tick of building: 64 changes in one section, four states
+		Random random = new Random(1);
+		deltaPositions = new short[64];
+		deltaIndices = new short[64];
+		for (int i = 0; i < 64; i++) {
+			deltaPositions[i] = (short) random.nextInt(4096);
+			deltaIndices[i] = (short) random.nextInt(4);
+		}
+		deltaPalette = List.of("minecraft:oak_planks", "minecraft:glass", "minecraft:stone_bricks", "minecraft:air");
+	}
+
+	@Benchmark
+	public EncodedFrame snapshotV1() {
+		return ProtocolEncoder.chunkSectionSnapshot(0, 0, 4, snapshot);
+	}
+
+	@Benchmark
+	public EncodedFrame compact() {
+		return ProtocolEncoder.chunkSectionCompact(0, 0, 4, snapshot, null, false);
+	}
+
+	@Benchmark
+	public EncodedFrame compactHashSurface() {
+		return ProtocolEncoder.chunkSectionCompact(0, 0, 4, snapshot, null, true, surface);
+	}
+
+	/** Deflate with the preset dictionary, as for the first "deflate" client a section goes to. */
+	@Benchmark
+	public EncodedFrame deflate() {
+		return FrameCompressor.compress(new EncodedFrame(ProtocolEncoder.MSG_CHUNK_SECTION_COMPACT, compact));
+	}
+
+	/** RFC 6455 header and payload, built once per frame and shared by every connection. */
+	@Benchmark
+	public ByteBuffer wireFrame() {
+		return new EncodedFrame(ProtocolEncoder.MSG_CHUNK_SECTION_COMPACT, compact).wireFrame();
+	}
+
+	@Benchmark
+	public EncodedFrame deltaBatch() {
+		return ProtocolEncoder.blockDeltaBatch(0, 0, 4, deltaPalette, deltaPositions, deltaIndices);
+	}
+
+	private static byte[] bytes(EncodedFrame frame) {
+		byte[] b = new byte[frame.size()];
+		frame.payload().get(b);
+		return b;
+	}
+}
@@ -0,0 +1,254 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One headless streamer client for {@link LoadGenerator}: answers HELLO with the requested features (and an empty
+ * RESUME_MANIFEST when "resume" is among them), optionally asks for its own VIEW, then decodes and verifies every
+ * message ({@link FrameDecoder}). Records bytes and frames, when its initial region stopped arriving, and the latency of
+ * every storm change ({@link StormChanges}) it sees in a delta or a re-sent full section.
+ * <p>
+ * Each change is measured against its own stamp. A frame that shows block B at a position covers the oldest change
+ * still unseen there that set B, and every unseen change before it (the server sends only the latest state of a
+ * position, so those were overwritten on the way); later changes at that position stay unseen until a frame shows
+ * theirs.
+ * <p>
+ * Callbacks run one at a time per connection (the next message is only requested once one is handled), on the
+ * HttpClient's executor.
+ */
+final class LoadClient implements WebSocket.Listener {
+
+	private final StormChanges changes;
+	private final String features;
+	private final String view;
+	private final int minY;
+	private final FrameDecoder decoder;
+
+	private final ByteArrayOutputStream partialBinary = new ByteArrayOutputStream();
+	private final StringBuilder partialText = new StringBuilder();
+	/** Storm changes copied so far, and the copy buffer. */
+	private int cursor;
+	private final List<StormChanges.Change> incoming = new ArrayList<>();
+	/** Changes not seen yet, oldest first, by position ({@link BlockPos#asLong}); and those positions by section key. */
+	private final Long2ObjectOpenHashMap<ArrayDeque<StormChanges.Change>> unseen = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<LongOpenHashSet> unseenBySection = new Long2ObjectOpenHashMap<>();
+	private final LongArrayList latencies = new LongArrayList();
+
+	final AtomicLong frames = new AtomicLong();
+	final AtomicLong bytes = new AtomicLong();
+	final AtomicLong sections = new AtomicLong();
+	final AtomicLong deltas = new AtomicLong();
+	final AtomicLong malformed = new AtomicLong();
+	final AtomicLongArray framesByType = new AtomicLongArray(256);
+	volatile long openNanos;
+	/** Arrival of the latest section frame (full, LOD or hidden). */
+	volatile long lastSectionNanos;
+	volatile int originX;
+	volatile int originY;
+	volatile int originZ;
+	volatile boolean originKnown;
+	volatile String closeReason;
+	volatile String firstError;
+	private WebSocket socket;
+
+	LoadClient(StormChanges changes, String features, String view, int minY) {
+		this.changes = changes;
+		this.features = features;
+		this.view = view;
+		this.minY = minY;
+		this.decoder = new FrameDecoder(minY);
+	}
+
+	CompletableFuture<WebSocket> connect(HttpClient http, URI uri) {
+		return http.newWebSocketBuilder().buildAsync(uri, this);
+	}
+
+	void close() {
+		WebSocket s = socket;
+		if (s != null) s.sendClose(WebSocket.NORMAL_CLOSURE, "load test done");
+	}
+
+	boolean isOpen() {
+		WebSocket s = socket;
+		return s != null && !s.isInputClosed() && closeReason == null;
+	}
+
+	/** Latency samples in nanoseconds (copy). */
+	synchronized long[] latencies() {
+		return latencies.toLongArray();
+	}
+
+	/** Storm changes this client has not seen (yet). */
+	synchronized int unseenChanges() {
+		copyChanges();
+		int count = 0;
+		for (ArrayDeque<StormChanges.Change> queue : unseen.values()) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	@Override
+	public void onOpen(WebSocket webSocket) {
+		socket = webSocket;
+		openNanos = System.nanoTime();
+		webSocket.request(1);
+	}
+
+	@Override
+	public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+		partialText.append(data);
+		if (last) {
+			String text = partialText.toString();
+			partialText.setLength(0);
+			onMessage(webSocket, text);
+		}
+		webSocket.request(1);
+		return null;
+	}
+
+	@Override
+	public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+		byte[] chunk = new byte[data.remaining()];
+		data.get(chunk);
+		partialBinary.writeBytes(chunk);
+		if (last) {
+			ByteBuffer message = ByteBuffer.wrap(partialBinary.toByteArray());
+			partialBinary.reset();
+			onMessage(message);
+		}
+		webSocket.request(1);
+		return null;
+	}
+
+	@Override
+	public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+		closeReason = statusCode + " " + reason;
+		return null;
+	}
+
+	@Override
+	public void onError(WebSocket webSocket, Throwable error) {
+		closeReason = "error: " + error;
+	}
+
+	private void onMessage(WebSocket webSocket, String text) {
+		frames.incrementAndGet();
+		bytes.addAndGet(text.length());
+		String[] parts = text.trim().split("\\s+");
+		if (parts[0].equals("HELLO")) {
+			webSocket.sendText("HELLO " + ProtocolEncoder.PROTOCOL_VERSION + (features.isEmpty() ? "" : " " + features), true);
+			// A "resume" client must send its manifest before the server streams; this one holds nothing
+			if ((" " + features + " ").contains(" resume ")) {
+				webSocket.sendBinary(ByteBuffer.wrap(new byte[] {ProtocolEncoder.MSG_RESUME_MANIFEST, 0}), true);
+			}
+			if (view != null) webSocket.sendText("VIEW " + view, true);
+		} else if (parts[0].equals("SET_ORIGIN") && parts.length >= 4) {
+			originX = Integer.parseInt(parts[1]);
+			originY = Integer.parseInt(parts[2]);
+			originZ = Integer.parseInt(parts[3]);
+			originKnown = true;
+		}
+	}
+
+	private void onMessage(ByteBuffer message) {
+		long now = System.nanoTime();
+		frames.incrementAndGet();
+		bytes.addAndGet(message.remaining());
+		FrameDecoder.Decoded decoded;
+		try {
+			decoded = decoder.decode(message);
+		} catch (FrameDecoder.MalformedFrameException e) {
+			malformed.incrementAndGet();
+			if (firstError == null) firstError = e.getMessage();
+			return;
+		}
+		framesByType.incrementAndGet(decoded.type() & 0xFF);
+		if (!decoded.hasSection()) return;
+		if (decoded.section()) {
+			sections.incrementAndGet();
+			lastSectionNanos = now;
+		} else {
+			deltas.incrementAndGet();
+		}
+		if (decoded.blocks() != null) measure(decoded, now);
+	}
+
+	/** Take the storm changes made since the last call into {@link #unseen}. */
+	private void copyChanges() {
+		cursor = changes.copy(cursor, incoming);
+		for (StormChanges.Change change : incoming) {
+			long pos = BlockPos.asLong(change.x(), change.y(), change.z());
+			unseen.computeIfAbsent(pos, p -> new ArrayDeque<>()).add(change);
+			long section = OutboundQueue.sectionKey(change.x() >> 4, (change.y() - minY) >> 4, change.z() >> 4);
+			unseenBySection.computeIfAbsent(section, k -> new LongOpenHashSet()).add(pos);
+		}
+		incoming.clear();
+	}
+
+	/** Record the latency of every unseen change decoded covers. */
+	private synchronized void measure(FrameDecoder.Decoded decoded, long now) {
+		copyChanges();
+		long key = OutboundQueue.sectionKey(decoded.cx(), decoded.sy(), decoded.cz());
+		LongOpenHashSet positions = unseenBySection.get(key);
+		if (positions == null) return;
+		FrameDecoder.Blocks blocks = decoded.blocks();
+		if (blocks.full()) {
+			for (LongIterator it = positions.iterator(); it.hasNext(); ) {
+				long pos = it.nextLong();
+				int local = (((BlockPos.getY(pos) - minY) & 15) * 16 + (BlockPos.getZ(pos) & 15)) * 16 + (BlockPos.getX(pos) & 15);
+				if (seen(pos, blocks.state(local), now)) it.remove();
+			}
+		} else {
+			for (int i = 0; i < blocks.count(); i++) {
+				int local = blocks.position(i);
+				long pos = BlockPos.asLong(decoded.cx() * 16 + (local & 15), minY + decoded.sy() * 16 + (local >> 8),
+					decoded.cz() * 16 + ((local >> 4) & 15));
+				if (positions.contains(pos) && seen(pos, blocks.state(i), now)) positions.remove(pos);
+			}
+		}
+		if (positions.isEmpty()) unseenBySection.remove(key);
+	}
+
+	/**
+	 * The client now shows block at pos: the oldest unseen change there that set it, and all unseen before it, arrived
+	 * now. Returns whether pos has no unseen changes left.
+	 */
+	private boolean seen(long pos, String block, long now) {
+		ArrayDeque<StormChanges.Change> queue = unseen.get(pos);
+		if (queue == null) return true;
+		boolean covered = false;
+		for (StormChanges.Change change : queue) {
+			if (change.block().equals(block)) {
+				covered = true;
+				break;
+			}
+		}
+		if (!covered) return false;
+		StormChanges.Change change;
+		do {
+			change = queue.poll();
+			latencies.add(now - change.nanos());
+		} while (!change.block().equals(block));
+		if (!queue.isEmpty()) return false;
+		unseen.remove(pos);
+		return true;
+	}
+}
@@ -0,0 +1,284 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import net.minecraft.core.BlockPos;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless multi-client load test for the streamer: N concurrent WebSocket clients ({@link LoadClient}, on virtual
+ * threads) join, take their initial region, then sit through a scripted block-change storm. Every message is decoded
+ * and verified. Reports throughput, time to the first full region and the latency of every block change. Exits non-zero if a frame
+ * failed verification or a client did not connect or was dropped, so it can gate CI.
+ * <p>
+ * Against a running server: --url ws://host:25566, with storms through RCON (--rcon host:port:password; setblock
+ * commands around the origin). Without --url, a {@link LocalWorldSource} stands in for the server, offline.
+ * <p>
+ * Run: ./gradlew loadTest -PloadTest="--clients 50 --storm-rate 500"
+ * <pre>
+ *   --url &lt;ws url&gt;          server to test (default: local stand-in)
+ *   --clients &lt;n&gt;           concurrent connections (default 20)
+ *   --ramp-ms &lt;ms&gt;           delay between connects (default 0)
+ *   --features &lt;a,b,c&gt;    HELLO features (default batch,deflate,ids)
+ *   --view &lt;a,b&gt;          VIEW each client sends, e.g. follow,radius=6
+ *   --settle-ms &lt;ms&gt;         quiet time that ends a region stream (default 2000)
+ *   --timeout-s &lt;s&gt;          longest wait for regions (default 120)
+ *   --storm-s &lt;s&gt;            storm length (default 10; 0 for none)
+ *   --storm-rate &lt;n&gt;         block changes per tick (default 200)
+ *   --storm-radius &lt;chunks&gt;  storm area around the origin (default 2)
+ *   --rcon host:port:password  storm driver for a real server
+ *   --min-y &lt;y&gt;              world y of section index 0 (default -64)
+ *   --local-radius &lt;chunks&gt;  size of the local stand-in world (default 4)
+ * </pre>
+ */
+public final class LoadGenerator {
+
+	private static final long TICK_NANOS = 50_000_000L;
+	/** Storm blocks, one per tick in turn: none of them is in a fresh world, and each tells its tick's changes apart. */
+	private static final String[] STORM_BLOCKS = {"white", "orange", "magenta", "light_blue", "yellow", "lime", "pink",
+		"gray", "light_gray", "cyan", "purple", "blue", "brown", "green", "red", "black"};
+
+	private LoadGenerator() {}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parse(args);
+		int clientCount = Integer.parseInt(options.getOrDefault("clients", "20"));
+		long rampMillis = Long.parseLong(options.getOrDefault("ramp-ms", "0"));
+		String features = options.getOrDefault("features", "batch,deflate,ids").replace(',', ' ');
+		String view = options.containsKey("view") ? options.get("view").replace(',', ' ') : null;
+		long settleNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.getOrDefault("settle-ms", "2000")));
+		long timeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("timeout-s", "120")));
+		int stormSeconds = Integer.parseInt(options.getOrDefault("storm-s", "10"));
+		int stormRate = Integer.parseInt(options.getOrDefault("storm-rate", "200"));
+		int stormRadius = Integer.parseInt(options.getOrDefault("storm-radius", "2"));
+		int minY = Integer.parseInt(options.getOrDefault("min-y", String.valueOf(LocalWorldSource.MIN_Y)));
+
+		LocalWorldSource local = null;
+		String url = options.get("url");
+		if (url == null) {
+			local = new LocalWorldSource(Integer.parseInt(options.getOrDefault("local-radius", "4")));
+			url = local.startAndWait();
+			minY = LocalWorldSource.MIN_Y;
+			System.out.printf("Local world source on %s (%d sections)%n", url, local.sectionCount());
+		}
+
+		StormChanges changes = new StormChanges();
+		List<LoadClient> clients = new ArrayList<>(clientCount);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		HttpClient http = HttpClient.newBuilder().executor(executor).build();
+		URI uri = URI.create(url);
+		long start = System.nanoTime();
+		List<CompletableFuture<?>> connects = new ArrayList<>(clientCount);
+		for (int i = 0; i < clientCount; i++) {
+			LoadClient client = new LoadClient(changes, features, view, minY);
+			clients.add(client);
+			connects.add(client.connect(http, uri));
+			if (rampMillis > 0) Thread.sleep(rampMillis);
+		}
+		int failedConnects = 0;
+		for (CompletableFuture<?> connect : connects) {
+			try {
+				connect.get(30, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				if (failedConnects++ == 0) System.out.println("Connect failed: " + e);
+			}
+		}
+
+		// Region phase: every client's sections have stopped arriving for settle-ms
+		long regionDeadline = start + timeoutNanos;
+		while (System.nanoTime() < regionDeadline && !settled(clients, settleNanos)) {
+			Thread.sleep(100);
+		}
+		long regionEnd = System.nanoTime();
+		long regionBytes = sum(clients, true);
+		System.out.printf("Regions: %d clients in %.1f s, %s%n", clientCount, seconds(regionEnd - start), rate(regionBytes, regionEnd - start));
+		List<Long> regionTimes = new ArrayList<>();
+		for (LoadClient client : clients) {
+			if (client.lastSectionNanos != 0) regionTimes.add(client.lastSectionNanos - client.openNanos);
+		}
+		System.out.println("Time to full region: " + percentiles(regionTimes.stream().mapToLong(Long::longValue).toArray())
+			+ " (" + regionTimes.size() + " clients with sections)");
+
+		// Storm phase
+		long stormStart = System.nanoTime();
+		long stormBytesBefore = sum(clients, true);
+		if (stormSeconds > 0 && stormRate > 0) {
+			RconClient rcon = null;
+			String rconOption = options.get("rcon");
+			if (local == null && rconOption != null) {
+				String[] parts = rconOption.split(":", 3);
+				rcon = new RconClient(parts[0], Integer.parseInt(parts[1]), parts.length > 2 ? parts[2] : "");
+			}
+			if (local == null && rcon == null) {
+				System.out.println("Storm skipped: a real server needs --rcon host:port:password to change blocks");
+			} else {
+				LoadClient first = clients.get(0);
+				int ox = first.originKnown ? first.originX : 0;
+				int oy = first.originKnown ? first.originY : LocalWorldSource.ORIGIN_Y;
+				int oz = first.originKnown ? first.originZ : 0;
+				storm(local, rcon, changes, ox, oy, oz, stormRadius, stormRate, stormSeconds);
+				if (rcon != null) rcon.close();
+				// Stragglers
+				Thread.sleep(TimeUnit.NANOSECONDS.toMillis(settleNanos));
+			}
+		}
+		long stormEnd = System.nanoTime();
+		long stormBytes = sum(clients, true) - stormBytesBefore;
+
+		report(clients, failedConnects, changes.size(), stormBytes, stormEnd - stormStart, stormEnd - start);
+		boolean failed = failedConnects > 0 || clients.stream().anyMatch(c -> c.malformed.get() > 0 || !c.isOpen());
+		for (LoadClient client : clients) {
+			client.close();
+		}
+		if (local != null) local.stop(1000);
+		executor.shutdownNow();
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Change stormRate random blocks around the origin every tick for stormSeconds, to the next wool colour each tick,
+	 * stamping each change just before it is made. A position is changed at most once per tick and never to the colour
+	 * it already has, so every change is a new state a client can see (see {@link StormChanges}).
+	 */
+	private static void storm(LocalWorldSource local, RconClient rcon, StormChanges changes, int ox, int oy, int oz,
+	                          int radius, int rate, int seconds) throws IOException, InterruptedException {
+		Random random = new Random(1);
+		long ticks = seconds * 20L;
+		// Tick each position was last changed in
+		Long2LongOpenHashMap changedAt = new Long2LongOpenHashMap();
+		changedAt.defaultReturnValue(-1);
+		long next = System.nanoTime();
+		for (long tick = 0; tick < ticks; tick++) {
+			String block = "minecraft:" + STORM_BLOCKS[(int) (tick % STORM_BLOCKS.length)] + "_wool";
+			int[] xyz = new int[rate * 3];
+			for (int i = 0; i < rate; i++) {
+				int x;
+				int y;
+				int z;
+				long last;
+				do {
+					x = ox + random.nextInt(radius * 32 + 16) - radius * 16;
+					y = oy - 8 + random.nextInt(16);
+					z = oz + random.nextInt(radius * 32 + 16) - radius * 16;
+					last = changedAt.get(BlockPos.asLong(x, y, z));
+				} while (last >= 0 && (tick - last) % STORM_BLOCKS.length == 0);
+				changedAt.put(BlockPos.asLong(x, y, z), tick);
+				xyz[i * 3] = x;
+				xyz[i * 3 + 1] = y;
+				xyz[i * 3 + 2] = z;
+			}
+			long now = System.nanoTime();
+			for (int i = 0; i < rate; i++) {
+				changes.add(new StormChanges.Change(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2], block, now));
+			}
+			if (local != null) {
+				local.setBlocks(xyz, block);
+			} else {
+				for (int i = 0; i < rate; i++) {
+					rcon.command("setblock " + xyz[i * 3] + " " + xyz[i * 3 + 1] + " " + xyz[i * 3 + 2] + " " + block);
+				}
+			}
+			next += TICK_NANOS;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+		}
+	}
+
+	private static boolean settled(List<LoadClient> clients, long settleNanos) {
+		long now = System.nanoTime();
+		for (LoadClient client : clients) {
+			if (!client.isOpen()) continue;
+			long last = client.lastSectionNanos;
+			if (last == 0 || now - last < settleNanos) return false;
+		}
+		return true;
+	}
+
+	private static void report(List<LoadClient> clients, int failedConnects, int stormChanges, long stormBytes,
+	                           long stormNanos, long totalNanos) {
+		long frames = 0;
+		long bytes = 0;
+		long malformed = 0;
+		int dropped = 0;
+		long[] byType = new long[256];
+		List<long[]> latencies = new ArrayList<>();
+		long unseen = 0;
+		for (LoadClient client : clients) {
+			frames += client.frames.get();
+			bytes += client.bytes.get();
+			malformed += client.malformed.get();
+			for (int t = 0; t < 256; t++) {
+				byType[t] += client.framesByType.get(t);
+			}
+			latencies.add(client.latencies());
+			unseen += client.unseenChanges();
+			if (client.firstError != null) System.out.println("Malformed frame: " + client.firstError);
+			if (!client.isOpen() && client.closeReason != null) {
+				if (dropped++ == 0) System.out.println("Client dropped: " + client.closeReason);
+			}
+		}
+		System.out.printf("Total: %d frames, %d bytes in %.1f s (%s, %s per client)%n", frames, bytes, seconds(totalNanos),
+			rate(bytes, totalNanos), rate(bytes / Math.max(1, clients.size()), totalNanos));
+		StringBuilder types = new StringBuilder("Frames by type:");
+		for (int t = 0; t < 256; t++) {
+			if (byType[t] > 0) types.append(' ').append(StreamerMetrics.typeName(t)).append('=').append(byType[t]);
+		}
+		System.out.println(types);
+		if (stormChanges > 0) {
+			long[] all = latencies.stream().flatMapToLong(Arrays::stream).toArray();
+			System.out.printf("Storm: %d block changes, %s to clients%n", stormChanges, rate(stormBytes, stormNanos));
+			// Unseen: outside a client's window, or not arrived when the test ended; counted once per client
+			System.out.println("Block change latency: " + percentiles(all) + " (" + all.length + " samples, " + unseen
+				+ " unseen)");
+		}
+		System.out.printf("Clients: %d connected, %d failed to connect, %d dropped; %d malformed frames%n",
+			clients.size() - failedConnects, failedConnects, dropped, malformed);
+	}
+
+	private static long sum(List<LoadClient> clients, boolean bytes) {
+		long sum = 0;
+		for (LoadClient client : clients) {
+			sum += bytes ? client.bytes.get() : client.frames.get();
+		}
+		return sum;
+	}
+
+	/** "p50 12.3 ms, p99 45.6 ms, max 78.9 ms" of nanosecond samples. */
+	private static String percentiles(long[] nanos) {
+		if (nanos.length == 0) return "no samples";
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		return String.format("p50 %.1f ms, p99 %.1f ms, max %.1f ms", sorted[(sorted.length - 1) / 2] / 1e6,
+			sorted[(int) Math.ceil(sorted.length * 0.99) - 1] / 1e6, sorted[sorted.length - 1] / 1e6);
+	}
+
+	private static String rate(long bytes, long nanos) {
+		return String.format("%.2f MB/s", bytes / 1e6 / Math.max(1e-9, seconds(nanos)));
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	/** --key value pairs. */
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 >= args.length) throw new IllegalArgumentException("Expected --option value at " + args[i]);
+			options.put(args[i].substring(2), args[++i]);
+		}
+		return options;
+	}
+}
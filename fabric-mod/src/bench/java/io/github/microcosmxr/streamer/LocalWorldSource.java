@@ -0,0 +1,186 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import net.minecraft.core.SectionPos;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Stand-in for a running Minecraft server, so {@link LoadGenerator} runs offline (e.g. in CI): a WebSocket server that
+ * speaks the streamer's side of the protocol over a synthetic flat world, using the mod's own {@link ProtocolEncoder} and
+ * {@link FrameCompressor}. It offers "batch" and "deflate"; a client gets HELLO, SET_ORIGIN, then every non-air section
+ * within radius chunks of the origin (v1 or compact, as negotiated), and afterwards the block changes
+ * {@link #setBlocks} makes, one BLOCK_DELTA_BATCH per section (BLOCK_DELTA each without "batch").
+ * <p>
+ * What it measures is the protocol path (encode, compress, socket, client decode), not the game thread.
+ */
+final class LocalWorldSource extends WebSocketServer {
+
+	static final int MIN_Y = -64;
+	static final int ORIGIN_Y = 64;
+	/** Section index of the surface: grass at its top layer, air above. */
+	private static final int SURFACE_SECTION = (ORIGIN_Y - 1 - MIN_Y) >> 4;
+	private static final String FEATURES = "batch deflate";
+
+	/** Every non-air section of the world, encoded once per format on first use. */
+	private final List<Section> sections = new ArrayList<>();
+	/** Clients past their region, with their negotiated features. */
+	private final Map<WebSocket, Set<ProtocolFeature>> clients = new ConcurrentHashMap<>();
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	LocalWorldSource(int radius) {
+		super(new InetSocketAddress("127.0.0.1", 0));
+		setReuseAddr(true);
+		for (int cx = -radius; cx <= radius; cx++) {
+			for (int cz = -radius; cz <= radius; cz++) {
+				for (int sy = SURFACE_SECTION - 3; sy <= SURFACE_SECTION; sy++) {
+					sections.add(new Section(cx, cz, sy, sy == SURFACE_SECTION ? surface() : stone()));
+				}
+			}
+		}
+	}
+
+	/** Start on an ephemeral loopback port and wait until it accepts connections; returns the ws:// URL. */
+	String startAndWait() throws InterruptedException {
+		start();
+		started.await();
+		return "ws://127.0.0.1:" + getPort();
+	}
+
+	int sectionCount() {
+		return sections.size();
+	}
+
+	/**
+	 * Set blocks at (x, y, z) triples to blockStateId and send the changes to every client, grouped by section as the
+	 * server's {@link BlockDeltaBatcher} would at the end of a tick.
+	 */
+	void setBlocks(int[] xyz, String blockStateId) {
+		Long2ObjectLinkedOpenHashMap<ShortArrayList> bySection = new Long2ObjectLinkedOpenHashMap<>();
+		for (int i = 0; i < xyz.length; i += 3) {
+			int x = xyz[i];
+			int y = xyz[i + 1];
+			int z = xyz[i + 2];
+			long key = OutboundQueue.sectionKey(x >> 4, (y - MIN_Y) >> 4, z >> 4);
+			bySection.computeIfAbsent(key, k -> new ShortArrayList()).add((short) ((((y - MIN_Y) & 15) * 16 + (z & 15)) * 16 + (x & 15)));
+		}
+		List<String> palette = List.of(blockStateId);
+		for (Long2ObjectLinkedOpenHashMap.Entry<ShortArrayList> entry : bySection.long2ObjectEntrySet()) {
+			long key = entry.getLongKey();
+			int cx = SectionPos.x(key);
+			int sy = SectionPos.y(key);
+			int cz = SectionPos.z(key);
+			short[] positions = entry.getValue().toShortArray();
+			EncodedFrame batch = ProtocolEncoder.blockDeltaBatch(cx, cz, sy, palette, positions, new short[positions.length]);
+			List<EncodedFrame> singles = null;
+			for (Map.Entry<WebSocket, Set<ProtocolFeature>> client : clients.entrySet()) {
+				if (client.getValue().contains(ProtocolFeature.DELTA_BATCH)) {
+					send(client.getKey(), client.getValue(), batch);
+					continue;
+				}
+				if (singles == null) {
+					singles = new ArrayList<>(positions.length);
+					for (short local : positions) {
+						int x = cx * 16 + (local & 15);
+						int y = MIN_Y + sy * 16 + (local >> 8);
+						int z = cz * 16 + ((local >> 4) & 15);
+						singles.add(ProtocolEncoder.blockDelta(x, y, z, blockStateId));
+					}
+				}
+				for (EncodedFrame single : singles) {
+					send(client.getKey(), client.getValue(), single);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void onOpen(WebSocket conn, ClientHandshake handshake) {
+		conn.send("HELLO " + ProtocolEncoder.PROTOCOL_VERSION + " " + FEATURES);
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, String message) {
+		String[] parts = message.trim().split("\\s+");
+		if (parts.length < 2 || !parts[0].equals("HELLO") || clients.containsKey(conn)) return;
+		int protocol;
+		try {
+			protocol = Math.max(ProtocolEncoder.BASE_PROTOCOL_VERSION, Math.min(Integer.parseInt(parts[1]), ProtocolEncoder.PROTOCOL_VERSION));
+		} catch (NumberFormatException e) {
+			protocol = ProtocolEncoder.BASE_PROTOCOL_VERSION;
+		}
+		Set<ProtocolFeature> features = ProtocolFeature.parse(parts, 2);
+		features.retainAll(ProtocolFeature.parse(FEATURES.split(" "), 0));
+		conn.send("SET_ORIGIN 0 " + ORIGIN_Y + " 0 0.2 minecraft:overworld");
+		for (Section section : sections) {
+			send(conn, features, (protocol >= 2 ? section.compact : section.v1).get());
+		}
+		// Registered after its region, so deltas never overtake a section this client has not been sent yet
+		clients.put(conn, features);
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, ByteBuffer message) {
+		// RESUME_MANIFEST from "resume" clients: not offered here
+	}
+
+	@Override
+	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+		clients.remove(conn);
+	}
+
+	@Override
+	public void onError(WebSocket conn, Exception ex) {
+		MicrocosmStreamerMod.LOGGER.warn("Local world source error", ex);
+	}
+
+	@Override
+	public void onStart() {
+		started.countDown();
+	}
+
+	/** One section of the world and its two wire forms. */
+	private record Section(Supplier<EncodedFrame> v1, Supplier<EncodedFrame> compact) {
+		Section(int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap) {
+			this(EncodedFrame.once(() -> ProtocolEncoder.chunkSectionSnapshot(cx, cz, sy, snap)),
+				EncodedFrame.once(() -> ProtocolEncoder.chunkSectionCompact(cx, cz, sy, snap, null, false)));
+		}
+	}
+
+	private static void send(WebSocket conn, Set<ProtocolFeature> features, EncodedFrame frame) {
+		if (frame == null || !conn.isOpen()) return;
+		conn.send(features.contains(ProtocolFeature.DEFLATE) ? frame.compressed().payload() : frame.payload());
+	}
+
+	/** Grass over dirt, varying height, sky light above the ground. */
+	private static ChunkSerializer.SectionSnapshot surface() {
+		List<String> palette = List.of("minecraft:air", "minecraft:grass_block", "minecraft:dirt", "minecraft:stone");
+		short[] indices = new short[4096];
+		byte[] sky = new byte[4096];
+		for (int i = 0; i < 4096; i++) {
+			int x = i & 15;
+			int z = (i >> 4) & 15;
+			int y = i >> 8;
+			int top = 10 + (x * 7 + z * 13) % 4;
+			indices[i] = (short) (y > top ? 0 : y == top ? 1 : y > top - 4 ? 2 : 3);
+			sky[i] = (byte) (y > top ? 15 : 0);
+		}
+		return new ChunkSerializer.SectionSnapshot(palette, indices, new byte[4096], sky, List.of("minecraft:plains"), new short[64]);
+	}
+
+	private static ChunkSerializer.SectionSnapshot stone() {
+		return new ChunkSerializer.SectionSnapshot(List.of("minecraft:stone"), new short[4096]);
+	}
+}
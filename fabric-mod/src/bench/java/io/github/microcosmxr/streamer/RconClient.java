@@ -0,0 +1,67 @@
+package io.github.microcosmxr.streamer;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal Source RCON client, for {@link LoadGenerator} block-change storms against a real server (enable-rcon=true and
+ * rcon.password in server.properties): each command is one request packet and one response read back.
+ */
+final class RconClient implements Closeable {
+
+	private static final int LOGIN = 3;
+	private static final int COMMAND = 2;
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final OutputStream out;
+	private int nextId = 1;
+
+	RconClient(String host, int port, String password) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(socket.getInputStream());
+		out = socket.getOutputStream();
+		if (request(LOGIN, password) == null) {
+			socket.close();
+			throw new IOException("RCON login to " + host + ":" + port + " refused");
+		}
+	}
+
+	/** Run a server command; returns its output. */
+	String command(String command) throws IOException {
+		String response = request(COMMAND, command);
+		if (response == null) throw new IOException("RCON command rejected: " + command);
+		return response;
+	}
+
+	/** Send one packet and read its response; null if the server answered with id -1 (bad password). */
+	private String request(int type, String body) throws IOException {
+		int id = nextId++;
+		byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer packet = ByteBuffer.allocate(14 + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+		packet.putInt(10 + payload.length).putInt(id).putInt(type).put(payload).put((byte) 0).put((byte) 0);
+		out.write(packet.array());
+		out.flush();
+
+		int length = Integer.reverseBytes(in.readInt());
+		byte[] response = new byte[length];
+		in.readFully(response);
+		ByteBuffer buffer = ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN);
+		int responseId = buffer.getInt();
+		buffer.getInt();
+		if (responseId == -1) return null;
+		return new String(response, 8, Math.max(0, length - 10), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
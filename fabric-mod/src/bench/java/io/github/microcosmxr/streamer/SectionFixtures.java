@@ -0,0 +1,120 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.core.Holder;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic sections for the JMH benchmarks, built without a server: the built-in registries are bootstrapped offline
+ * (as in Minecraft's own game tests) and each section is filled through a {@link PalettedContainer}, so palettes resize
+ * exactly as they do in worldgen. Biome holders are left empty (translated as plains): biomes are a datapack registry.
+ */
+final class SectionFixtures {
+
+	/** The section shapes benchmarks are parameterized over. */
+	enum Kind {
+		/** Nothing but air: captured as an empty section. */
+		AIR,
+		/** Stone throughout: single-value palette, no indices on the wire. */
+		SINGLE,
+		/** Grass over dirt over stone with ores and a cave: a linear palette of about ten states. */
+		TERRAIN,
+		/** A player build of 300 distinct states: past 256 entries the container switches to the global palette. */
+		BUILD
+	}
+
+	/** Block registry for palette translation (no biomes). */
+	static final RegistryAccess REGISTRIES;
+
+	static {
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+		REGISTRIES = RegistryAccess.fromRegistryOfRegistries(BuiltInRegistries.REGISTRY);
+	}
+
+	private SectionFixtures() {}
+
+	/** A game-thread capture of a section of this kind, as {@link ChunkSerializer#capture} would produce. */
+	@SuppressWarnings("unchecked")
+	static ChunkSerializer.SectionCapture capture(Kind kind) {
+		PalettedContainer<BlockState> states = states(kind);
+		if (states == null) return new ChunkSerializer.SectionCapture(0, 0, 4, null, null, null, null);
+		byte[] sky = new byte[4096];
+		byte[] block = new byte[4096];
+		if (kind == Kind.TERRAIN) {
+			// Sky light fades below the surface, a torch lights the cave
+			for (int i = 0; i < 4096; i++) {
+				int y = i >> 8;
+				sky[i] = (byte) Math.max(0, 15 - Math.max(0, 9 - y) * 4);
+				block[i] = (byte) (states.get(i & 15, y, (i >> 4) & 15).isAir() ? 8 : 0);
+			}
+		} else if (kind == Kind.BUILD) {
+			Arrays.fill(sky, (byte) 15);
+		}
+		return new ChunkSerializer.SectionCapture(0, 0, 4, states, ChunkSerializer.LightCapture.ready(block),
+			ChunkSerializer.LightCapture.ready(sky), (Holder<Biome>[]) new Holder[64]);
+	}
+
+	/** The block container of a section of this kind, or null for {@link Kind#AIR}. */
+	static PalettedContainer<BlockState> states(Kind kind) {
+		if (kind == Kind.AIR) return null;
+		PalettedContainer<BlockState> states = new PalettedContainer<>(Blocks.AIR.defaultBlockState(),
+			PalettedContainer.Strategy.createForBlockStates(Block.BLOCK_STATE_REGISTRY));
+		Random random = new Random(kind.ordinal());
+		BlockState[] build = kind == Kind.BUILD ? buildStates(random) : null;
+		for (int y = 0; y < 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					BlockState state = switch (kind) {
+						case SINGLE -> Blocks.STONE.defaultBlockState();
+						case TERRAIN -> terrain(random, x, y, z);
+						default -> build[random.nextInt(build.length)];
+					};
+					states.getAndSetUnchecked(x, y, z, state);
+				}
+			}
+		}
+		return states;
+	}
+
+	private static BlockState terrain(Random random, int x, int y, int z) {
+		int top = 9 + ((x * 7 + z * 13) % 3);
+		int dx = x - 8;
+		int dy = y - 3;
+		int dz = z - 8;
+		if (dx * dx + dy * dy * 3 + dz * dz < 20) return Blocks.CAVE_AIR.defaultBlockState();
+		if (y > top) return y == top + 1 && random.nextInt(5) == 0 ? Blocks.SHORT_GRASS.defaultBlockState() : Blocks.AIR.defaultBlockState();
+		if (y == top) return Blocks.GRASS_BLOCK.defaultBlockState();
+		if (y > top - 4) return Blocks.DIRT.defaultBlockState();
+		int roll = random.nextInt(100);
+		if (roll < 2) return Blocks.COAL_ORE.defaultBlockState();
+		if (roll < 3) return Blocks.IRON_ORE.defaultBlockState();
+		if (roll < 8) return Blocks.ANDESITE.defaultBlockState();
+		if (roll < 10) return Blocks.GRAVEL.defaultBlockState();
+		return Blocks.STONE.defaultBlockState();
+	}
+
+	/** 300 distinct non-air states, drawn from the whole state registry. */
+	private static BlockState[] buildStates(Random random) {
+		BlockState[] states = new BlockState[300];
+		Set<BlockState> seen = new HashSet<>();
+		int n = 0;
+		while (n < states.length) {
+			BlockState state = Block.BLOCK_STATE_REGISTRY.byId(1 + random.nextInt(Block.BLOCK_STATE_REGISTRY.size() - 1));
+			if (state != null && !state.isAir() && seen.add(state)) states[n++] = state;
+		}
+		return states;
+	}
+}
@@ -0,0 +1,63 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Section serialization, in the two halves {@link ChunkSerializer#serializeSection} is made of, plus the "surface"
+ * visibility pass. Run: ./gradlew jmh -Pjmh=SectionSerialize
+ * <ul>
+ *   <li>capture: the game-thread part, a copy of the section's block container (light and biome lookups need a level and
+ *   are left out).</li>
+ *   <li>translate: the worker part, palette translation into id strings and index/light arrays.</li>
+ *   <li>surface: {@link SectionSurface#compute} with every face open (the most flood-fill work).</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SectionSerializeBenchmark {
+
+	@Param({"AIR", "SINGLE", "TERRAIN", "BUILD"})
+	public SectionFixtures.Kind section;
+
+	private PalettedContainer<BlockState> states;
+	private ChunkSerializer.SectionCapture capture;
+
+	@Setup
+	public void setup() {
+		states = SectionFixtures.states(section);
+		capture = SectionFixtures.capture(section);
+	}
+
+	@Benchmark
+	public PalettedContainer<BlockState> capture() {
+		return states != null ? states.copy() : null;
+	}
+
+	@Benchmark
+	public ChunkSerializer.SectionSnapshot translate() {
+		return ChunkSerializer.translate(SectionFixtures.REGISTRIES, capture);
+	}
+
+	@Benchmark
+	public SectionSurface surface() {
+		return SectionSurface.compute(capture, 0);
+	}
+}
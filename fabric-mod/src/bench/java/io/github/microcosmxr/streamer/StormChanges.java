@@ -0,0 +1,32 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every block change of {@link LoadGenerator}'s storm, in the order it was made, each stamped just before it was made;
+ * appended by the storm, read by every {@link LoadClient} from its own cursor. A change is told apart by its position
+ * and the block it sets: the storm never sets a position to the block it already has, so each change a client sees is
+ * a new state at that position.
+ */
+final class StormChanges {
+
+	/** One change: world position, the block state set and the nanoTime just before it was made. */
+	record Change(int x, int y, int z, String block, long nanos) {}
+
+	private final List<Change> changes = new ArrayList<>();
+
+	synchronized void add(Change change) {
+		changes.add(change);
+	}
+
+	synchronized int size() {
+		return changes.size();
+	}
+
+	/** Copy the changes from index from on into into; returns the new end. */
+	synchronized int copy(int from, List<Change> into) {
+		into.addAll(changes.subList(from, changes.size()));
+		return changes.size();
+	}
+}
@@ -0,0 +1,90 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of the range check every setBlock and light update goes through ({@link WatchedSections#tracked}, the
+ * early reject of the mixins). Run: ./gradlew benchWatchedSections
+ * <p>
+ * One level watched by a default window (9×9 columns, 17 sections); block positions are precomputed so the call is all
+ * that is measured. Cases: no clients, another level, misses in the watched level (the common case: worldgen and farms
+ * elsewhere) and hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WatchedSectionsBenchmark {
+
+	public enum Case { NO_CLIENTS, OTHER_LEVEL, MISS, HIT }
+
+	private static final int POSITIONS = 1 << 16;
+
+	@Param({"NO_CLIENTS", "OTHER_LEVEL", "MISS", "HIT"})
+	public Case check;
+
+	private final Object level = new Object();
+	private Object queried;
+	private int[] xyz;
+	private int next;
+
+	@Setup
+	public void setup() {
+		LongOpenHashSet sections = new LongOpenHashSet();
+		for (int cx = -4; cx <= 4; cx++) {
+			for (int cz = -4; cz <= 4; cz++) {
+				for (int sy = -4; sy <= 12; sy++) {
+					sections.add(SectionPos.asLong(cx, sy, cz));
+				}
+			}
+		}
+		sections.trim();
+		if (check == Case.NO_CLIENTS) {
+			WatchedSections.clear();
+		} else {
+			WatchedSections.install(new Object[] {level}, new LongOpenHashSet[] {sections});
+		}
+		queried = check == Case.OTHER_LEVEL ? new Object() : level;
+		xyz = positions(new Random(1), check == Case.HIT ? 64 : 30_000);
+	}
+
+	@TearDown
+	public void tearDown() {
+		WatchedSections.clear();
+	}
+
+	@Benchmark
+	public boolean tracked() {
+		int p = (next++ & (POSITIONS - 1)) * 3;
+		return WatchedSections.tracked(queried, xyz[p], xyz[p + 1], xyz[p + 2]);
+	}
+
+	/** x, y, z triples within +-range blocks of the origin (y in -64..319). */
+	private static int[] positions(Random random, int range) {
+		int[] xyz = new int[POSITIONS * 3];
+		for (int i = 0; i < POSITIONS; i++) {
+			xyz[i * 3] = random.nextInt(2 * range + 1) - range;
+			xyz[i * 3 + 1] = Math.min(319, Math.max(-64, 64 + random.nextInt(2 * range + 1) - range));
+			xyz[i * 3 + 2] = random.nextInt(2 * range + 1) - range;
+		}
+		return xyz;
+	}
+}
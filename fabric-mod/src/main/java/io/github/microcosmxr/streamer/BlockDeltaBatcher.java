@@ -0,0 +1,164 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers block changes during a tick and flushes them at the end of the tick. Repeated writes to one position keep only
+ * the last state. Changes are grouped by section: clients with an id table get one BLOCK_DELTA_IDS frame per section,
+ * clients with {@link ProtocolFeature#DELTA_BATCH} one BLOCK_DELTA_BATCH frame, others one BLOCK_DELTA per changed
+ * block. A section with at least {@link StreamerConfig#DELTA_SNAPSHOT_THRESHOLD} changes is re-sent as a
+ * CHUNK_SECTION_SNAPSHOT instead. Only clients whose window covers the section get it (see {@link SubscriberIndex}).
+ * Game thread only.
+ */
+final class BlockDeltaBatcher {
+
+	private final Map<ServerLevel, Long2ObjectLinkedOpenHashMap<BlockState>> pending = new IdentityHashMap<>();
+
+	void record(ServerLevel level, int x, int y, int z, BlockState state) {
+		pending.computeIfAbsent(level, l -> new Long2ObjectLinkedOpenHashMap<>()).put(BlockPos.asLong(x, y, z), state);
+	}
+
+	void clear() {
+		pending.clear();
+	}
+
+	/** Send this tick's changes; returns how many (after coalescing). */
+	int flush(StreamerServer server) {
+		if (pending.isEmpty()) return 0;
+		int flushed = 0;
+		for (Map.Entry<ServerLevel, Long2ObjectLinkedOpenHashMap<BlockState>> entry : pending.entrySet()) {
+			Long2ObjectLinkedOpenHashMap<BlockState> changes = entry.getValue();
+			flushed += changes.size();
+			if (!changes.isEmpty()) flushLevel(server, entry.getKey(), changes);
+		}
+		pending.clear();
+		return flushed;
+	}
+
+	private void flushLevel(StreamerServer server, ServerLevel level, Long2ObjectLinkedOpenHashMap<BlockState> changes) {
+		int minY = level.dimensionType().minY();
+		Long2ObjectLinkedOpenHashMap<SectionBatch> sections = new Long2ObjectLinkedOpenHashMap<>();
+		for (Long2ObjectMap.Entry<BlockState> change : changes.long2ObjectEntrySet()) {
+			long pos = change.getLongKey();
+			int x = BlockPos.getX(pos);
+			int y = BlockPos.getY(pos);
+			int z = BlockPos.getZ(pos);
+			int cx = x >> 4;
+			int cz = z >> 4;
+			int sy = (y - minY) >> 4;
+			SectionBatch batch = sections.computeIfAbsent(SectionPos.asLong(cx, sy, cz), k -> new SectionBatch(cx, cz, sy));
+			batch.add((short) (((y & 15) * 16 + (z & 15)) * 16 + (x & 15)), change.getValue());
+		}
+
+		RegistryAccess registryAccess = level.registryAccess();
+		for (SectionBatch batch : sections.values()) {
+			// Collapse into a snapshot only from a loaded chunk: never the synchronous load path on the game thread
+			ChunkAccess chunk = batch.size() >= StreamerConfig.DELTA_SNAPSHOT_THRESHOLD
+				? level.getChunkSource().getChunkNow(batch.cx, batch.cz) : null;
+			if (chunk != null) {
+				server.broadcastSection(level, chunk, batch.sy);
+			} else {
+				sendBatch(server, level, registryAccess, minY, batch);
+			}
+		}
+	}
+
+	private static void sendBatch(StreamerServer server, ServerLevel level, RegistryAccess registryAccess, int minY, SectionBatch batch) {
+		EncodedFrame idsFrame = null;
+		EncodedFrame batchFrame = null;
+		List<EncodedFrame> singleFrames = null;
+		for (StreamerWebSocketHandler client : server.subscribers(level, batch.cx, batch.cz)) {
+			if (!client.window().containsSection(batch.cx, batch.sy, batch.cz)) continue;
+			IdTable ids = client.idTable();
+			if (ids != null) {
+				if (idsFrame == null) {
+					int[] blockIds = new int[batch.size()];
+					for (int i = 0; i < batch.size(); i++) {
+						blockIds[i] = ids.blockId(batch.states.get(i));
+					}
+					idsFrame = ProtocolEncoder.blockDeltaIds(batch.cx, batch.cz, batch.sy, batch.positions.toShortArray(), blockIds);
+				}
+				client.sendSectionDelta(batch.cx, batch.cz, batch.sy, idsFrame);
+				continue;
+			}
+			// String clients only: palette of one string per distinct state in this batch
+			if (batch.palette == null) batch.buildPalette(registryAccess);
+			if (client.supports(ProtocolFeature.DELTA_BATCH)) {
+				if (batchFrame == null) {
+					batchFrame = ProtocolEncoder.blockDeltaBatch(batch.cx, batch.cz, batch.sy, batch.palette, batch.positions.toShortArray(), batch.paletteIndices);
+				}
+				client.sendSectionDelta(batch.cx, batch.cz, batch.sy, batchFrame);
+			} else {
+				if (singleFrames == null) {
+					singleFrames = new ArrayList<>(batch.size());
+					for (int i = 0; i < batch.size(); i++) {
+						int local = batch.positions.getShort(i);
+						int x = batch.cx * 16 + (local & 15);
+						int y = minY + batch.sy * 16 + (local >> 8);
+						int z = batch.cz * 16 + ((local >> 4) & 15);
+						singleFrames.add(ProtocolEncoder.blockDelta(x, y, z, batch.palette.get(batch.paletteIndices[i])));
+					}
+				}
+				for (EncodedFrame frame : singleFrames) {
+					client.sendSectionDelta(batch.cx, batch.cz, batch.sy, frame);
+				}
+			}
+		}
+	}
+
+	/** Coalesced changes for one section: packed local positions ((y * 16 + z) * 16 + x) and their new states. */
+	private static final class SectionBatch {
+		final int cx;
+		final int cz;
+		final int sy;
+		final ShortArrayList positions = new ShortArrayList();
+		final List<BlockState> states = new ArrayList<>();
+		/** String palette and per-change indices into it, built only when a string-id client needs them. */
+		List<String> palette;
+		short[] paletteIndices;
+
+		SectionBatch(int cx, int cz, int sy) {
+			this.cx = cx;
+			this.cz = cz;
+			this.sy = sy;
+		}
+
+		void add(short local, BlockState state) {
+			positions.add(local);
+			states.add(state);
+		}
+
+		int size() {
+			return positions.size();
+		}
+
+		void buildPalette(RegistryAccess registryAccess) {
+			Map<BlockState, Short> stateIds = new IdentityHashMap<>();
+			palette = new ArrayList<>();
+			paletteIndices = new short[size()];
+			for (int i = 0; i < size(); i++) {
+				BlockState state = states.get(i);
+				Short id = stateIds.get(state);
+				if (id == null) {
+					id = (short) palette.size();
+					stateIds.put(state, id);
+					palette.add(ChunkSerializer.blockStateToString(registryAccess, state));
+				}
+				paletteIndices[i] = id;
+			}
+		}
+	}
+}
@@ -2,42 +2,52 @@ package io.github.microcosmxr.streamer;
 
 import net.fabricmc.fabric.api.event.player.PlayerBlockBreakEvents;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
 
 /**
- * Listens for block break/place and broadcasts BLOCK_DELTA to streamer clients when the block is in range of the origin.
+ * Listens for block break/place and queues BLOCK_DELTA for streamer clients when some client's window covers the block's
+ * column (coalesced and flushed at end of tick, see BlockDeltaBatcher).
  */
 public final class BlockDeltaCallback {
 
-	private static final int BLOCK_RADIUS = 64;  // only send deltas within this manhattan-ish range of origin
-
 	private BlockDeltaCallback() {}
 
 	public static void register() {
 		PlayerBlockBreakEvents.AFTER.register((world, player, pos, state, blockEntity) -> {
-			if (!(world instanceof ServerLevel)) return;
+			if (!WatchedSections.contains(world, pos.getX(), pos.getY(), pos.getZ())) return;
 			StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
 			if (server == null) return;
-			if (!inRange(server, pos.getX(), pos.getY(), pos.getZ())) return;
-			// Block broken -> new state is air
-			server.broadcastBlockDelta(pos.getX(), pos.getY(), pos.getZ(), "minecraft:air");
+			// Block broken -> new state is air (coalesces with the setBlock delta from the mixin)
+			server.onBlockChanged((ServerLevel) world, pos.getX(), pos.getY(), pos.getZ(), Blocks.AIR.defaultBlockState());
 		});
 		// Block place: handled by LevelSetBlockMixin (on Level.setBlock) which calls onBlockSet()
 	}
 
-	private static boolean inRange(StreamerServer server, int x, int y, int z) {
-		int dx = Math.abs(x - server.getOriginX());
-		int dy = Math.abs(y - server.getOriginY());
-		int dz = Math.abs(z - server.getOriginZ());
-		return dx <= BLOCK_RADIUS && dy <= BLOCK_RADIUS && dz <= BLOCK_RADIUS;
-	}
-
-	/** Call this when a block is set (e.g. from a mixin or world change listener) to broadcast the new state. */
+	/**
+	 * Call this when a block is set in a section {@link WatchedSections#tracked} (the caller checks, e.g. the setBlock
+	 * mixin): invalidates the section in the section cache and, if some client watches it, broadcasts the new state at
+	 * end of tick.
+	 */
 	public static void onBlockSet(net.minecraft.server.level.ServerLevel level, int x, int y, int z, BlockState newState) {
 		StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
 		if (server == null) return;
-		if (!inRange(server, x, y, z)) return;
-		server.broadcastBlockDelta(x, y, z, ChunkSerializer.blockStateToString(level.registryAccess(), newState));
+		server.sectionCache().invalidateBlock(level, x, y, z);
+		if (WatchedSections.contains(level, x, y, z)) server.onBlockChanged(level, x, y, z, newState);
+	}
+
+	/** A block entity in a watched section called setChanged (BlockEntitySetChangedMixin): queue its update. */
+	public static void onBlockEntityChanged(ServerLevel level, BlockEntity blockEntity) {
+		StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
+		if (server != null) server.onBlockEntityChanged(level, blockEntity);
+	}
+
+	/** Light changed in a tracked section (light engine thread): invalidate it in the section cache. */
+	public static void onLightChanged(ServerLevel level, SectionPos pos) {
+		StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
+		if (server != null) server.sectionCache().invalidateLight(level, pos);
 	}
 }
@@ -0,0 +1,127 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.entity.BlockEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One block entity as a BLOCK_ENTITY frame: its type and the render-relevant part of its NBT. Which top-level keys are
+ * render-relevant is a per-type allowlist ({@link StreamerConfig#BLOCK_ENTITY_NBT}, e.g. a sign's text, a banner's
+ * patterns, a chest's items); types not on it go out without NBT, as before. Captured on the game thread (the block
+ * entity saved to a fresh tag); filtered, written and hashed off it, by {@link #encode()}.
+ */
+final class BlockEntitySnapshot {
+
+	/** Allowlisted top-level NBT keys by block entity type id. */
+	private static final Map<String, List<String>> ALLOWLIST = parseAllowlist(StreamerConfig.BLOCK_ENTITY_NBT);
+
+	final BlockPos pos;
+	private final String typeId;
+	/** Keys to send, and the saved block entity (null if the type has none). */
+	private final List<String> keys;
+	private final CompoundTag saved;
+	private long hash;
+
+	private BlockEntitySnapshot(BlockPos pos, String typeId, List<String> keys, CompoundTag saved) {
+		this.pos = pos;
+		this.typeId = typeId;
+		this.keys = keys;
+		this.saved = saved;
+	}
+
+	/** Capture blockEntity now (game thread). */
+	static BlockEntitySnapshot capture(ServerLevel level, BlockEntity blockEntity) {
+		String typeId = typeId(blockEntity);
+		List<String> keys = ALLOWLIST.get(typeId);
+		CompoundTag saved = keys != null ? blockEntity.saveWithoutMetadata(level.registryAccess()) : null;
+		return new BlockEntitySnapshot(blockEntity.getBlockPos().immutable(), typeId, keys, saved);
+	}
+
+	/** Whether blockEntity has NBT on the allowlist, i.e. whether a change to it can change what clients are sent. */
+	static boolean streamsNbt(BlockEntity blockEntity) {
+		return ALLOWLIST.containsKey(typeId(blockEntity));
+	}
+
+	private static String typeId(BlockEntity blockEntity) {
+		// Block entity types are built in: no per-call registry lookup through the level's RegistryAccess
+		return BuiltInRegistries.BLOCK_ENTITY_TYPE.getKey(blockEntity.getType()).toString();
+	}
+
+	/** BLOCK_ENTITY with the allowlisted NBT (any thread, once); also sets {@link #hash()}. */
+	EncodedFrame encode() {
+		byte[] nbt = null;
+		if (saved != null) {
+			CompoundTag visible = new CompoundTag();
+			for (String key : keys) {
+				Tag value = saved.get(key);
+				if (value != null) visible.put(key, value);
+			}
+			if (!visible.isEmpty()) nbt = write(visible);
+		}
+		hash = contentHash(typeId, nbt);
+		return ProtocolEncoder.blockEntity(pos.getX(), pos.getY(), pos.getZ(), typeId, nbt);
+	}
+
+	/** Hash of the type and the NBT sent, never 0; valid after {@link #encode()}. */
+	long hash() {
+		return hash;
+	}
+
+	/** Network NBT: the root compound's tag type, no name, then its payload. */
+	private static byte[] write(CompoundTag tag) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(baos);
+			NbtIo.writeAnyTag(tag, out);
+			out.flush();
+			return baos.toByteArray();
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to write block entity NBT", e);
+			return null;
+		}
+	}
+
+	private static long contentHash(String typeId, byte[] nbt) {
+		// FNV-1a, then a murmur3 finalizer, as for section content hashes
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < typeId.length(); i++) h = (h ^ typeId.charAt(i)) * 0x100000001b3L;
+		if (nbt != null) {
+			for (byte b : nbt) h = (h ^ b) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h != 0 ? h : 1;
+	}
+
+	/** "type=key,key;type=key" to a map; "none" (or nothing valid) sends no NBT at all. */
+	private static Map<String, List<String>> parseAllowlist(String spec) {
+		Map<String, List<String>> allowlist = new HashMap<>();
+		if (spec.equalsIgnoreCase("none")) return allowlist;
+		for (String entry : spec.split(";")) {
+			int eq = entry.indexOf('=');
+			if (eq <= 0) {
+				if (!entry.isBlank()) MicrocosmStreamerMod.LOGGER.warn("Ignoring block entity NBT allowlist entry '{}'", entry);
+				continue;
+			}
+			String type = entry.substring(0, eq).trim();
+			if (type.indexOf(':') < 0) type = "minecraft:" + type;
+			List<String> keys = List.of(entry.substring(eq + 1).trim().split("\\s*,\\s*"));
+			allowlist.put(type, keys);
+		}
+		return allowlist;
+	}
+}
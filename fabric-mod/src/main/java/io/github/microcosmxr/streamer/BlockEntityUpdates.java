@@ -0,0 +1,146 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live block entity updates. A block entity whose allowlisted NBT can change (see {@link BlockEntitySnapshot}) reports
+ * its setChanged in a watched section (BlockEntitySetChangedMixin); at end of tick each reported one is captured once
+ * and handed to one ordered worker lane, which encodes it, compares the content hash with the one last broadcast for
+ * that position, and sends BLOCK_ENTITY only if it differs to the clients whose window holds it. Furnaces and hoppers
+ * call setChanged every few ticks; only changes clients would see go out.
+ * <p>
+ * Region streams send their block entities through the same lane ({@link #send}), so a client never gets an older
+ * capture after a newer one. {@link #record} and {@link #flush} are game thread only; the hashes are the lane's.
+ */
+final class BlockEntityUpdates {
+
+	/** Positions reported this tick, by level; game thread only. */
+	private final Map<ServerLevel, LongLinkedOpenHashSet> changed = new IdentityHashMap<>();
+	/** Hash of the frame last broadcast per position ({@link BlockPos#asLong}), by level; lane only. */
+	private final Map<ServerLevel, Long2LongOpenHashMap> sentHashes = new IdentityHashMap<>();
+	private volatile Executor lane = Runnable::run;
+
+	final AtomicLong updatesSent = new AtomicLong();
+	final AtomicLong unchangedSkipped = new AtomicLong();
+
+	/** Encode on lane from now on (the server's worker pool started). */
+	void start(Executor lane) {
+		this.lane = lane;
+	}
+
+	/** blockEntity called setChanged in a watched section (game thread). */
+	void record(ServerLevel level, BlockEntity blockEntity) {
+		if (!BlockEntitySnapshot.streamsNbt(blockEntity)) return;
+		changed.computeIfAbsent(level, l -> new LongLinkedOpenHashSet()).add(blockEntity.getBlockPos().asLong());
+	}
+
+	/** Capture this tick's changed block entities and queue them for the clients whose window holds them; returns how many. */
+	int flush(StreamerServer server) {
+		if (changed.isEmpty()) return 0;
+		int captured = 0;
+		for (Map.Entry<ServerLevel, LongLinkedOpenHashSet> entry : changed.entrySet()) {
+			ServerLevel level = entry.getKey();
+			int minY = level.dimensionType().minY();
+			for (LongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+				BlockPos pos = BlockPos.of(it.nextLong());
+				int cx = pos.getX() >> 4;
+				int cz = pos.getZ() >> 4;
+				int sy = (pos.getY() - minY) >> 4;
+				List<StreamerWebSocketHandler> recipients = null;
+				for (StreamerWebSocketHandler client : server.subscribers(level, cx, cz)) {
+					if (!client.window().containsSection(cx, sy, cz)) continue;
+					if (recipients == null) recipients = new ArrayList<>(2);
+					recipients.add(client);
+				}
+				if (recipients == null) {
+					// Nobody sees this change: the hash broadcast last no longer describes it
+					forget(level, pos);
+					continue;
+				}
+				// The block entity map, not getBlockEntity: never loads the chunk or creates a block entity
+				ChunkAccess chunk = level.getChunkSource().getChunkNow(cx, cz);
+				BlockEntity blockEntity = chunk instanceof LevelChunk levelChunk ? levelChunk.getBlockEntities().get(pos) : null;
+				if (blockEntity == null || blockEntity.isRemoved()) continue;
+				broadcast(level, BlockEntitySnapshot.capture(level, blockEntity), recipients);
+				captured++;
+			}
+		}
+		changed.clear();
+		return captured;
+	}
+
+	private void broadcast(ServerLevel level, BlockEntitySnapshot snapshot, List<StreamerWebSocketHandler> recipients) {
+		lane.execute(() -> {
+			EncodedFrame frame = snapshot.encode();
+			if (frame == null) return;
+			long hash = snapshot.hash();
+			if (sentHashes.computeIfAbsent(level, l -> new Long2LongOpenHashMap()).put(snapshot.pos.asLong(), hash) == hash) {
+				unchangedSkipped.incrementAndGet();
+				return;
+			}
+			for (StreamerWebSocketHandler client : recipients) {
+				client.sendFrame(frame);
+			}
+			updatesSent.incrementAndGet();
+		});
+	}
+
+	/**
+	 * Queue a block entity of level captured for client's region stream (game thread); always sent, and its hash becomes
+	 * the one later changes are compared with (it is the newest capture the lane has seen for that position).
+	 */
+	void send(ServerLevel level, StreamerWebSocketHandler client, BlockEntitySnapshot snapshot) {
+		lane.execute(() -> {
+			EncodedFrame frame = snapshot.encode();
+			if (frame == null) return;
+			sentHashes.computeIfAbsent(level, l -> new Long2LongOpenHashMap()).put(snapshot.pos.asLong(), snapshot.hash());
+			client.sendFrame(frame);
+		});
+	}
+
+	private void forget(ServerLevel level, BlockPos pos) {
+		long key = pos.asLong();
+		lane.execute(() -> {
+			Long2LongOpenHashMap hashes = sentHashes.get(level);
+			if (hashes != null) hashes.remove(key);
+		});
+	}
+
+	/** Forget the hashes of positions no window holds any more (game thread, after {@link WatchedSections#rebuild}). */
+	void retainWatched() {
+		lane.execute(() -> sentHashes.entrySet().removeIf(entry -> {
+			ServerLevel level = entry.getKey();
+			Long2LongOpenHashMap hashes = entry.getValue();
+			for (LongIterator it = hashes.keySet().iterator(); it.hasNext(); ) {
+				long pos = it.nextLong();
+				if (!WatchedSections.contains(level, BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos))) it.remove();
+			}
+			return hashes.isEmpty();
+		}));
+	}
+
+	/** Drop everything (server stop, game thread). */
+	void clear() {
+		changed.clear();
+		lane.execute(sentHashes::clear);
+		lane = Runnable::run;
+	}
+
+	String describe() {
+		return updatesSent.get() + " updates sent, " + unchangedSkipped.get() + " unchanged skipped";
+	}
+}
@@ -1,37 +1,146 @@
 package io.github.microcosmxr.streamer;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.Holder;
 import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.SectionPos;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.LightLayer;
+import net.minecraft.world.level.biome.Biome;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.DataLayer;
 import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.Palette;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.lighting.LayerLightEventListener;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Serializes chunk section data into palette + indices + light + biomes for the streaming protocol.
- * Uses Mojang mappings (1.21): ChunkAccess.getSection(int), LevelChunkSection.getBlockState(x,y,z).
+ * Uses Mojang mappings (1.21): ChunkAccess.getSection(int), LevelChunkSection.getStates() (PalettedContainer, data widened
+ * in microcosm-streamer.accesswidener), or PalettedContainer.get(x,y,z) per cell when the palette fast path is off.
+ * Split in two: {@link #capture} copies raw section data on the game thread, {@link #translate} builds the snapshot anywhere.
  */
 public final class ChunkSerializer {
 
 	private static final int SECTION_SIZE = 16 * 16 * 16; // 4096
 	private static final int BIOME_SIZE = 4 * 4 * 4; // 64 biomes per section (4×4×4 quart grid)
 
+	/** Per-thread scratch for the palette fast path (unpacked storage and raw→protocol id remap). */
+	private static final ThreadLocal<int[]> RAW_SCRATCH = ThreadLocal.withInitial(() -> new int[SECTION_SIZE]);
+	private static final ThreadLocal<int[]> REMAP_SCRATCH = ThreadLocal.withInitial(() -> new int[256]);
+
+	/**
+	 * Shared, read-only light arrays for sections whose light is a single value (all-15 sky above ground, all-0 block
+	 * light underground). Bulk extraction returns these instead of allocating and filling 4096 bytes.
+	 */
+	private static final byte[][] UNIFORM_LIGHT = new byte[16][];
+
+	static {
+		for (int v = 0; v < UNIFORM_LIGHT.length; v++) {
+			UNIFORM_LIGHT[v] = new byte[SECTION_SIZE];
+			Arrays.fill(UNIFORM_LIGHT[v], (byte) v);
+		}
+	}
+
 	private ChunkSerializer() {}
 
 	/**
 	 * Build full section snapshot: block palette + indices, block/sky light, biome palette + indices.
 	 * Pass level for light (and for biome registry); level can be null to skip light/biomes.
+	 * Equivalent to {@link #translate(RegistryAccess, SectionCapture)} of {@link #capture(ServerLevel, ChunkAccess, int)}.
 	 */
 	public static SectionSnapshot serializeSection(ServerLevel level, ChunkAccess chunk, int sectionIndex) {
+		return translate(level != null ? level.registryAccess() : null, capture(level, chunk, sectionIndex));
+	}
+
+	/** Legacy: no light/biomes (for callers that don't pass level). */
+	public static SectionSnapshot serializeSection(ChunkAccess chunk, int sectionIndex) {
+		return serializeSection(null, chunk, sectionIndex);
+	}
+
+	/**
+	 * Game-thread half of serialization: copy the section's raw block container (palette + packed storage), its light
+	 * layers and its 64 biome holders. Everything else (palette translation, light unpacking, registry lookups) happens
+	 * in {@link #translate}, which may run on any thread.
+	 */
+	public static SectionCapture capture(ServerLevel level, ChunkAccess chunk, int sectionIndex) {
+		int chunkX = chunk.getPos().x;
+		int chunkZ = chunk.getPos().z;
 		LevelChunkSection section = chunk.getSection(sectionIndex);
 		if (section == null || section.hasOnlyAir()) {
+			return new SectionCapture(chunkX, chunkZ, sectionIndex, null, null, null, null);
+		}
+
+		int minY = level != null ? level.dimensionType().minY() : -64;
+		int sectionWorldY = minY + sectionIndex * 16;
+		int sectionMinQuartY = sectionWorldY >> 2;
+
+		PalettedContainer<BlockState> states;
+		section.acquire();
+		try {
+			states = section.getStates().copy();
+		} finally {
+			section.release();
+		}
+
+		LightCapture blockLight;
+		LightCapture skyLight;
+		if (level == null) {
+			blockLight = LightCapture.ready(new byte[SECTION_SIZE]);
+			skyLight = LightCapture.ready(new byte[SECTION_SIZE]);
+		} else if (StreamerConfig.BULK_LIGHT) {
+			SectionPos sectionPos = SectionPos.of(chunkX, SectionPos.blockToSectionCoord(sectionWorldY), chunkZ);
+			blockLight = captureBlockLight(level, sectionPos);
+			skyLight = captureSkyLight(level, sectionPos);
+		} else {
+			byte[] blockBytes = new byte[SECTION_SIZE];
+			byte[] skyBytes = new byte[SECTION_SIZE];
+			for (int ly = 0; ly < 16; ly++) {
+				for (int lz = 0; lz < 16; lz++) {
+					for (int lx = 0; lx < 16; lx++) {
+						BlockPos pos = new BlockPos(chunkX * 16 + lx, sectionWorldY + ly, chunkZ * 16 + lz);
+						blockBytes[(ly * 16 + lz) * 16 + lx] = (byte) Math.min(15, level.getBrightness(LightLayer.BLOCK, pos));
+						skyBytes[(ly * 16 + lz) * 16 + lx] = (byte) Math.min(15, level.getBrightness(LightLayer.SKY, pos));
+					}
+				}
+			}
+			blockLight = LightCapture.ready(blockBytes);
+			skyLight = LightCapture.ready(skyBytes);
+		}
+
+		// Biomes: 4×4×4 quart grid per section (null holder = lookup failed, translated as plains)
+		@SuppressWarnings("unchecked")
+		Holder<Biome>[] biomes = new Holder[BIOME_SIZE];
+		for (int qy = 0; qy < 4; qy++) {
+			for (int qz = 0; qz < 4; qz++) {
+				for (int qx = 0; qx < 4; qx++) {
+					try {
+						biomes[(qy * 4 + qz) * 4 + qx] = chunk.getNoiseBiome(chunkX * 4 + qx, sectionMinQuartY + qy, chunkZ * 4 + qz);
+					} catch (Exception ignored) {}
+				}
+			}
+		}
+
+		return new SectionCapture(chunkX, chunkZ, sectionIndex, states, blockLight, skyLight, biomes);
+	}
+
+	/**
+	 * Off-thread half of serialization: turn a {@link SectionCapture} into the protocol snapshot. Pass the level's
+	 * registry access for block/biome ids (null gives BlockState.toString() ids and plains biomes, as without a level).
+	 */
+	public static SectionSnapshot translate(RegistryAccess registryAccess, SectionCapture capture) {
+		if (capture.isEmpty()) {
 			byte[] emptyLight = new byte[SECTION_SIZE];
 			List<String> emptyBiomePalette = new ArrayList<>(List.of("minecraft:plains"));
 			short[] emptyBiomeIndices = new short[BIOME_SIZE];
@@ -45,27 +154,18 @@ public final class ChunkSerializer {
 			);
 		}
 
-		Map<String, Short> paletteMap = new LinkedHashMap<>();
 		short[] indices = new short[SECTION_SIZE];
 		List<String> palette = new ArrayList<>();
-		short nextId = 0;
-
-		int chunkX = chunk.getPos().x;
-		int chunkZ = chunk.getPos().z;
-		int minY = level != null ? level.dimensionType().minY() : -64;
-		int sectionWorldY = minY + sectionIndex * 16;
-		int sectionMinQuartY = sectionWorldY >> 2;
-
-		byte[] blockLight = new byte[SECTION_SIZE];
-		byte[] skyLight = new byte[SECTION_SIZE];
-
-		section.acquire();
-		try {
+		if (StreamerConfig.PALETTE_FAST_PATH) {
+			readPaletteIndices(registryAccess, capture.states, palette, indices);
+		} else {
+			Map<String, Short> paletteMap = new LinkedHashMap<>();
+			short nextId = 0;
 			for (int ly = 0; ly < 16; ly++) {
 				for (int lz = 0; lz < 16; lz++) {
 					for (int lx = 0; lx < 16; lx++) {
-						BlockState state = section.getBlockState(lx, ly, lz);
-						String key = blockStateToString(level != null ? level.registryAccess() : null, state);
+						BlockState state = capture.states.get(lx, ly, lz);
+						String key = blockStateToString(registryAccess, state);
 						Short id = paletteMap.get(key);
 						if (id == null) {
 							id = nextId++;
@@ -73,55 +173,147 @@ public final class ChunkSerializer {
 							palette.add(key);
 						}
 						indices[(ly * 16 + lz) * 16 + lx] = id;
-
-						if (level != null) {
-							BlockPos pos = new BlockPos(chunkX * 16 + lx, sectionWorldY + ly, chunkZ * 16 + lz);
-							blockLight[(ly * 16 + lz) * 16 + lx] = (byte) Math.min(15, level.getBrightness(LightLayer.BLOCK, pos));
-							skyLight[(ly * 16 + lz) * 16 + lx] = (byte) Math.min(15, level.getBrightness(LightLayer.SKY, pos));
-						}
 					}
 				}
 			}
-		} finally {
-			section.release();
 		}
 
-		// Biomes: 4×4×4 quart grid per section
-		RegistryAccess regAccess = level != null ? level.registryAccess() : null;
+		byte[] blockLight = capture.blockLight.unpack();
+		byte[] skyLight = capture.skyLight.unpack();
+
 		List<String> biomePalette = new ArrayList<>();
 		short[] biomeIndices = new short[BIOME_SIZE];
 		Map<String, Short> biomePaletteMap = new LinkedHashMap<>();
 		short nextBiomeId = 0;
-		for (int qy = 0; qy < 4; qy++) {
-			for (int qz = 0; qz < 4; qz++) {
-				for (int qx = 0; qx < 4; qx++) {
-					int quartX = chunkX * 4 + qx;
-					int quartY = sectionMinQuartY + qy;
-					int quartZ = chunkZ * 4 + qz;
-					String biomeId = getBiomeId(chunk, regAccess, quartX, quartY, quartZ);
-					Short bid = biomePaletteMap.get(biomeId);
-					if (bid == null) {
-						bid = nextBiomeId++;
-						biomePaletteMap.put(biomeId, bid);
-						biomePalette.add(biomeId);
-					}
-					biomeIndices[(qy * 4 + qz) * 4 + qx] = bid;
-				}
+		for (int i = 0; i < BIOME_SIZE; i++) {
+			String biomeId = getBiomeId(capture.biomes[i], registryAccess);
+			Short bid = biomePaletteMap.get(biomeId);
+			if (bid == null) {
+				bid = nextBiomeId++;
+				biomePaletteMap.put(biomeId, bid);
+				biomePalette.add(biomeId);
 			}
+			biomeIndices[i] = bid;
 		}
 
 		return new SectionSnapshot(palette, indices, blockLight, skyLight, biomePalette, biomeIndices);
 	}
 
-	/** Legacy: no light/biomes (for callers that don't pass level). */
-	public static SectionSnapshot serializeSection(ChunkAccess chunk, int sectionIndex) {
-		return serializeSection(null, chunk, sectionIndex);
+	/**
+	 * Palette-native block indices: unpack the container's packed storage once and translate each distinct raw palette id
+	 * to a protocol id the first time it occurs. Ids are assigned in first-occurrence order over the storage index
+	 * ((y * 16 + z) * 16 + x), and states that map to the same string share an id, so the output is identical to the
+	 * per-cell getBlockState loop.
+	 */
+	private static void readPaletteIndices(RegistryAccess registryAccess, PalettedContainer<BlockState> states,
+	                                       List<String> palette, short[] indices) {
+		PalettedContainer.Data<BlockState> data = states.data;
+		Palette<BlockState> statePalette = data.palette();
+		int[] raw = RAW_SCRATCH.get();
+		data.storage().unpack(raw);
+
+		Map<String, Short> paletteMap = new HashMap<>();
+		int paletteSize = statePalette.getSize();
+		// Section palettes are at most 256 entries; the global palette (registry-sized) gets a sparse map instead
+		int[] remap = paletteSize <= 256 ? REMAP_SCRATCH.get() : null;
+		Int2IntOpenHashMap sparseRemap = remap == null ? new Int2IntOpenHashMap() : null;
+		if (remap != null) {
+			Arrays.fill(remap, 0, paletteSize, -1);
+		} else {
+			sparseRemap.defaultReturnValue(-1);
+		}
+
+		for (int i = 0; i < SECTION_SIZE; i++) {
+			int rawId = raw[i];
+			int id = remap != null ? remap[rawId] : sparseRemap.get(rawId);
+			if (id < 0) {
+				String key = blockStateToString(registryAccess, statePalette.valueFor(rawId));
+				Short existing = paletteMap.get(key);
+				if (existing == null) {
+					existing = (short) palette.size();
+					paletteMap.put(key, existing);
+					palette.add(key);
+				}
+				id = existing;
+				if (remap != null) {
+					remap[rawId] = id;
+				} else {
+					sparseRemap.put(rawId, id);
+				}
+			}
+			indices[i] = (short) id;
+		}
+	}
+
+	/** Block light for one section: the light engine's stored nibbles, or all-0 when the section has no data layer. */
+	private static LightCapture captureBlockLight(ServerLevel level, SectionPos sectionPos) {
+		DataLayer layer = level.getLightEngine().getLayerListener(LightLayer.BLOCK).getDataLayerData(sectionPos);
+		return layer != null ? LightCapture.of(layer) : LightCapture.ready(UNIFORM_LIGHT[0]);
+	}
+
+	/**
+	 * Sky light for one section: the stored nibbles, or, without a data layer, the light engine's own value for each
+	 * column at the section's base. SkyLightSectionStorage gives every block of such a section the value of its column:
+	 * 15 at or above the column's top lit section, else the bottom slice of the nearest stored section above it.
+	 */
+	private static LightCapture captureSkyLight(ServerLevel level, SectionPos sectionPos) {
+		if (!level.dimensionType().hasSkyLight()) return LightCapture.ready(UNIFORM_LIGHT[0]);
+		LayerLightEventListener sky = level.getLightEngine().getLayerListener(LightLayer.SKY);
+		DataLayer layer = sky.getDataLayerData(sectionPos);
+		if (layer != null) return LightCapture.of(layer);
+
+		byte[] columns = new byte[16 * 16];
+		boolean uniform = true;
+		BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+		for (int lz = 0; lz < 16; lz++) {
+			for (int lx = 0; lx < 16; lx++) {
+				pos.set(sectionPos.minBlockX() + lx, sectionPos.minBlockY(), sectionPos.minBlockZ() + lz);
+				columns[lz * 16 + lx] = (byte) Math.min(15, sky.getLightValue(pos));
+				uniform &= columns[lz * 16 + lx] == columns[0];
+			}
+		}
+		if (uniform) return LightCapture.ready(UNIFORM_LIGHT[columns[0]]);
+		byte[] out = new byte[SECTION_SIZE];
+		for (int ly = 0; ly < 16; ly++) {
+			System.arraycopy(columns, 0, out, ly * 256, 256);
+		}
+		return LightCapture.ready(out);
+	}
+
+	/**
+	 * Unpack a DataLayer (2048 bytes, two 4-bit values per byte, low nibble first, index (y * 16 + z) * 16 + x)
+	 * into one byte per block. Uniform layers return the shared UNIFORM_LIGHT array instead of a copy.
+	 */
+	private static byte[] unpackLight(DataLayer layer) {
+		if (layer.isDefinitelyHomogenous()) return UNIFORM_LIGHT[layer.get(0, 0, 0)];
+		byte[] packed = layer.getData();
+		byte first = packed[0];
+		boolean uniform = (first & 15) == ((first >> 4) & 15);
+		for (int i = 1; uniform && i < packed.length; i++) {
+			uniform = packed[i] == first;
+		}
+		if (uniform) return UNIFORM_LIGHT[first & 15];
+
+		byte[] out = new byte[SECTION_SIZE];
+		for (int i = 0; i < packed.length; i++) {
+			int b = packed[i];
+			out[i << 1] = (byte) (b & 15);
+			out[(i << 1) + 1] = (byte) ((b >> 4) & 15);
+		}
+		return out;
+	}
+
+	/** Shared light array for a uniform section (value 0-15), or -1 if the array is not one of them. */
+	static int uniformLightValue(byte[] light) {
+		for (int v = 0; v < UNIFORM_LIGHT.length; v++) {
+			if (light == UNIFORM_LIGHT[v]) return v;
+		}
+		return -1;
 	}
 
-	private static String getBiomeId(ChunkAccess chunk, RegistryAccess registryAccess, int quartX, int quartY, int quartZ) {
+	private static String getBiomeId(Holder<Biome> holder, RegistryAccess registryAccess) {
 		try {
-			var holder = chunk.getNoiseBiome(quartX, quartY, quartZ);
-			if (registryAccess == null) return "minecraft:plains";
+			if (holder == null || registryAccess == null) return "minecraft:plains";
 			// Get Registry<Biome> from RegistryAccess (1.21: obtainRegistryOrThrow / lookupOrThrow)
 			var registry = registryAccess.lookupOrThrow(Registries.BIOME);
 			return holder.unwrap().map(
@@ -144,13 +336,77 @@ public final class ChunkSerializer {
 		return state.toString();
 	}
 
+	/**
+	 * Immutable game-thread copy of one section, produced by {@link #capture} and consumed by {@link #translate}.
+	 * The block container is a private copy (palette + packed storage), light layers are copies or shared uniform
+	 * arrays, so nothing here aliases live chunk data.
+	 */
+	public static final class SectionCapture {
+		public final int chunkX;
+		public final int chunkZ;
+		public final int sectionIndex;
+		final PalettedContainer<BlockState> states;
+		final LightCapture blockLight;
+		final LightCapture skyLight;
+		final Holder<Biome>[] biomes;
+
+		SectionCapture(int chunkX, int chunkZ, int sectionIndex, PalettedContainer<BlockState> states,
+		               LightCapture blockLight, LightCapture skyLight, Holder<Biome>[] biomes) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.sectionIndex = sectionIndex;
+			this.states = states;
+			this.blockLight = blockLight;
+			this.skyLight = skyLight;
+			this.biomes = biomes;
+		}
+
+		/** Missing or all-air section (serialized as a single-entry air palette). */
+		public boolean isEmpty() {
+			return states == null;
+		}
+	}
+
+	/** Captured light for one section: a finished array, or a DataLayer copy to unpack off-thread. */
+	static final class LightCapture {
+		private final byte[] ready;
+		private final DataLayer layer;
+
+		private LightCapture(byte[] ready, DataLayer layer) {
+			this.ready = ready;
+			this.layer = layer;
+		}
+
+		static LightCapture ready(byte[] light) {
+			return new LightCapture(light, null);
+		}
+
+		/** Homogeneous layers resolve immediately to a shared array; others are copied (2048 bytes). */
+		static LightCapture of(DataLayer layer) {
+			if (layer.isDefinitelyHomogenous()) return ready(UNIFORM_LIGHT[layer.get(0, 0, 0)]);
+			return new LightCapture(null, layer.copy());
+		}
+
+		byte[] unpack() {
+			if (ready != null) return ready;
+			return unpackLight(layer);
+		}
+	}
+
+	/**
+	 * Serialized section. Arrays are treated as read-only once built. Light arrays may be shared between snapshots
+	 * (see {@link #uniformLightValue(byte[])}), so they are only reachable in this package; {@link #blockLight()} and
+	 * {@link #skyLight()} hand out copies.
+	 */
 	public static final class SectionSnapshot {
 		public final List<String> palette;
 		public final short[] indices;
-		public final byte[] blockLight;
-		public final byte[] skyLight;
+		final byte[] blockLight;
+		final byte[] skyLight;
 		public final List<String> biomePalette;
 		public final short[] biomeIndices;
+		/** Memoized {@link #contentHash()}; 0 until computed. */
+		private volatile long contentHash;
 
 		public SectionSnapshot(List<String> palette, short[] indices, byte[] blockLight, byte[] skyLight,
 		                       List<String> biomePalette, short[] biomeIndices) {
@@ -166,5 +422,54 @@ public final class ChunkSerializer {
 		public SectionSnapshot(List<String> palette, short[] indices) {
 			this(palette, indices, new byte[SECTION_SIZE], new byte[SECTION_SIZE], List.of("minecraft:plains"), new short[BIOME_SIZE]);
 		}
+
+		/** Block light, one byte per block (index (y * 16 + z) * 16 + x); a copy. */
+		public byte[] blockLight() {
+			return blockLight.clone();
+		}
+
+		/** Sky light, one byte per block (index (y * 16 + z) * 16 + x); a copy. */
+		public byte[] skyLight() {
+			return skyLight.clone();
+		}
+
+		/**
+		 * 64-bit hash of the section's content (palettes as id strings, indices, light, biomes), the same for every wire
+		 * format and across server restarts. Sent to "resume" clients, which name it in their manifest on reconnect.
+		 */
+		public long contentHash() {
+			long h = contentHash;
+			if (h == 0) {
+				h = computeContentHash();
+				contentHash = h;
+			}
+			return h;
+		}
+
+		private long computeContentHash() {
+			// FNV-1a over the content, then a murmur3 finalizer to spread the low bits
+			long h = 0xcbf29ce484222325L;
+			for (List<String> strings : List.of(palette, biomePalette)) {
+				h = fnv(h, strings.size());
+				for (String s : strings) {
+					h = fnv(h, s.length());
+					for (int i = 0; i < s.length(); i++) h = fnv(h, s.charAt(i));
+				}
+			}
+			for (short index : indices) h = fnv(h, index);
+			for (byte light : blockLight) h = fnv(h, light);
+			for (byte light : skyLight) h = fnv(h, light);
+			for (short index : biomeIndices) h = fnv(h, index);
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h != 0 ? h : 1;
+		}
+
+		private static long fnv(long h, int value) {
+			return (h ^ value) * 0x100000001b3L;
+		}
 	}
 }
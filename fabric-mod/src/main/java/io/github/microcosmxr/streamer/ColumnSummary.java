@@ -0,0 +1,85 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.levelgen.Heightmap;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The farthest far-field detail (feature "lod"): one chunk column as a heightmap and the top block of each of its 256
+ * block columns (from the MOTION_BLOCKING heightmap, so leaves and water count, grass does not). Captured on the game
+ * thread (256 heightmap reads and block lookups); translated and encoded as COLUMN_SUMMARY on the first client lane that
+ * needs it, once per palette form (strings or numeric ids), shared by clients of the same form.
+ */
+final class ColumnSummary {
+
+	final int cx;
+	final int cz;
+	private final RegistryAccess registryAccess;
+	/** World y of each block column's top block (x + z * 16), and that block; air (below minY) where the column is empty. */
+	private final int[] heights = new int[256];
+	private final BlockState[] tops = new BlockState[256];
+	@SuppressWarnings("unchecked")
+	private final Supplier<EncodedFrame>[] frames = new Supplier[2];
+
+	private ColumnSummary(int cx, int cz, RegistryAccess registryAccess) {
+		this.cx = cx;
+		this.cz = cz;
+		this.registryAccess = registryAccess;
+	}
+
+	/** Capture the column now (game thread). */
+	static ColumnSummary capture(ServerLevel level, ChunkAccess chunk) {
+		ColumnSummary summary = new ColumnSummary(chunk.getPos().x, chunk.getPos().z, level.registryAccess());
+		int minY = level.dimensionType().minY();
+		BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+		for (int z = 0; z < 16; z++) {
+			for (int x = 0; x < 16; x++) {
+				int top = chunk.getHeight(Heightmap.Types.MOTION_BLOCKING, x, z);
+				int i = z * 16 + x;
+				summary.heights[i] = top;
+				summary.tops[i] = top >= minY ? chunk.getBlockState(pos.set(summary.cx * 16 + x, top, summary.cz * 16 + z))
+					: Blocks.AIR.defaultBlockState();
+			}
+		}
+		return summary;
+	}
+
+	/** Lazy COLUMN_SUMMARY for the client's palette form. */
+	synchronized Supplier<EncodedFrame> forClient(StreamerWebSocketHandler client) {
+		IdTable ids = client.idTable();
+		int form = ids != null ? 1 : 0;
+		Supplier<EncodedFrame> frame = frames[form];
+		if (frame == null) {
+			frame = EncodedFrame.once(() -> encode(ids));
+			frames[form] = frame;
+		}
+		return frame;
+	}
+
+	private EncodedFrame encode(IdTable ids) {
+		List<String> palette = new ArrayList<>();
+		Map<BlockState, Short> paletteIndex = new IdentityHashMap<>();
+		short[] indices = new short[256];
+		for (int i = 0; i < 256; i++) {
+			BlockState state = tops[i];
+			Short index = paletteIndex.get(state);
+			if (index == null) {
+				index = (short) palette.size();
+				paletteIndex.put(state, index);
+				palette.add(ChunkSerializer.blockStateToString(registryAccess, state));
+			}
+			indices[i] = index;
+		}
+		return ProtocolEncoder.columnSummary(cx, cz, palette, indices, heights, ids);
+	}
+}
@@ -0,0 +1,113 @@
+package io.github.microcosmxr.streamer;
+
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.BinaryFrame;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+/**
+ * One encoded binary protocol message, shared read-only by every client it goes to. Encoded once per message (not per
+ * client); the RFC 6455 wire form (unmasked server frame header + payload) is also built once, on first use, and each
+ * connection queues a duplicate() view of it, so fan-out to N clients costs N buffer views and no byte copies.
+ */
+public final class EncodedFrame {
+
+	/** Server-role draft used only to build wire frames (no extensions, no masking). */
+	private static final Draft_6455 WIRE_DRAFT = new Draft_6455();
+
+	private final byte type;
+	/** Type of the message inside: the type itself, or for a COMPRESSED frame the type it carries. */
+	private final byte contentType;
+	private final ByteBuffer payload;
+	private volatile ByteBuffer wire;
+	/** Frame to send to "deflate" clients: a COMPRESSED frame, or this one; built on first use. */
+	private volatile EncodedFrame compressed;
+
+	EncodedFrame(byte type, byte[] payload) {
+		this(type, type, payload);
+	}
+
+	EncodedFrame(byte type, byte contentType, byte[] payload) {
+		this.type = type;
+		this.contentType = contentType;
+		this.payload = ByteBuffer.wrap(payload).asReadOnlyBuffer();
+	}
+
+	/** Protocol message type (first payload byte). */
+	public byte type() {
+		return type;
+	}
+
+	/** Type of the message this frame delivers (differs from {@link #type()} for COMPRESSED frames). */
+	byte contentType() {
+		return contentType;
+	}
+
+	/** Payload size in bytes (without the WebSocket frame header). */
+	public int size() {
+		return payload.remaining();
+	}
+
+	/** Independent read-only view of the payload. */
+	public ByteBuffer payload() {
+		return payload.duplicate();
+	}
+
+	/** Independent read-only view of the complete WebSocket binary frame (header + payload). */
+	ByteBuffer wireFrame() {
+		ByteBuffer w = wire;
+		if (w == null) {
+			synchronized (this) {
+				w = wire;
+				if (w == null) {
+					BinaryFrame frame = new BinaryFrame();
+					frame.setPayload(payload.duplicate());
+					w = WIRE_DRAFT.createBinaryFrame(frame).asReadOnlyBuffer();
+					wire = w;
+				}
+			}
+		}
+		return w.duplicate();
+	}
+
+	/**
+	 * This message for clients with the "deflate" feature: compressed once (see {@link FrameCompressor}) and shared by all
+	 * of them, or this frame itself when it is small or does not compress.
+	 */
+	EncodedFrame compressed() {
+		EncodedFrame c = compressed;
+		if (c == null) {
+			synchronized (this) {
+				c = compressed;
+				if (c == null) {
+					c = FrameCompressor.compress(this);
+					if (c == null) c = this;
+					compressed = c;
+				}
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Encode on first call (on whichever client lane gets there first), then hand every later caller the same frame.
+	 * Used for broadcasts so that expensive encodes (and the translation they share) run once, off the game thread.
+	 */
+	public static <T> Supplier<T> once(Supplier<T> encoder) {
+		return new Supplier<>() {
+			/** Dropped once used, so a cached result does not keep its inputs (e.g. a section capture) alive. */
+			private Supplier<T> pending = encoder;
+			private T value;
+
+			@Override
+			public synchronized T get() {
+				if (pending != null) {
+					value = pending.get();
+					pending = null;
+				}
+				return value;
+			}
+		};
+	}
+}
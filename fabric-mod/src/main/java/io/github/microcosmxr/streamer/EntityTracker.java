@@ -0,0 +1,242 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.entity.EntityTypeTest;
+import net.minecraft.world.phys.AABB;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Live entities around one {@link StreamView}'s origin for its clients with {@link ProtocolFeature#ENTITIES}: every tick,
+ * entities that entered the view's {@link StreamWindow#entityRadius()} get an ENTITY_SPAWN, tracked ones an
+ * ENTITY_UPDATE with just the fields that changed since they were last sent, and ones that left or were removed an
+ * ENTITY_DESPAWN. Updates and despawns are one frame per tick for all entities, shared by all watching clients.
+ * <p>
+ * Positions are compared and sent quantized ({@link ProtocolEncoder#ENTITY_POSITION_SCALE} steps per block, relative to
+ * the origin in effect when the frame is sent) and angles as bytes, so sub-step jitter sends nothing; an origin move
+ * costs only the entities entering and leaving the radius. Each entity is revisited at an adaptive interval:
+ * every tick when close to the origin or moving fast, up to every {@link #MAX_INTERVAL} ticks for idle mobs at the edge.
+ * Players are always sent every tick.
+ * <p>
+ * A client starts watching at the end of its region stream ({@link #addWatcher}), with a spawn for every tracked entity
+ * at its last-sent state. With no watchers the tracker forgets everything and costs nothing. Game thread only.
+ */
+final class EntityTracker {
+
+	static final int MAX_INTERVAL = 8;
+	/** Squared speed (blocks/tick) under which an entity counts as idle, and over which as fast. */
+	private static final double IDLE_SPEED_SQ = 1.0e-4;
+	private static final double FAST_SPEED_SQ = 0.09;
+
+	private final StreamerServer streamerServer;
+	private final StreamView view;
+	private final Int2ObjectOpenHashMap<Tracked> tracked = new Int2ObjectOpenHashMap<>();
+	private final List<Entity> scratch = new ArrayList<>();
+	private final IntArrayList updates = new IntArrayList();
+	private final IntArrayList despawns = new IntArrayList();
+	private int tick;
+	private ServerLevel trackedLevel;
+	private int originX;
+	private int originY;
+	private int originZ;
+
+	long spawnsSent;
+	long updatesSent;
+	long despawnsSent;
+
+	EntityTracker(StreamerServer streamerServer, StreamView view) {
+		this.streamerServer = streamerServer;
+		this.view = view;
+	}
+
+	/** Start sending live entities to client: a spawn for every tracked entity now, then this tracker's frames. */
+	void addWatcher(StreamerWebSocketHandler client) {
+		for (Tracked t : tracked.values()) {
+			client.sendFrame(ProtocolEncoder.entitySpawn(t.id, t.typeId, originX + t.x / (double) ProtocolEncoder.ENTITY_POSITION_SCALE,
+				originY + t.y / (double) ProtocolEncoder.ENTITY_POSITION_SCALE, originZ + t.z / (double) ProtocolEncoder.ENTITY_POSITION_SCALE,
+				t.yaw * 360f / 256f, (byte) t.pitch * 360f / 256f));
+		}
+		client.setWatchingEntities(true);
+	}
+
+	/** Stop sending live entities to client (it moves to another view): it gets a despawn for every tracked entity. */
+	void removeWatcher(StreamerWebSocketHandler client) {
+		if (!client.isWatchingEntities()) return;
+		client.setWatchingEntities(false);
+		if (!tracked.isEmpty()) client.sendFrame(ProtocolEncoder.entityDespawn(tracked.keySet().toIntArray(), tracked.size()));
+	}
+
+	void clear() {
+		tracked.clear();
+	}
+
+	/** One tracking pass over the view's level (end of server tick). */
+	void tick() {
+		List<StreamerWebSocketHandler> watchers = watchers();
+		ServerLevel level = view.level();
+		if (watchers.isEmpty() || level == null) {
+			tracked.clear();
+			trackedLevel = null;
+			return;
+		}
+		tick++;
+		int ox = view.originX();
+		int oy = view.originY();
+		int oz = view.originZ();
+		int radius = view.window().entityRadius();
+		if (level != trackedLevel) {
+			// Other entities entirely: despawn what the clients have
+			if (!tracked.isEmpty()) {
+				broadcast(watchers, ProtocolEncoder.entityDespawn(tracked.keySet().toIntArray(), tracked.size()));
+				despawnsSent += tracked.size();
+				tracked.clear();
+			}
+			trackedLevel = level;
+		}
+		if (ox != originX || oy != originY || oz != originZ) {
+			// Origin moved (clients already have SET_ORIGIN): rebase last-sent positions, which the integer origin shifts by
+			// whole steps, so entities that stay in range send nothing; the rest despawn below
+			int dx = (originX - ox) * ProtocolEncoder.ENTITY_POSITION_SCALE;
+			int dy = (originY - oy) * ProtocolEncoder.ENTITY_POSITION_SCALE;
+			int dz = (originZ - oz) * ProtocolEncoder.ENTITY_POSITION_SCALE;
+			for (Tracked t : tracked.values()) {
+				t.set(t.x + dx, t.y + dy, t.z + dz, t.yaw, t.pitch);
+			}
+			originX = ox;
+			originY = oy;
+			originZ = oz;
+		}
+
+		scratch.clear();
+		level.getEntities(EntityTypeTest.forClass(Entity.class), new AABB(
+			ox - radius, oy - radius, oz - radius, ox + radius, oy + radius, oz + radius), e -> true, scratch);
+		var entityTypes = level.registryAccess().lookupOrThrow(Registries.ENTITY_TYPE);
+		for (Entity entity : scratch) {
+			int qx = quantize(entity.getX() - ox);
+			int qy = quantize(entity.getY() - oy);
+			int qz = quantize(entity.getZ() - oz);
+			int yaw = angle(entity.getYRot());
+			int pitch = angle(entity.getXRot());
+			Tracked t = tracked.get(entity.getId());
+			if (t == null) {
+				t = new Tracked(entity.getId(), entityTypes.getKey(entity.getType()).toString());
+				t.set(qx, qy, qz, yaw, pitch);
+				tracked.put(t.id, t);
+				broadcast(watchers, ProtocolEncoder.entitySpawn(t.id, t.typeId, entity.getX(), entity.getY(), entity.getZ(),
+					entity.getYRot(), entity.getXRot()));
+				spawnsSent++;
+			} else if (tick >= t.nextTick) {
+				int mask = (qx != t.x ? ProtocolEncoder.ENTITY_X : 0)
+					| (qy != t.y ? ProtocolEncoder.ENTITY_Y : 0)
+					| (qz != t.z ? ProtocolEncoder.ENTITY_Z : 0)
+					| (yaw != t.yaw ? ProtocolEncoder.ENTITY_YAW : 0)
+					| (pitch != t.pitch ? ProtocolEncoder.ENTITY_PITCH : 0);
+				if (mask != 0) {
+					updates.add(t.id);
+					updates.add(mask);
+					updates.add(qx);
+					updates.add(qy);
+					updates.add(qz);
+					updates.add(yaw);
+					updates.add(pitch);
+					t.set(qx, qy, qz, yaw, pitch);
+				}
+				t.nextTick = tick + interval(entity, qx, qy, qz);
+			}
+			t.seenTick = tick;
+		}
+		scratch.clear();
+
+		for (Iterator<Int2ObjectMap.Entry<Tracked>> it = tracked.int2ObjectEntrySet().fastIterator(); it.hasNext(); ) {
+			Tracked t = it.next().getValue();
+			if (t.seenTick != tick) {
+				despawns.add(t.id);
+				it.remove();
+			}
+		}
+
+		if (!updates.isEmpty()) {
+			int count = updates.size() / ProtocolEncoder.ENTITY_UPDATE_INTS;
+			broadcast(watchers, ProtocolEncoder.entityUpdates(updates.elements(), count));
+			updatesSent += count;
+			updates.clear();
+		}
+		if (!despawns.isEmpty()) {
+			broadcast(watchers, ProtocolEncoder.entityDespawn(despawns.elements(), despawns.size()));
+			despawnsSent += despawns.size();
+			despawns.clear();
+		}
+	}
+
+	int trackedCount() {
+		return tracked.size();
+	}
+
+	private List<StreamerWebSocketHandler> watchers() {
+		List<StreamerWebSocketHandler> watchers = new ArrayList<>();
+		for (StreamerWebSocketHandler client : streamerServer.getClients()) {
+			if (client.view() == view && client.isWatchingEntities() && client.isOpen()) watchers.add(client);
+		}
+		return watchers;
+	}
+
+	private static void broadcast(List<StreamerWebSocketHandler> watchers, EncodedFrame frame) {
+		for (StreamerWebSocketHandler client : watchers) {
+			client.sendFrame(frame);
+		}
+	}
+
+	/** Ticks until the entity is looked at again: sooner when near the origin or moving fast. */
+	private static int interval(Entity entity, int qx, int qy, int qz) {
+		if (entity instanceof Player) return 1;
+		long distSq = ((long) qx * qx + (long) qy * qy + (long) qz * qz) / (ProtocolEncoder.ENTITY_POSITION_SCALE * ProtocolEncoder.ENTITY_POSITION_SCALE);
+		int interval = distSq < 16 * 16 ? 1 : distSq < 32 * 32 ? 2 : 4;
+		double speedSq = entity.getDeltaMovement().lengthSqr();
+		if (speedSq < IDLE_SPEED_SQ) return Math.min(MAX_INTERVAL, interval * 2);
+		if (speedSq > FAST_SPEED_SQ) return 1;
+		return interval;
+	}
+
+	private static int quantize(double offset) {
+		return (int) Math.round(offset * ProtocolEncoder.ENTITY_POSITION_SCALE);
+	}
+
+	/** Degrees to a byte, 256 steps per turn. */
+	private static int angle(float degrees) {
+		return (int) Math.floor(degrees * 256f / 360f) & 0xFF;
+	}
+
+	/** Last state sent for one entity (quantized), and when to look at it next. */
+	private static final class Tracked {
+		final int id;
+		final String typeId;
+		int x;
+		int y;
+		int z;
+		int yaw;
+		int pitch;
+		int nextTick;
+		int seenTick;
+
+		Tracked(int id, String typeId) {
+			this.id = id;
+			this.typeId = typeId;
+		}
+
+		void set(int x, int y, int z, int yaw, int pitch) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.yaw = yaw;
+			this.pitch = pitch;
+		}
+	}
+}
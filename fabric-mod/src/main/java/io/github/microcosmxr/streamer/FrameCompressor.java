@@ -0,0 +1,131 @@
+package io.github.microcosmxr.streamer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * COMPRESSED frames (feature "deflate"): a large binary message wrapped as byte 8, varint rawLength, then a zlib
+ * stream of the whole original message compressed with a preset dictionary. The dictionary
+ * (resource microcosm-streamer-deflate.dict) holds common block and biome ids, so even a section's first palette entries
+ * compress; the client inflates with the same file. Frames under {@link StreamerConfig#COMPRESS_THRESHOLD} bytes, and
+ * frames that would not shrink, go out uncompressed.
+ * <p>
+ * One Deflater per encode thread; call from any thread.
+ */
+public final class FrameCompressor {
+
+	static final String DICTIONARY_RESOURCE = "/microcosm-streamer-deflate.dict";
+	private static final byte[] DICTIONARY = loadDictionary();
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(StreamerConfig.COMPRESS_LEVEL));
+	/** Largest message a COMPRESSED frame may claim to hold when read back. */
+	private static final int MAX_INFLATED_BYTES = 16 << 20;
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[32 * 1024]);
+
+	static final AtomicLong framesCompressed = new AtomicLong();
+	static final AtomicLong rawBytes = new AtomicLong();
+	static final AtomicLong compressedBytes = new AtomicLong();
+	static final AtomicLong compressNanos = new AtomicLong();
+
+	private FrameCompressor() {}
+
+	/** Adler-32 of the dictionary, as carried in each zlib header (DICTID); lets clients check they have the same file. */
+	public static long dictionaryId() {
+		Adler32 adler = new Adler32();
+		adler.update(DICTIONARY);
+		return adler.getValue();
+	}
+
+	/** Compressed form of frame, or null if it is below the threshold or does not get smaller. */
+	static EncodedFrame compress(EncodedFrame frame) {
+		if (frame.size() < StreamerConfig.COMPRESS_THRESHOLD) return null;
+		long start = System.nanoTime();
+		byte[] raw = new byte[frame.size()];
+		frame.payload().get(raw);
+		byte[] deflated = deflate(raw, DEFLATER.get());
+		compressNanos.addAndGet(System.nanoTime() - start);
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(deflated.length + 6);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(ProtocolEncoder.MSG_COMPRESSED);
+			ProtocolEncoder.writeVarInt(out, raw.length);
+			out.write(deflated);
+			out.flush();
+			if (baos.size() >= raw.length) return null;
+			framesCompressed.incrementAndGet();
+			rawBytes.addAndGet(raw.length);
+			compressedBytes.addAndGet(baos.size());
+			return new EncodedFrame(ProtocolEncoder.MSG_COMPRESSED, frame.contentType(), baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode compressed frame", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The message a COMPRESSED frame (type byte included) carries, e.g. to read a recorded frame back.
+	 * @throws IllegalArgumentException if the frame is malformed
+	 */
+	static byte[] inflate(ByteBuffer frame) {
+		ByteBuffer in = frame.duplicate();
+		if (in.get() != ProtocolEncoder.MSG_COMPRESSED) throw new IllegalArgumentException("not a COMPRESSED frame");
+		int rawLength = SessionLog.readVarInt(in);
+		if (rawLength < 0 || rawLength > MAX_INFLATED_BYTES) throw new IllegalArgumentException("bad raw length " + rawLength);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in);
+			byte[] raw = new byte[rawLength];
+			int n = inflater.inflate(raw);
+			if (n == 0 && inflater.needsDictionary()) {
+				inflater.setDictionary(DICTIONARY);
+				n = inflater.inflate(raw);
+			}
+			if (n != rawLength || !inflater.finished()) throw new IllegalArgumentException("truncated zlib stream");
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/** zlib stream of raw using the preset dictionary; deflater is reset and left reusable. */
+	static byte[] deflate(byte[] raw, Deflater deflater) {
+		deflater.reset();
+		if (DICTIONARY.length > 0) deflater.setDictionary(DICTIONARY);
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+		byte[] scratch = SCRATCH.get();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(scratch);
+			out.write(scratch, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/** Overall ratio so far (compressed / raw), for logs. */
+	static String describe() {
+		long raw = rawBytes.get();
+		long packed = compressedBytes.get();
+		return String.format("%d frames compressed, %d -> %d bytes (%.1f%%), %.2f ms", framesCompressed.get(), raw, packed,
+			raw > 0 ? packed * 100.0 / raw : 0.0, compressNanos.get() / 1_000_000.0);
+	}
+
+	private static byte[] loadDictionary() {
+		try (InputStream in = FrameCompressor.class.getResourceAsStream(DICTIONARY_RESOURCE)) {
+			if (in != null) return in.readAllBytes();
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to read {}", DICTIONARY_RESOURCE, e);
+		}
+		MicrocosmStreamerMod.LOGGER.warn("Deflate dictionary {} missing; compressing without it", DICTIONARY_RESOURCE);
+		return new byte[0];
+	}
+}
@@ -0,0 +1,101 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
+
+/**
+ * What a client holds of its region, for the next region stream to skip: the window of its latest stream and, if that
+ * stream was cut short by another move, only the part of it that was done, on top of what the client held before it.
+ * <p>
+ * A finished stream holds its whole window. A cut-short one holds, within its window, the sections it handled (sent,
+ * sent hidden, or found empty) and what its own previous region held at the same detail; the summaries, block entities
+ * and entities of its window only if it got through that phase, else those of its previous region. Every lookup is
+ * also bounded by the window, since the client dropped everything outside it with the move's SECTIONS_UNLOAD.
+ * Continuous panning cuts every stream short, so the chain is capped at {@link #MAX_DEPTH}; the oldest links are
+ * forgotten, which only re-sends more. A region streamed before a "lod" client's HELLO reply holds no far field,
+ * whatever its phases say ({@link #withoutFarField}).
+ * <p>
+ * Immutable once built; game thread only.
+ */
+final class HeldRegion {
+
+	private static final int MAX_DEPTH = 8;
+
+	final StreamWindow window;
+	/** What the client held before the stream to window; null for nothing. */
+	private final HeldRegion parent;
+	/** Sections the stream handled (SectionPos keys, sy the section index); null when it finished them all. */
+	private final LongOpenHashSet sections;
+	private final boolean summaries;
+	private final boolean blockEntities;
+	private final boolean entities;
+	/** False if the client got this chain without "lod": it holds no LOD section or summary of it. */
+	private final boolean farField;
+	private final int depth;
+
+	private HeldRegion(StreamWindow window, HeldRegion parent, LongOpenHashSet sections, boolean summaries,
+		boolean blockEntities, boolean entities, boolean farField) {
+		this.window = window;
+		this.parent = parent;
+		this.sections = sections;
+		this.summaries = summaries;
+		this.blockEntities = blockEntities;
+		this.entities = entities;
+		this.farField = farField;
+		this.depth = parent != null ? parent.depth + 1 : 1;
+	}
+
+	/** The client holds all of window. */
+	static HeldRegion complete(StreamWindow window) {
+		return new HeldRegion(window, null, null, true, true, true, true);
+	}
+
+	/**
+	 * A stream to window cut short: it handled sections (null: all of them) and got through the phases flagged; before
+	 * it the client held previous (null: nothing; ignored if in another level).
+	 */
+	static HeldRegion partial(StreamWindow window, HeldRegion previous, LongOpenHashSet sections, boolean summaries,
+		boolean blockEntities, boolean entities) {
+		HeldRegion parent = previous != null && previous.window.level() == window.level() ? previous.truncate(MAX_DEPTH - 1) : null;
+		return new HeldRegion(window, parent, sections, summaries, blockEntities, entities, true);
+	}
+
+	/** This region as a client got it before its HELLO reply asked for "lod": no LOD section or summary of it. */
+	HeldRegion withoutFarField() {
+		return new HeldRegion(window, parent, sections, summaries, blockEntities, entities, false);
+	}
+
+	/** This chain with at most keep links (null for 0). */
+	private HeldRegion truncate(int keep) {
+		if (keep <= 0) return null;
+		if (depth <= keep) return this;
+		return new HeldRegion(window, parent != null ? parent.truncate(keep - 1) : null, sections, summaries, blockEntities,
+			entities, farField);
+	}
+
+	/** Whether the client holds section (cx, sy, cz) at detail (0 full, else the LOD level). */
+	boolean holdsSection(int cx, int sy, int cz, int detail) {
+		if (detail > 0 && !farField) return false;
+		if (window.sectionDetail(cx, sy, cz) != detail) return false;
+		if (sections == null || sections.contains(SectionPos.asLong(cx, sy, cz))) return true;
+		return parent != null && parent.holdsSection(cx, sy, cz, detail);
+	}
+
+	/** Whether the client holds the column summary of (cx, cz). */
+	boolean holdsSummary(int cx, int cz) {
+		if (!farField || window.detail(cx, cz) != StreamWindow.SUMMARY) return false;
+		return summaries || parent != null && parent.holdsSummary(cx, cz);
+	}
+
+	/** Whether the client holds the block entities of section (cx, sy, cz). */
+	boolean holdsBlockEntities(int cx, int sy, int cz) {
+		if (!window.containsSection(cx, sy, cz)) return false;
+		return blockEntities || parent != null && parent.holdsBlockEntities(cx, sy, cz);
+	}
+
+	/** Whether the client was sent the entities at (x, y, z) (ENTITY_SPAWN at join, clients without "entities"). */
+	boolean holdsEntity(double x, double y, double z) {
+		if (!window.containsEntity(x, y, z)) return false;
+		return entities || parent != null && parent.holdsEntity(x, y, z);
+	}
+}
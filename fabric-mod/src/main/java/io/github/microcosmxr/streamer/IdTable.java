@@ -0,0 +1,140 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.Registry;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numeric ids for the strings the protocol otherwise repeats (feature "ids"): blocks, biomes, block entity types and
+ * entity types, each numbered by the server registry's own ids. The strings are exactly what the string protocol sends
+ * (see {@link ChunkSerializer#blockStateToString} and the biome ids in {@link ChunkSerializer#translate}), so a client
+ * can map either form to the same thing. Sent once per connection as ID_TABLE, unless the client already holds a table
+ * with the same {@link #hash()}.
+ * <p>
+ * Built once per server from its registries; immutable afterwards, safe to share between threads.
+ */
+public final class IdTable {
+
+	private final Registry<Block> blockRegistry;
+	private final Object2IntOpenHashMap<String> blockIds;
+	private final Object2IntOpenHashMap<String> biomeIds;
+	private final long hash;
+	private final EncodedFrame frame;
+
+	private IdTable(Registry<Block> blockRegistry, List<String> blocks, List<String> biomes, List<String> blockEntityTypes,
+	                List<String> entityTypes) throws IOException {
+		this.blockRegistry = blockRegistry;
+		this.blockIds = index(blocks);
+		this.biomeIds = index(biomes);
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(blocks.size() * 24);
+		DataOutputStream out = new DataOutputStream(body);
+		for (List<String> list : List.of(blocks, biomes, blockEntityTypes, entityTypes)) {
+			ProtocolEncoder.writeVarInt(out, list.size());
+			for (String s : list) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				ProtocolEncoder.writeVarInt(out, b.length);
+				out.write(b);
+			}
+		}
+		out.flush();
+		byte[] bodyBytes = body.toByteArray();
+		this.hash = contentHash(bodyBytes);
+		this.frame = ProtocolEncoder.idTable(hash, bodyBytes);
+	}
+
+	/** Table for this server's registries, or null (after logging) if it cannot be built. */
+	static IdTable build(RegistryAccess registryAccess) {
+		try {
+			Registry<Block> blockRegistry = registryAccess.lookupOrThrow(Registries.BLOCK);
+			List<String> blocks = new ArrayList<>(blockRegistry.size());
+			for (int id = 0; id < blockRegistry.size(); id++) {
+				blocks.add(blockRegistry.getKey(blockRegistry.byId(id)).toString());
+			}
+			Registry<Biome> biomeRegistry = registryAccess.lookupOrThrow(Registries.BIOME);
+			List<String> biomes = new ArrayList<>(biomeRegistry.size());
+			for (int id = 0; id < biomeRegistry.size(); id++) {
+				Biome biome = biomeRegistry.byId(id);
+				// Same form as ChunkSerializer.getBiomeId for registry-backed holders
+				biomes.add(biomeRegistry.getResourceKey(biome).map(Object::toString).orElseGet(() -> biomeRegistry.getKey(biome).toString()));
+			}
+			var blockEntityRegistry = registryAccess.lookupOrThrow(Registries.BLOCK_ENTITY_TYPE);
+			List<String> blockEntityTypes = new ArrayList<>(blockEntityRegistry.size());
+			for (int id = 0; id < blockEntityRegistry.size(); id++) {
+				blockEntityTypes.add(blockEntityRegistry.getKey(blockEntityRegistry.byId(id)).toString());
+			}
+			var entityRegistry = registryAccess.lookupOrThrow(Registries.ENTITY_TYPE);
+			List<String> entityTypes = new ArrayList<>(entityRegistry.size());
+			for (int id = 0; id < entityRegistry.size(); id++) {
+				entityTypes.add(entityRegistry.getKey(entityRegistry.byId(id)).toString());
+			}
+			IdTable table = new IdTable(blockRegistry, blocks, biomes, blockEntityTypes, entityTypes);
+			MicrocosmStreamerMod.LOGGER.info("Built id table {}: {} blocks, {} biomes, {} block entity types, {} entity types ({} bytes)",
+				table.hashHex(), blocks.size(), biomes.size(), blockEntityTypes.size(), entityTypes.size(), table.frame.size());
+			return table;
+		} catch (Exception e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to build id table; clients get string ids", e);
+			return null;
+		}
+	}
+
+	/** First 8 bytes of the SHA-256 of the table contents. */
+	public long hash() {
+		return hash;
+	}
+
+	public String hashHex() {
+		return String.format("%016x", hash);
+	}
+
+	/** The ID_TABLE frame (shared by all clients that need it). */
+	EncodedFrame frame() {
+		return frame;
+	}
+
+	/** Id of a block id string as sent in palettes, or -1 if it is not in the table. */
+	public int blockId(String blockStateId) {
+		return blockIds.getInt(blockStateId);
+	}
+
+	/** Id of a block state's block, straight from the registry (no string built). */
+	public int blockId(BlockState state) {
+		return blockRegistry.getId(state.getBlock());
+	}
+
+	/** Id of a biome id string as sent in palettes, or -1 if it is not in the table. */
+	public int biomeId(String biomeId) {
+		return biomeIds.getInt(biomeId);
+	}
+
+	private static Object2IntOpenHashMap<String> index(List<String> strings) {
+		Object2IntOpenHashMap<String> ids = new Object2IntOpenHashMap<>(strings.size());
+		ids.defaultReturnValue(-1);
+		for (int i = 0; i < strings.size(); i++) {
+			ids.putIfAbsent(strings.get(i), i);
+		}
+		return ids;
+	}
+
+	private static long contentHash(byte[] body) {
+		try {
+			return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(body)).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
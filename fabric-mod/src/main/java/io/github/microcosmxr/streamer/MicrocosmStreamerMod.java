@@ -3,6 +3,7 @@ package io.github.microcosmxr.streamer;
 import net.fabricmc.api.DedicatedServerModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +24,10 @@ public class MicrocosmStreamerMod implements DedicatedServerModInitializer {
 			LOGGER.info("Microcosm Streamer WebSocket server listening on port 25566");
 		});
 
+		ServerTickEvents.END_SERVER_TICK.register(server -> {
+			if (streamerServer != null) streamerServer.tick();
+		});
+
 		ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
 			if (streamerServer != null) {
 				streamerServer.stop();
@@ -33,9 +38,12 @@ public class MicrocosmStreamerMod implements DedicatedServerModInitializer {
 		CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
 			MrStartCommand.register(dispatcher);
 			MrDumpChunkCommand.register(dispatcher);
+			MrStatsCommand.register(dispatcher);
+			MrRecordCommand.register(dispatcher);
 		});
 
 		BlockDeltaCallback.register();
+		RegionChunkLoads.registerTicketType();
 	}
 
 	public static StreamerServer getStreamerServer() {
@@ -0,0 +1,88 @@
+package io.github.microcosmxr.streamer;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * /mr_record start [name]: record the session of the next streamer client to connect (everything it is sent, see
+ * {@link SessionRecorder}) to &lt;recordDir&gt;/&lt;name&gt;.mcsr, until it disconnects or /mr_record stop.
+ * /mr_record on its own shows the recording. Replay with {@link SessionReplay}. Needs permission level 2 (op).
+ */
+public final class MrRecordCommand {
+
+	private static final DateTimeFormatter DEFAULT_NAME = DateTimeFormatter.ofPattern("'session-'yyyyMMdd-HHmmss");
+
+	private MrRecordCommand() {}
+
+	public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+		dispatcher.register(
+			Commands.literal("mr_record")
+				// Writes files on the server and captures another player's session: operators (and the console) only
+				.requires(Commands.hasPermission(Commands.LEVEL_GAMEMASTERS))
+				.executes(ctx -> status(ctx.getSource()))
+				.then(Commands.literal("start")
+					.executes(ctx -> start(ctx.getSource(), LocalDateTime.now().format(DEFAULT_NAME)))
+					.then(Commands.argument("name", StringArgumentType.word())
+						.executes(ctx -> start(ctx.getSource(), StringArgumentType.getString(ctx, "name")))))
+				.then(Commands.literal("stop")
+					.executes(ctx -> stop(ctx.getSource())))
+		);
+	}
+
+	private static int start(CommandSourceStack source, String name) {
+		StreamerServer server = running(source);
+		if (server == null) return 0;
+		Path path = Path.of(StreamerConfig.RECORD_DIR, name + SessionLog.EXTENSION);
+		try {
+			server.startRecording(path);
+		} catch (IOException e) {
+			source.sendFailure(Component.literal("Cannot record to " + path + ": " + e.getMessage()));
+			return 0;
+		}
+		source.sendSuccess(() -> Component.literal("Recording the next streamer client to connect to " + path), true);
+		return 1;
+	}
+
+	private static int stop(CommandSourceStack source) {
+		StreamerServer server = running(source);
+		if (server == null) return 0;
+		SessionRecorder stopped = server.stopRecording();
+		if (stopped == null) {
+			source.sendFailure(Component.literal("Not recording."));
+			return 0;
+		}
+		source.sendSuccess(() -> Component.literal("Recording stopped: " + stopped.path + ", " + stopped.ticks() + " ticks, "
+			+ stopped.bytes() + " bytes"), true);
+		return 1;
+	}
+
+	private static int status(CommandSourceStack source) {
+		StreamerServer server = running(source);
+		if (server == null) return 0;
+		SessionRecorder recording = server.recording();
+		String text;
+		if (recording == null) {
+			text = "Not recording.";
+		} else if (!server.isRecordingClient()) {
+			text = "Waiting for a streamer client to connect; recording to " + recording.path;
+		} else {
+			text = "Recording to " + recording.path + ": " + recording.ticks() + " ticks, " + recording.bytes() + " bytes";
+		}
+		source.sendSuccess(() -> Component.literal(text), false);
+		return 1;
+	}
+
+	private static StreamerServer running(CommandSourceStack source) {
+		StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
+		if (server == null) source.sendFailure(Component.literal("Microcosm Streamer server not running."));
+		return server;
+	}
+}
@@ -2,10 +2,16 @@ package io.github.microcosmxr.streamer;
 
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.DimensionArgument;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
 
+/**
+ * /mr_start x y z [dimension]: move the shared stream origin, in the command source's dimension unless one is given.
+ */
 public final class MrStartCommand {
 
 	private MrStartCommand() {}
@@ -17,19 +23,24 @@ public final class MrStartCommand {
 				.then(Commands.argument("x", IntegerArgumentType.integer())
 					.then(Commands.argument("y", IntegerArgumentType.integer())
 						.then(Commands.argument("z", IntegerArgumentType.integer())
-							.executes(ctx -> {
-								int x = IntegerArgumentType.getInteger(ctx, "x");
-								int y = IntegerArgumentType.getInteger(ctx, "y");
-								int z = IntegerArgumentType.getInteger(ctx, "z");
-								StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
-								if (server == null) {
-									ctx.getSource().sendFailure(Component.literal("Microcosm Streamer server not running."));
-									return 0;
-								}
-								server.setOrigin(x, y, z);
-								ctx.getSource().sendSuccess(() -> Component.literal("Stream origin set to " + x + ", " + y + ", " + z), true);
-								return 1;
-							}))))
+							.executes(ctx -> start(ctx, ctx.getSource().getLevel()))
+							.then(Commands.argument("dimension", DimensionArgument.dimension())
+								.executes(ctx -> start(ctx, DimensionArgument.getDimension(ctx, "dimension")))))))
 		);
 	}
+
+	private static int start(CommandContext<CommandSourceStack> ctx, ServerLevel level) {
+		int x = IntegerArgumentType.getInteger(ctx, "x");
+		int y = IntegerArgumentType.getInteger(ctx, "y");
+		int z = IntegerArgumentType.getInteger(ctx, "z");
+		StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
+		if (server == null) {
+			ctx.getSource().sendFailure(Component.literal("Microcosm Streamer server not running."));
+			return 0;
+		}
+		server.setOrigin(level, x, y, z);
+		String dimension = StreamerServer.dimensionId(level);
+		ctx.getSource().sendSuccess(() -> Component.literal("Stream origin set to " + x + ", " + y + ", " + z + " in " + dimension), true);
+		return 1;
+	}
 }
@@ -0,0 +1,70 @@
+package io.github.microcosmxr.streamer;
+
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * /mr_stats: streamer counters since server start ({@link StreamerMetrics}): sections, bytes per message type and per
+ * client, serialize/encode/tick time histograms, block changes per tick and queue depths. For a timeline next to MSPT,
+ * record the JFR events in {@link StreamerEvents} instead. Operators only: it lists every client's address.
+ */
+public final class MrStatsCommand {
+
+	private MrStatsCommand() {}
+
+	public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+		dispatcher.register(
+			Commands.literal("mr_stats")
+				.requires(Commands.hasPermission(Commands.LEVEL_GAMEMASTERS))
+				.executes(ctx -> stats(ctx.getSource()))
+		);
+	}
+
+	private static int stats(CommandSourceStack source) {
+		StreamerServer server = MicrocosmStreamerMod.getStreamerServer();
+		if (server == null) {
+			source.sendFailure(Component.literal("Microcosm Streamer server not running."));
+			return 0;
+		}
+		for (String line : report(server)) {
+			source.sendSuccess(() -> Component.literal(line), false);
+		}
+		return 1;
+	}
+
+	private static List<String> report(StreamerServer server) {
+		List<String> lines = new ArrayList<>();
+		List<StreamerWebSocketHandler> clients = server.getClients();
+		lines.add("Streamer: " + clients.size() + " clients, " + server.regionStreamCount() + " region streams running");
+		lines.add("Sections: " + StreamerMetrics.sectionsSerialized.sum() + " serialized, " + StreamerMetrics.sectionsSent.sum()
+			+ " sent; cache " + server.sectionCache().describe());
+		lines.add("Serialize: " + StreamerMetrics.serializeNanos.describeNanos());
+		lines.add("Encode: " + StreamerMetrics.encodeNanos.describeNanos());
+		lines.add("Game thread per tick: " + StreamerMetrics.tickNanos.describeNanos() + ", total "
+			+ StreamerMetrics.tickNanos.sum() / 1_000_000 + " ms");
+		lines.add("Block changes per tick: " + StreamerMetrics.deltasPerTick.describeCounts());
+		for (int type = 0; type < 256; type++) {
+			long frames = StreamerMetrics.framesSent(type);
+			if (frames > 0) {
+				lines.add("  " + StreamerMetrics.typeName(type) + ": " + frames + " frames / " + StreamerMetrics.bytesSent(type) + " bytes");
+			}
+		}
+		if (StreamerMetrics.textFramesSent() > 0) {
+			lines.add("  text: " + StreamerMetrics.textFramesSent() + " frames / " + StreamerMetrics.textBytesSent() + " bytes");
+		}
+		if (FrameCompressor.framesCompressed.get() > 0) lines.add("Deflate: " + FrameCompressor.describe());
+		for (StreamerWebSocketHandler client : clients) {
+			OutboundQueue queue = client.outboundQueue();
+			lines.add("Client " + client.remoteAddress() + " (protocol " + client.protocolVersion() + "): "
+				+ queue.framesSent.get() + " frames / " + queue.bytesSent.get() + " bytes sent, " + queue.queuedBytes()
+				+ " bytes queued, ~" + client.pendingEncodeBytes() + " bytes being encoded, " + queue.snapshotsReplaced.get()
+				+ " snapshots replaced, " + queue.deltasDropped.get() + " deltas dropped");
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,320 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.core.SectionPos;
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, byte-accounted outbound queue for one client. Frames wait here and are handed to Java-WebSocket only while
+ * the connection's own write queue holds less than {@link StreamerConfig#SOCKET_WINDOW_BYTES} (as counted by its
+ * {@link WebSocketOutput}), so a slow headset backs up into this queue (where it can be merged) instead of growing the
+ * socket buffer without limit.
+ * <p>
+ * Merge policy, per section key (cx, cz, sy): a newer snapshot replaces a pending older one in place, and pending deltas
+ * for that section are dropped because the newer snapshot already contains them. Deltas queued after a snapshot are
+ * newer than it and are kept. A frame that drops sections from the client (SECTIONS_UNLOAD, or COLUMN_SUMMARY for every
+ * section of its column) first drops what is still queued for them, so a later snapshot of one of them goes after it instead of taking an older one's place ahead of it.
+ * A client that stays above {@link StreamerConfig#CLIENT_QUEUE_BYTES} for longer than
+ * {@link StreamerConfig#CLIENT_OVER_LIMIT_MILLIS} is disconnected.
+ * <p>
+ * Optionally rate-limited ({@link #setRate}): a token bucket refilled at the client's bytes per second, holding at most a
+ * quarter second's worth, so a low-end headset on a capped budget backs up here too.
+ * <p>
+ * Thread-safe: offers come from the client's outbound lane, pumps from the lane and from the server tick.
+ */
+final class OutboundQueue {
+
+	private static final long NO_SECTION = Long.MIN_VALUE;
+	private static final byte KIND_OTHER = 0;
+	private static final byte KIND_SNAPSHOT = 1;
+	private static final byte KIND_DELTA = 2;
+
+	private final WebSocket socket;
+	private final WebSocketOutput output;
+
+	private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+	private final Long2ObjectOpenHashMap<Entry> pendingSnapshots = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<List<Entry>> pendingDeltas = new Long2ObjectOpenHashMap<>();
+	private long queuedBytes;
+	private long overLimitSince;
+	/** Set while this client's session is being recorded (/mr_record). */
+	private volatile SessionRecorder recorder;
+	/** Bytes per second, 0 for unlimited. */
+	private long rateBytesPerSecond;
+	private long rateTokens;
+	private long rateRefillNanos;
+
+	final AtomicLong framesSent = new AtomicLong();
+	final AtomicLong bytesSent = new AtomicLong();
+	final AtomicLong snapshotsReplaced = new AtomicLong();
+	final AtomicLong deltasDropped = new AtomicLong();
+	final AtomicLong overLimitEvents = new AtomicLong();
+	final AtomicLong slowDisconnects = new AtomicLong();
+
+	OutboundQueue(WebSocket socket, WebSocketOutput output) {
+		this.socket = socket;
+		this.output = output;
+	}
+
+	/** Queue key for a section; sy is the section index, as in CHUNK_SECTION_SNAPSHOT. */
+	static long sectionKey(int cx, int sy, int cz) {
+		return SectionPos.asLong(cx, sy, cz);
+	}
+
+	synchronized void offerText(String text) {
+		append(new Entry(KIND_OTHER, NO_SECTION, null, text));
+	}
+
+	synchronized void offerFrame(EncodedFrame frame) {
+		if (frame != null) append(new Entry(KIND_OTHER, NO_SECTION, frame, null));
+	}
+
+	synchronized void offerSnapshot(long sectionKey, EncodedFrame frame) {
+		if (frame == null) return;
+		dropPendingDeltas(sectionKey);
+		Entry pending = pendingSnapshots.get(sectionKey);
+		if (pending != null) {
+			queuedBytes += frame.size() - pending.bytes;
+			pending.frame = frame;
+			pending.bytes = frame.size();
+			snapshotsReplaced.incrementAndGet();
+			return;
+		}
+		Entry entry = new Entry(KIND_SNAPSHOT, sectionKey, frame, null);
+		pendingSnapshots.put(sectionKey, entry);
+		append(entry);
+	}
+
+	synchronized void offerDelta(long sectionKey, EncodedFrame frame) {
+		if (frame == null) return;
+		Entry entry = new Entry(KIND_DELTA, sectionKey, frame, null);
+		pendingDeltas.computeIfAbsent(sectionKey, k -> new ArrayList<>()).add(entry);
+		append(entry);
+	}
+
+	/**
+	 * Queue SECTIONS_UNLOAD for sections ((cx, cz, sy) triples), dropping the snapshots and deltas of those sections still
+	 * queued: the client would load them only to unload them, and a later snapshot of one of them must not replace the
+	 * dropped one ahead of the unload.
+	 */
+	synchronized void offerUnload(int[] sections, EncodedFrame frame) {
+		if (frame == null) return;
+		for (int i = 0; i + 2 < sections.length; i += 3) {
+			dropPending(sectionKey(sections[i], sections[i + 2], sections[i + 1]));
+		}
+		append(new Entry(KIND_OTHER, NO_SECTION, frame, null));
+	}
+
+	/**
+	 * Queue COLUMN_SUMMARY for column (cx, cz), dropping the snapshots and deltas still queued for its sections: the
+	 * summary replaces them all, and a later snapshot of one of them must not replace a dropped one ahead of it.
+	 */
+	synchronized void offerColumnSummary(int cx, int cz, EncodedFrame frame) {
+		if (frame == null) return;
+		LongArrayList column = new LongArrayList();
+		for (LongIterator it = pendingSnapshots.keySet().iterator(); it.hasNext(); ) {
+			long key = it.nextLong();
+			if (SectionPos.x(key) == cx && SectionPos.z(key) == cz) column.add(key);
+		}
+		for (LongIterator it = pendingDeltas.keySet().iterator(); it.hasNext(); ) {
+			long key = it.nextLong();
+			if (SectionPos.x(key) == cx && SectionPos.z(key) == cz) column.add(key);
+		}
+		for (int i = 0; i < column.size(); i++) {
+			dropPending(column.getLong(i));
+		}
+		append(new Entry(KIND_OTHER, NO_SECTION, frame, null));
+	}
+
+	/**
+	 * Drop the snapshots and deltas still queued (the client is switching dimension). Section keys do not include the
+	 * level, so a new level's snapshot would otherwise replace an old level's in place, ahead of the SET_ORIGIN that
+	 * switches the client over; the SECTIONS_UNLOAD that follows covers whatever the client misses.
+	 */
+	synchronized void dropPendingSections() {
+		for (Entry snapshot : pendingSnapshots.values()) {
+			snapshot.dead = true;
+			queuedBytes -= snapshot.bytes;
+		}
+		snapshotsReplaced.addAndGet(pendingSnapshots.size());
+		pendingSnapshots.clear();
+		for (List<Entry> deltas : pendingDeltas.values()) {
+			for (Entry delta : deltas) {
+				delta.dead = true;
+				queuedBytes -= delta.bytes;
+			}
+			deltasDropped.addAndGet(deltas.size());
+		}
+		pendingDeltas.clear();
+	}
+
+	/** Tee every frame sent from now on into recorder (null stops). */
+	void setRecorder(SessionRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/** Limit sends to bytesPerSecond (0: unlimited). */
+	synchronized void setRate(long bytesPerSecond) {
+		rateBytesPerSecond = Math.max(0, bytesPerSecond);
+		rateTokens = 0;
+		rateRefillNanos = System.nanoTime();
+	}
+
+	synchronized long rate() {
+		return rateBytesPerSecond;
+	}
+
+	synchronized long queuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Move frames to the connection while its write queue is under the window, then enforce the queue limit.
+	 * Returns false if the client was disconnected for staying over its limit.
+	 */
+	synchronized boolean pump() {
+		if (!socket.isOpen()) {
+			clear();
+			return true;
+		}
+		long buffered = output.bufferedBytes();
+		boolean limited = rateBytesPerSecond > 0;
+		if (limited) refillRate();
+		Entry entry;
+		while (buffered < StreamerConfig.SOCKET_WINDOW_BYTES && (!limited || rateTokens > 0) && (entry = entries.poll()) != null) {
+			if (entry.dead) continue;
+			unindex(entry);
+			queuedBytes -= entry.bytes;
+			if (entry.text != null) {
+				output.send(entry.text);
+			} else {
+				output.send(entry.frame);
+			}
+			SessionRecorder r = recorder;
+			if (r != null) record(r, entry);
+			buffered += entry.bytes;
+			// A frame larger than the remaining tokens still goes, leaving the bucket in debt
+			if (limited) rateTokens -= entry.bytes;
+			framesSent.incrementAndGet();
+			bytesSent.addAndGet(entry.bytes);
+			if (entry.frame != null) {
+				StreamerMetrics.sent(entry.frame, entry.kind == KIND_SNAPSHOT);
+			} else {
+				StreamerMetrics.sentText(entry.bytes);
+			}
+		}
+		return enforceLimit();
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		pendingSnapshots.clear();
+		pendingDeltas.clear();
+		queuedBytes = 0;
+		output.clear();
+	}
+
+	private void refillRate() {
+		long now = System.nanoTime();
+		long burst = Math.max(16 * 1024, rateBytesPerSecond / 4);
+		long elapsed = Math.min(now - rateRefillNanos, 1_000_000_000L);
+		rateTokens = Math.min(burst, rateTokens + elapsed * rateBytesPerSecond / 1_000_000_000L);
+		rateRefillNanos = now;
+	}
+
+	private void append(Entry entry) {
+		entries.add(entry);
+		queuedBytes += entry.bytes;
+	}
+
+	private void dropPending(long sectionKey) {
+		Entry snapshot = pendingSnapshots.remove(sectionKey);
+		if (snapshot != null) {
+			snapshot.dead = true;
+			queuedBytes -= snapshot.bytes;
+			snapshotsReplaced.incrementAndGet();
+		}
+		dropPendingDeltas(sectionKey);
+	}
+
+	private void dropPendingDeltas(long sectionKey) {
+		List<Entry> deltas = pendingDeltas.remove(sectionKey);
+		if (deltas == null) return;
+		for (Entry delta : deltas) {
+			delta.dead = true;
+			queuedBytes -= delta.bytes;
+		}
+		deltasDropped.addAndGet(deltas.size());
+	}
+
+	private void unindex(Entry entry) {
+		if (entry.kind == KIND_SNAPSHOT) {
+			pendingSnapshots.remove(entry.sectionKey);
+		} else if (entry.kind == KIND_DELTA) {
+			List<Entry> deltas = pendingDeltas.get(entry.sectionKey);
+			if (deltas != null) {
+				deltas.remove(entry);
+				if (deltas.isEmpty()) pendingDeltas.remove(entry.sectionKey);
+			}
+		}
+	}
+
+	private boolean enforceLimit() {
+		if (queuedBytes <= StreamerConfig.CLIENT_QUEUE_BYTES) {
+			overLimitSince = 0;
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if (overLimitSince == 0) {
+			overLimitSince = now;
+			overLimitEvents.incrementAndGet();
+			return true;
+		}
+		if (now - overLimitSince < StreamerConfig.CLIENT_OVER_LIMIT_MILLIS) return true;
+
+		slowDisconnects.incrementAndGet();
+		MicrocosmStreamerMod.LOGGER.warn("Disconnecting slow streamer client {}: {} bytes queued for over {} ms",
+			socket.getRemoteSocketAddress(), queuedBytes, StreamerConfig.CLIENT_OVER_LIMIT_MILLIS);
+		clear();
+		socket.close(CloseFrame.TRY_AGAIN_LATER, "Client too slow");
+		return false;
+	}
+
+	private static void record(SessionRecorder recorder, Entry entry) {
+		if (entry.text != null) {
+			recorder.recordText(entry.text);
+		} else {
+			byte kind = switch (entry.kind) {
+				case KIND_SNAPSHOT -> SessionLog.KIND_SECTION;
+				case KIND_DELTA -> SessionLog.KIND_DELTA;
+				default -> SessionLog.KIND_FRAME;
+			};
+			recorder.recordFrame(kind, entry.sectionKey == NO_SECTION ? SessionLog.NO_SECTION : entry.sectionKey, entry.frame);
+		}
+	}
+
+	private static final class Entry {
+		final byte kind;
+		final long sectionKey;
+		final String text;
+		EncodedFrame frame;
+		int bytes;
+		boolean dead;
+
+		Entry(byte kind, long sectionKey, EncodedFrame frame, String text) {
+			this.kind = kind;
+			this.sectionKey = sectionKey;
+			this.frame = frame;
+			this.text = text;
+			this.bytes = frame != null ? frame.size() : text.length();
+		}
+	}
+}
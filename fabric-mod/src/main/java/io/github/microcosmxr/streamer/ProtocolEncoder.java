@@ -0,0 +1,594 @@
+package io.github.microcosmxr.streamer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Binary protocol encoding, independent of any connection: each message is encoded once into an {@link EncodedFrame}
+ * that can be sent to any number of clients. Encoders return null (after logging) if encoding fails.
+ */
+public final class ProtocolEncoder {
+
+	/** Highest protocol version this server speaks; clients that never reply to HELLO get {@link #BASE_PROTOCOL_VERSION}. */
+	public static final int PROTOCOL_VERSION = 2;
+	public static final int BASE_PROTOCOL_VERSION = 1;
+	public static final byte MSG_HELLO = 0;
+	public static final byte MSG_SET_ORIGIN = 1;
+	public static final byte MSG_CHUNK_SECTION_SNAPSHOT = 2;
+	public static final byte MSG_BLOCK_DELTA = 3;
+	public static final byte MSG_BLOCK_ENTITY = 4;
+	public static final byte MSG_ENTITY_SPAWN = 5;
+	public static final byte MSG_BLOCK_DELTA_BATCH = 6;
+	public static final byte MSG_CHUNK_SECTION_COMPACT = 7;
+	public static final byte MSG_COMPRESSED = 8;
+	public static final byte MSG_ID_TABLE = 9;
+	public static final byte MSG_BLOCK_DELTA_IDS = 10;
+	public static final byte MSG_SECTIONS_UNCHANGED = 11;
+	public static final byte MSG_ENTITY_UPDATE = 12;
+	public static final byte MSG_ENTITY_DESPAWN = 13;
+	public static final byte MSG_SECTIONS_UNLOAD = 14;
+	public static final byte MSG_SECTION_LOD = 15;
+	public static final byte MSG_COLUMN_SUMMARY = 16;
+	public static final byte MSG_SECTION_HIDDEN = 17;
+	/** Client to server (binary): the sections a "resume" client still holds, see {@link ResumeManifest}. */
+	public static final byte MSG_RESUME_MANIFEST = 1;
+
+	/** CHUNK_SECTION_COMPACT flags. */
+	static final int COMPACT_SINGLE_BLOCK = 1;
+	static final int COMPACT_UNIFORM_BLOCK_LIGHT = 2;
+	static final int COMPACT_UNIFORM_SKY_LIGHT = 4;
+	static final int COMPACT_SINGLE_BIOME = 8;
+	static final int COMPACT_NUMERIC_IDS = 16;
+	static final int COMPACT_CONTENT_HASH = 32;
+	static final int COMPACT_SURFACE = 64;
+
+	/** ENTITY_UPDATE field mask bits, in the order the fields follow. */
+	static final int ENTITY_X = 1;
+	static final int ENTITY_Y = 2;
+	static final int ENTITY_Z = 4;
+	static final int ENTITY_YAW = 8;
+	static final int ENTITY_PITCH = 16;
+	/** Ints per entity in the updates array of {@link #entityUpdates}: id, mask, x, y, z, yaw, pitch. */
+	static final int ENTITY_UPDATE_INTS = 7;
+	/** ENTITY_UPDATE positions are in 1/32 block relative to the stream origin. */
+	public static final int ENTITY_POSITION_SCALE = 32;
+
+	private ProtocolEncoder() {}
+
+	/**
+	 * Section snapshot in the format of the given negotiated protocol version; with an id table (feature "ids", protocol 2)
+	 * palettes carry numeric ids, with contentHash (feature "resume", protocol 2) the frame carries the section's hash.
+	 */
+	public static EncodedFrame sectionSnapshot(int protocolVersion, int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap, IdTable ids,
+	                                           boolean contentHash) {
+		return protocolVersion >= 2 ? chunkSectionCompact(cx, cz, sy, snap, ids, contentHash) : chunkSectionSnapshot(cx, cz, sy, snap);
+	}
+
+	public static EncodedFrame chunkSectionSnapshot(int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_CHUNK_SECTION_SNAPSHOT);
+			out.writeInt(cx);
+			out.writeInt(cz);
+			out.writeInt(sy);
+			// Block palette + indices
+			out.writeInt(snap.palette.size());
+			for (String s : snap.palette) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(b.length);
+				out.write(b);
+			}
+			for (int i = 0; i < 4096; i++) {
+				out.writeShort(snap.indices[i] & 0xFFFF);
+			}
+			// Block light (4096 bytes), sky light (4096 bytes)
+			out.write(snap.blockLight, 0, 4096);
+			out.write(snap.skyLight, 0, 4096);
+			// Biome palette + 64 indices
+			out.writeInt(snap.biomePalette.size());
+			for (String s : snap.biomePalette) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(b.length);
+				out.write(b);
+			}
+			for (int i = 0; i < 64; i++) {
+				out.writeShort(snap.biomeIndices[i] & 0xFFFF);
+			}
+			out.flush();
+			return new EncodedFrame(MSG_CHUNK_SECTION_SNAPSHOT, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode chunk section snapshot", e);
+			return null;
+		}
+	}
+
+	/**
+	 * CHUNK_SECTION_COMPACT (protocol 2): the same section as CHUNK_SECTION_SNAPSHOT with indices bit-packed at
+	 * ceil(log2(paletteLen)) bits, light as nibbles or a single value when uniform, varint lengths, and single-value
+	 * block/biome sections reduced to their palette entry. With ids (non-null), palette entries are table ids instead of
+	 * strings. See README "Protocol" for the layout.
+	 */
+	public static EncodedFrame chunkSectionCompact(int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap, IdTable ids,
+	                                               boolean contentHash) {
+		return chunkSectionCompact(cx, cz, sy, snap, ids, contentHash, null);
+	}
+
+	/**
+	 * CHUNK_SECTION_COMPACT with the section's surface (feature "surface", may be null): the visible-block mask follows the
+	 * biomes unless every block is visible, and the hash covers the mask too.
+	 */
+	static EncodedFrame chunkSectionCompact(int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap, IdTable ids,
+	                                        boolean contentHash, SectionSurface surface) {
+		try {
+			byte[] exposed = surface != null ? surface.exposed : null;
+			int blockBits = bitsFor(snap.palette.size());
+			int biomeBits = bitsFor(snap.biomePalette.size());
+			int blockLight = uniformLight(snap.blockLight);
+			int skyLight = uniformLight(snap.skyLight);
+			int flags = (blockBits == 0 ? COMPACT_SINGLE_BLOCK : 0)
+				| (blockLight >= 0 ? COMPACT_UNIFORM_BLOCK_LIGHT : 0)
+				| (skyLight >= 0 ? COMPACT_UNIFORM_SKY_LIGHT : 0)
+				| (biomeBits == 0 ? COMPACT_SINGLE_BIOME : 0)
+				| (ids != null ? COMPACT_NUMERIC_IDS : 0)
+				| (contentHash ? COMPACT_CONTENT_HASH : 0)
+				| (exposed != null ? COMPACT_SURFACE : 0);
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + snap.palette.size() * 24 + blockBits * 512
+				+ (blockLight >= 0 ? 0 : 2048) + (skyLight >= 0 ? 0 : 2048));
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_CHUNK_SECTION_COMPACT);
+			writeVarInt(out, zigZag(cx));
+			writeVarInt(out, zigZag(cz));
+			writeVarInt(out, sy);
+			out.writeByte(flags);
+			if (contentHash) out.writeLong(surface != null ? surface.contentHash(snap.contentHash()) : snap.contentHash());
+			if (ids != null) {
+				writeIdPalette(out, snap.palette, ids::blockId);
+			} else {
+				writeStrings(out, snap.palette);
+			}
+			if (blockBits > 0) {
+				out.writeByte(blockBits);
+				out.write(packBits(snap.indices, 4096, blockBits));
+			}
+			writeLight(out, snap.blockLight, blockLight);
+			writeLight(out, snap.skyLight, skyLight);
+			if (ids != null) {
+				writeIdPalette(out, snap.biomePalette, ids::biomeId);
+			} else {
+				writeStrings(out, snap.biomePalette);
+			}
+			if (biomeBits > 0) {
+				out.writeByte(biomeBits);
+				out.write(packBits(snap.biomeIndices, 64, biomeBits));
+			}
+			if (exposed != null) out.write(exposed);
+			out.flush();
+			return new EncodedFrame(MSG_CHUNK_SECTION_COMPACT, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode compact chunk section", e);
+			return null;
+		}
+	}
+
+	/**
+	 * SECTION_LOD (feature "lod"): one level of a section's {@link SectionLod} pyramid, (16 &gt;&gt; lod)³ cells. Layout
+	 * like CHUNK_SECTION_COMPACT without light and biomes: header, lod, flags (only {@link #COMPACT_NUMERIC_IDS}), palette
+	 * of the blocks used (air included if any cell is air), then bits and packed cell indices unless the palette has
+	 * one entry.
+	 */
+	static EncodedFrame sectionLod(int cx, int cz, int sy, int lod, SectionLod section, IdTable ids) {
+		try {
+			short[] cells = section.cells(lod);
+			// Compact palette: only the source entries some cell uses
+			short[] remap = new short[section.palette.size()];
+			Arrays.fill(remap, (short) -1);
+			short airIndex = -1;
+			List<String> palette = new ArrayList<>();
+			short[] indices = new short[cells.length];
+			for (int i = 0; i < cells.length; i++) {
+				short cell = cells[i];
+				if (cell == SectionLod.AIR) {
+					if (airIndex < 0) {
+						airIndex = (short) palette.size();
+						palette.add("minecraft:air");
+					}
+					indices[i] = airIndex;
+				} else {
+					if (remap[cell] < 0) {
+						remap[cell] = (short) palette.size();
+						palette.add(section.palette.get(cell));
+					}
+					indices[i] = remap[cell];
+				}
+			}
+			int bits = bitsFor(palette.size());
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(24 + palette.size() * 24 + (cells.length * bits + 7) / 8);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_SECTION_LOD);
+			writeVarInt(out, zigZag(cx));
+			writeVarInt(out, zigZag(cz));
+			writeVarInt(out, sy);
+			out.writeByte(lod);
+			out.writeByte(ids != null ? COMPACT_NUMERIC_IDS : 0);
+			if (ids != null) {
+				writeIdPalette(out, palette, ids::blockId);
+			} else {
+				writeStrings(out, palette);
+			}
+			if (bits > 0) {
+				out.writeByte(bits);
+				out.write(packBits(indices, cells.length, bits));
+			}
+			out.flush();
+			return new EncodedFrame(MSG_SECTION_LOD, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode LOD section", e);
+			return null;
+		}
+	}
+
+	/**
+	 * COLUMN_SUMMARY (feature "lod"): header, flags (only {@link #COMPACT_NUMERIC_IDS}), palette of top blocks, bits and
+	 * 256 packed indices (x + z * 16) unless the palette has one entry, then 256 varint zigzag(world y of the top block).
+	 * Empty block columns have air one below the level's minimum y.
+	 */
+	static EncodedFrame columnSummary(int cx, int cz, List<String> palette, short[] indices, int[] heights, IdTable ids) {
+		try {
+			int bits = bitsFor(palette.size());
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(16 + palette.size() * 24 + bits * 32 + 512);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_COLUMN_SUMMARY);
+			writeVarInt(out, zigZag(cx));
+			writeVarInt(out, zigZag(cz));
+			out.writeByte(ids != null ? COMPACT_NUMERIC_IDS : 0);
+			if (ids != null) {
+				writeIdPalette(out, palette, ids::blockId);
+			} else {
+				writeStrings(out, palette);
+			}
+			if (bits > 0) {
+				out.writeByte(bits);
+				out.write(packBits(indices, 256, bits));
+			}
+			for (int height : heights) {
+				writeVarInt(out, zigZag(height));
+			}
+			out.flush();
+			return new EncodedFrame(MSG_COLUMN_SUMMARY, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode column summary", e);
+			return null;
+		}
+	}
+
+	public static EncodedFrame blockDelta(int x, int y, int z, String blockStateId) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_BLOCK_DELTA);
+			out.writeInt(x);
+			out.writeInt(y);
+			out.writeInt(z);
+			byte[] b = blockStateId.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(b.length & 0xFFFF);
+			out.write(b);
+			out.flush();
+			return new EncodedFrame(MSG_BLOCK_DELTA, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode block delta", e);
+			return null;
+		}
+	}
+
+	/**
+	 * BLOCK_DELTA_BATCH: all changes to one section in one tick. positions are packed section-local ((y * 16 + z) * 16 + x),
+	 * paletteIndices index into palette.
+	 */
+	public static EncodedFrame blockDeltaBatch(int cx, int cz, int sy, List<String> palette, short[] positions, short[] paletteIndices) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(16 + palette.size() * 24 + positions.length * 4);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_BLOCK_DELTA_BATCH);
+			out.writeInt(cx);
+			out.writeInt(cz);
+			out.writeInt(sy);
+			out.writeShort(palette.size());
+			for (String s : palette) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(b.length);
+				out.write(b);
+			}
+			out.writeShort(positions.length);
+			for (int i = 0; i < positions.length; i++) {
+				out.writeShort(positions[i]);
+				out.writeShort(paletteIndices[i]);
+			}
+			out.flush();
+			return new EncodedFrame(MSG_BLOCK_DELTA_BATCH, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode block delta batch", e);
+			return null;
+		}
+	}
+
+	/**
+	 * BLOCK_DELTA_IDS (feature "ids"): all changes to one section in one tick, each as a section-local position
+	 * ((y * 16 + z) * 16 + x) and a block id from the id table.
+	 */
+	public static EncodedFrame blockDeltaIds(int cx, int cz, int sy, short[] positions, int[] blockIds) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(16 + positions.length * 4);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_BLOCK_DELTA_IDS);
+			writeVarInt(out, zigZag(cx));
+			writeVarInt(out, zigZag(cz));
+			writeVarInt(out, sy);
+			writeVarInt(out, positions.length);
+			for (int i = 0; i < positions.length; i++) {
+				out.writeShort(positions[i]);
+				writeVarInt(out, blockIds[i]);
+			}
+			out.flush();
+			return new EncodedFrame(MSG_BLOCK_DELTA_IDS, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode block delta ids", e);
+			return null;
+		}
+	}
+
+	/**
+	 * SECTIONS_UNCHANGED (feature "resume"): sections from the client's manifest that were not re-sent because the client
+	 * already holds them; sections is (cx, cz, sy) triples.
+	 */
+	static EncodedFrame sectionsUnchanged(int[] sections, int count) {
+		return sectionList(MSG_SECTIONS_UNCHANGED, sections, count);
+	}
+
+	/**
+	 * SECTIONS_UNLOAD (protocol 2): sections that left the client's stream window after an origin move; sections is
+	 * (cx, cz, sy) triples.
+	 */
+	static EncodedFrame sectionsUnload(int[] sections, int count) {
+		return sectionList(MSG_SECTIONS_UNLOAD, sections, count);
+	}
+
+	/** SECTION_HIDDEN (feature "surface"): the section cannot be seen; the client holds it as solid and draws nothing. */
+	static EncodedFrame sectionHidden(int cx, int cz, int sy) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(12);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_SECTION_HIDDEN);
+			writeVarInt(out, zigZag(cx));
+			writeVarInt(out, zigZag(cz));
+			writeVarInt(out, sy);
+			out.flush();
+			return new EncodedFrame(MSG_SECTION_HIDDEN, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode hidden section", e);
+			return null;
+		}
+	}
+
+	private static EncodedFrame sectionList(byte type, int[] sections, int count) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(8 + count * 3);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(type);
+			writeVarInt(out, count);
+			for (int i = 0; i < count; i++) {
+				writeVarInt(out, zigZag(sections[i * 3]));
+				writeVarInt(out, zigZag(sections[i * 3 + 1]));
+				writeVarInt(out, sections[i * 3 + 2]);
+			}
+			out.flush();
+			return new EncodedFrame(type, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode section list (type {})", type, e);
+			return null;
+		}
+	}
+
+	/** ID_TABLE: the table hash and its encoded lists (see {@link IdTable}). */
+	static EncodedFrame idTable(long hash, byte[] body) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(9 + body.length);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_ID_TABLE);
+			out.writeLong(hash);
+			out.write(body);
+			out.flush();
+			return new EncodedFrame(MSG_ID_TABLE, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode id table", e);
+			return null;
+		}
+	}
+
+	public static EncodedFrame blockEntity(int x, int y, int z, String typeId, byte[] nbt) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_BLOCK_ENTITY);
+			out.writeInt(x);
+			out.writeInt(y);
+			out.writeInt(z);
+			byte[] typeBytes = typeId.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(typeBytes.length & 0xFFFF);
+			out.write(typeBytes);
+			int nbtLen = nbt != null ? nbt.length : 0;
+			out.writeInt(nbtLen);
+			if (nbtLen > 0) out.write(nbt);
+			out.flush();
+			return new EncodedFrame(MSG_BLOCK_ENTITY, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode block entity", e);
+			return null;
+		}
+	}
+
+	public static EncodedFrame entitySpawn(int entityId, String typeId, double x, double y, double z, float yaw, float pitch) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_ENTITY_SPAWN);
+			out.writeInt(entityId);
+			byte[] typeBytes = typeId.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(typeBytes.length & 0xFFFF);
+			out.write(typeBytes);
+			out.writeDouble(x);
+			out.writeDouble(y);
+			out.writeDouble(z);
+			out.writeFloat(yaw);
+			out.writeFloat(pitch);
+			out.flush();
+			return new EncodedFrame(MSG_ENTITY_SPAWN, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode entity spawn", e);
+			return null;
+		}
+	}
+
+	/**
+	 * ENTITY_UPDATE (feature "entities"): for count entities, (id, mask, x, y, z, yaw, pitch) in updates; only the fields
+	 * in mask are written. Positions are quantized origin-relative ({@link #ENTITY_POSITION_SCALE}), angles are bytes
+	 * (256 steps per turn).
+	 */
+	static EncodedFrame entityUpdates(int[] updates, int count) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(8 + count * 8);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_ENTITY_UPDATE);
+			writeVarInt(out, count);
+			for (int i = 0; i < count; i++) {
+				int base = i * ENTITY_UPDATE_INTS;
+				int mask = updates[base + 1];
+				writeVarInt(out, updates[base]);
+				out.writeByte(mask);
+				if ((mask & ENTITY_X) != 0) writeVarInt(out, zigZag(updates[base + 2]));
+				if ((mask & ENTITY_Y) != 0) writeVarInt(out, zigZag(updates[base + 3]));
+				if ((mask & ENTITY_Z) != 0) writeVarInt(out, zigZag(updates[base + 4]));
+				if ((mask & ENTITY_YAW) != 0) out.writeByte(updates[base + 5]);
+				if ((mask & ENTITY_PITCH) != 0) out.writeByte(updates[base + 6]);
+			}
+			out.flush();
+			return new EncodedFrame(MSG_ENTITY_UPDATE, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode entity update", e);
+			return null;
+		}
+	}
+
+	/** ENTITY_DESPAWN (feature "entities"): entities that left the stream radius or were removed. */
+	static EncodedFrame entityDespawn(int[] entityIds, int count) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(4 + count * 3);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(MSG_ENTITY_DESPAWN);
+			writeVarInt(out, count);
+			for (int i = 0; i < count; i++) {
+				writeVarInt(out, entityIds[i]);
+			}
+			out.flush();
+			return new EncodedFrame(MSG_ENTITY_DESPAWN, baos.toByteArray());
+		} catch (IOException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to encode entity despawn", e);
+			return null;
+		}
+	}
+
+	/** Bits per index for a palette of the given size: 0 for a single entry, else ceil(log2(size)). */
+	static int bitsFor(int paletteSize) {
+		return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+	}
+
+	/**
+	 * Pack count values at bits each into a little-endian bit stream: value i occupies stream bits [i * bits, (i + 1) * bits),
+	 * stream bit k is bit (k &amp; 7) of byte k &gt;&gt; 3.
+	 */
+	static byte[] packBits(short[] values, int count, int bits) {
+		byte[] packed = new byte[(count * bits + 7) >> 3];
+		long mask = (1L << bits) - 1;
+		long acc = 0;
+		int accBits = 0;
+		int o = 0;
+		for (int i = 0; i < count; i++) {
+			acc |= (values[i] & mask) << accBits;
+			accBits += bits;
+			while (accBits >= 8) {
+				packed[o++] = (byte) acc;
+				acc >>>= 8;
+				accBits -= 8;
+			}
+		}
+		if (accBits > 0) packed[o] = (byte) acc;
+		return packed;
+	}
+
+	/** Light value shared by the whole section, or -1 if it varies. */
+	private static int uniformLight(byte[] light) {
+		int shared = ChunkSerializer.uniformLightValue(light);
+		if (shared >= 0) return shared;
+		byte first = light[0];
+		for (int i = 1; i < 4096; i++) {
+			if (light[i] != first) return -1;
+		}
+		return first & 15;
+	}
+
+	/** Uniform light as one byte, else 2048 nibble bytes (block i in byte i &gt;&gt; 1, low nibble for even i). */
+	private static void writeLight(DataOutputStream out, byte[] light, int uniform) throws IOException {
+		if (uniform >= 0) {
+			out.writeByte(uniform);
+			return;
+		}
+		byte[] nibbles = new byte[2048];
+		for (int i = 0; i < 4096; i += 2) {
+			nibbles[i >> 1] = (byte) ((light[i] & 15) | (light[i + 1] & 15) << 4);
+		}
+		out.write(nibbles);
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		writeVarInt(out, strings.size());
+		for (String s : strings) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(out, b.length);
+			out.write(b);
+		}
+	}
+
+	/** Palette as table ids: varint (id + 1), or varint 0 followed by the string for entries not in the table. */
+	private static void writeIdPalette(DataOutputStream out, List<String> strings, ToIntFunction<String> ids) throws IOException {
+		writeVarInt(out, strings.size());
+		for (String s : strings) {
+			int id = ids.applyAsInt(s);
+			writeVarInt(out, id + 1);
+			if (id < 0) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				writeVarInt(out, b.length);
+				out.write(b);
+			}
+		}
+	}
+
+	/** Unsigned LEB128: 7 bits per byte, low bits first, high bit set on all but the last byte. */
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+}
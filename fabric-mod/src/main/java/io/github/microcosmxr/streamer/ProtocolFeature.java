@@ -0,0 +1,88 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Optional protocol features, negotiated in the HELLO exchange. The server advertises every feature after its version
+ * ("HELLO 1 batch ..."); a client that wants any of them replies with a text "HELLO &lt;version&gt; &lt;feature&gt; ...".
+ * Clients that never reply (older builds) get only the base version 1 messages.
+ */
+public enum ProtocolFeature {
+
+	/** BLOCK_DELTA_BATCH (type 6): one frame per section per tick with coalesced deltas, instead of one BLOCK_DELTA each. */
+	DELTA_BATCH("batch"),
+	/** COMPRESSED (type 8): large frames deflated with the preset dictionary (see {@link FrameCompressor}). */
+	DEFLATE("deflate"),
+	/**
+	 * Numeric ids (protocol 2 only): ID_TABLE (type 9) once per connection, then id palettes in CHUNK_SECTION_COMPACT and
+	 * BLOCK_DELTA_IDS (type 10) instead of BLOCK_DELTA_BATCH. See {@link IdTable}.
+	 */
+	NUMERIC_IDS("ids"),
+	/**
+	 * Reconnect resume (protocol 2 only): compact sections carry their content hash, the client sends a RESUME_MANIFEST of
+	 * the sections it holds right after its HELLO reply, and its region stream skips the unchanged ones (listed in
+	 * SECTIONS_UNCHANGED, type 11). See {@link ResumeManifest}.
+	 */
+	RESUME("resume"),
+	/**
+	 * Live entities: after the region stream, ENTITY_SPAWN for entities that come into range, ENTITY_UPDATE (type 12) with
+	 * quantized changed fields and ENTITY_DESPAWN (type 13). Without it a client only gets the spawns at join. See
+	 * {@link EntityTracker}.
+	 */
+	ENTITIES("entities"),
+	/**
+	 * Far-field detail (protocol 2 only): beyond the full-detail radius, SECTION_LOD (type 15) downsampled sections and
+	 * COLUMN_SUMMARY (type 16) heightmaps, re-sent every few ticks when they change. See {@link StreamWindow#detail}.
+	 */
+	LOD("lod"),
+	/**
+	 * Visible surface only (protocol 2 only): sections that cannot be seen come as SECTION_HIDDEN (type 17), and compact
+	 * sections carry a mask of their visible blocks. See {@link SectionSurface}.
+	 */
+	SURFACE("surface");
+
+	private final String token;
+
+	ProtocolFeature(String token) {
+		this.token = token;
+	}
+
+	public String token() {
+		return token;
+	}
+
+	/** Whether this server offers the feature (some can be switched off in {@link StreamerConfig}). */
+	public boolean enabled() {
+		return switch (this) {
+			case DEFLATE -> StreamerConfig.COMPRESSION;
+			case NUMERIC_IDS -> StreamerConfig.NUMERIC_IDS;
+			case RESUME -> StreamerConfig.RESUME;
+			case ENTITIES -> StreamerConfig.ENTITY_TRACKING;
+			case LOD -> StreamerConfig.LOD;
+			case SURFACE -> StreamerConfig.SURFACE;
+			default -> true;
+		};
+	}
+
+	/** Space-separated tokens for the server HELLO. */
+	public static String advertised() {
+		StringJoiner joiner = new StringJoiner(" ");
+		for (ProtocolFeature feature : values()) {
+			if (feature.enabled()) joiner.add(feature.token);
+		}
+		return joiner.toString();
+	}
+
+	/** Enabled features named in tokens[from..]; unknown tokens are ignored. */
+	public static Set<ProtocolFeature> parse(String[] tokens, int from) {
+		Set<ProtocolFeature> features = EnumSet.noneOf(ProtocolFeature.class);
+		for (int i = from; i < tokens.length; i++) {
+			for (ProtocolFeature feature : values()) {
+				if (feature.enabled() && feature.token.equals(tokens[i])) features.add(feature);
+			}
+		}
+		return features;
+	}
+}
@@ -0,0 +1,137 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.Identifier;
+import net.minecraft.server.level.ChunkResult;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.status.ChunkStatus;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chunk loads for region streaming without blocking the game thread: a column that is not loaded gets a temporary
+ * ticket of our own type and an asynchronous load, and its sections are streamed once the load completes (see
+ * {@link StreamRegionTask}). At most {@link StreamerConfig#CHUNK_LOADS_IN_FLIGHT} loads run at a time across all joining
+ * clients. With {@link StreamerConfig#GENERATE_CHUNKS} off, a column that was never generated (no full chunk on disk) is
+ * skipped instead of generated.
+ * <p>
+ * The ticket holds the chunk until the stream that asked for it is done with it ({@link Load#release}); it also expires
+ * on its own after {@link #TICKET_TIMEOUT_TICKS}, in case a stream is never released. Requests and releases are game
+ * thread only; loads complete on whichever thread finishes them, and streams poll {@link Load#isDone()}.
+ */
+final class RegionChunkLoads {
+
+	/** One minute: longer than any region stream that keeps moving. */
+	private static final long TICKET_TIMEOUT_TICKS = 20 * 60;
+	private static TicketType ticketType;
+
+	/** Loads requested and not yet complete; a completed load keeps its ticket but not its slot. */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/** Register our ticket type; call once during mod initialization, while the registries are open. */
+	static void registerTicketType() {
+		ticketType = Registry.register(BuiltInRegistries.TICKET_TYPE,
+			Identifier.fromNamespaceAndPath(MicrocosmStreamerMod.MOD_ID, "region_stream"),
+			new TicketType(TICKET_TIMEOUT_TICKS, TicketType.FLAG_LOADING));
+	}
+
+	/** Whether another load may start now. */
+	boolean hasCapacity() {
+		return inFlight.get() < StreamerConfig.CHUNK_LOADS_IN_FLIGHT;
+	}
+
+	int inFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Start loading column (cx, cz) of level under a ticket (game thread), or return null if {@link #hasCapacity()} is
+	 * false. The load completes with the chunk, or with null if it failed or (without generateChunks) was never
+	 * generated.
+	 */
+	Load request(ServerLevel level, int cx, int cz) {
+		if (!hasCapacity()) return null;
+		inFlight.incrementAndGet();
+		Load load = new Load(level, new ChunkPos(cx, cz));
+		if (StreamerConfig.GENERATE_CHUNKS) {
+			load.start();
+		} else {
+			// Only chunks saved at full status: a proto-chunk would be generated the rest of the way
+			ServerChunkCache chunks = level.getChunkSource();
+			chunks.chunkMap.read(load.pos).whenCompleteAsync((tag, error) -> {
+				if (error == null && tag.flatMap(RegionChunkLoads::status).orElse(null) == ChunkStatus.FULL) {
+					load.start();
+				} else {
+					load.finish(null);
+				}
+			}, level.getServer());
+		}
+		return load;
+	}
+
+	private static Optional<ChunkStatus> status(CompoundTag tag) {
+		return tag.getString("Status").map(ChunkStatus::byName);
+	}
+
+	/** One column being loaded for a region stream; complete once {@link #chunk()} is final. */
+	final class Load {
+		final ServerLevel level;
+		final ChunkPos pos;
+		private volatile boolean done;
+		private volatile ChunkAccess chunk;
+		private boolean ticketed;
+		private boolean released;
+
+		private Load(ServerLevel level, ChunkPos pos) {
+			this.level = level;
+			this.pos = pos;
+		}
+
+		/** Ticket, then load at full status (game thread). */
+		private void start() {
+			if (released) {
+				finish(null);
+				return;
+			}
+			ServerChunkCache chunks = level.getChunkSource();
+			chunks.addTicketWithRadius(ticketType, pos, 0);
+			ticketed = true;
+			CompletableFuture<ChunkResult<ChunkAccess>> future = chunks.getChunkFuture(pos.x, pos.z, ChunkStatus.FULL, true);
+			future.whenComplete((result, error) -> finish(error == null ? result.orElse(null) : null));
+		}
+
+		private synchronized void finish(ChunkAccess loaded) {
+			if (done) return;
+			chunk = loaded;
+			done = true;
+			inFlight.decrementAndGet();
+		}
+
+		boolean isDone() {
+			return done;
+		}
+
+		/** The loaded chunk, or null if the load failed or was skipped. */
+		ChunkAccess chunk() {
+			return chunk;
+		}
+
+		/**
+		 * The stream is done with this column (game thread): drop the ticket. Idempotent; a load released before it
+		 * completes still completes (and frees its slot then), and its chunk may unload again.
+		 */
+		void release() {
+			if (released) return;
+			released = true;
+			if (ticketed) level.getChunkSource().removeTicketWithRadius(ticketType, pos, 0);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs region stream jobs ({@link StreamRegionTask}) on the game thread at the end of each tick, within a shared
+ * per-tick budget (nanoseconds and sections). Jobs take turns one step at a time, starting from a different job each
+ * tick, so two headsets joining together split the budget instead of one waiting for the other. A job that is waiting
+ * (backpressured client, HELLO reply still pending, or chunk loads outstanding; see {@link StreamRegionTask#isWaiting()})
+ * sits out the tick. A job leaving the scheduler, finished or not, is closed to release its chunk tickets.
+ * Game thread only.
+ */
+final class RegionStreamScheduler {
+
+	private final List<StreamRegionTask> jobs = new ArrayList<>();
+	private int rotation;
+
+	void add(StreamRegionTask job) {
+		jobs.add(job);
+	}
+
+	boolean isIdle() {
+		return jobs.isEmpty();
+	}
+
+	int size() {
+		return jobs.size();
+	}
+
+	void clear() {
+		jobs.forEach(StreamRegionTask::close);
+		jobs.clear();
+	}
+
+	/** The client's unfinished job, or null. */
+	StreamRegionTask find(StreamerWebSocketHandler client) {
+		for (StreamRegionTask job : jobs) {
+			if (job.client() == client && !job.isDone()) return job;
+		}
+		return null;
+	}
+
+	/** Drop the client's unfinished job, if any; returns it (closed), or null if there was none. */
+	StreamRegionTask cancel(StreamerWebSocketHandler client) {
+		for (Iterator<StreamRegionTask> it = jobs.iterator(); it.hasNext(); ) {
+			StreamRegionTask job = it.next();
+			if (job.client() != client || job.isDone()) continue;
+			it.remove();
+			job.close();
+			return job;
+		}
+		return null;
+	}
+
+	void tick() {
+		if (jobs.isEmpty()) return;
+		long tickStart = System.nanoTime();
+		long deadline = tickStart + StreamerConfig.REGION_BUDGET_NANOS;
+		int sectionsLeft = StreamerConfig.REGION_SECTIONS_PER_TICK;
+		int count = jobs.size();
+		int first = Math.floorMod(rotation++, count);
+		long[] spent = new long[count];
+
+		boolean progressed = true;
+		outer:
+		while (progressed) {
+			progressed = false;
+			for (int i = 0; i < count; i++) {
+				int idx = (first + i) % count;
+				StreamRegionTask job = jobs.get(idx);
+				if (job.isDone() || job.isWaiting()) continue;
+				long stepStart = System.nanoTime();
+				sectionsLeft -= job.step();
+				long now = System.nanoTime();
+				spent[idx] += now - stepStart;
+				progressed = true;
+				if (sectionsLeft <= 0 || now >= deadline) break outer;
+			}
+		}
+
+		for (int i = 0; i < count; i++) {
+			if (spent[i] > 0) jobs.get(i).recordTick(spent[i]);
+		}
+		jobs.removeIf(job -> job.isDone() && close(job));
+	}
+
+	/** Close job on its way out of the list; always true, for removeIf. */
+	private static boolean close(StreamRegionTask job) {
+		job.close();
+		return true;
+	}
+}
@@ -0,0 +1,103 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The sections a reconnecting client still holds (feature "resume"), from its RESUME_MANIFEST message: byte 1,
+ * varint count, then count × (varint zigzag(cx), varint zigzag(cz), varint sy, long contentHash). During the client's
+ * region stream, a section whose current hash (see {@link SectionFrames#contentHash}) equals the manifest's is not sent
+ * again; the stream ends with one SECTIONS_UNCHANGED listing those sections.
+ * <p>
+ * Parsed on the WebSocket thread, then used only on the client's outbound lane.
+ */
+final class ResumeManifest {
+
+	/** More entries than any region holds; larger manifests are cut off here. */
+	static final int MAX_ENTRIES = 1 << 16;
+
+	private final Long2LongOpenHashMap hashes;
+	private final IntArrayList unchanged = new IntArrayList();
+	private int changed;
+
+	private ResumeManifest(Long2LongOpenHashMap hashes) {
+		this.hashes = hashes;
+	}
+
+	/** Manifest from a RESUME_MANIFEST message (type byte included), or null (after logging) if it is malformed. */
+	static ResumeManifest parse(ByteBuffer message) {
+		try {
+			ByteBuffer in = message.duplicate();
+			if (in.get() != ProtocolEncoder.MSG_RESUME_MANIFEST) return null;
+			int count = Math.min(readVarInt(in), MAX_ENTRIES);
+			Long2LongOpenHashMap hashes = new Long2LongOpenHashMap(count);
+			for (int i = 0; i < count; i++) {
+				int cx = unZigZag(readVarInt(in));
+				int cz = unZigZag(readVarInt(in));
+				int sy = readVarInt(in);
+				hashes.put(OutboundQueue.sectionKey(cx, sy, cz), in.getLong());
+			}
+			return new ResumeManifest(hashes);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Ignoring malformed resume manifest ({} bytes)", message.remaining());
+			return null;
+		}
+	}
+
+	int size() {
+		return hashes.size();
+	}
+
+	/**
+	 * Whether the client already holds this content of the section; if so it is recorded for SECTIONS_UNCHANGED. Either
+	 * way the section leaves the manifest, so a later snapshot of it is always sent.
+	 */
+	boolean holds(SectionFrames frames, StreamerWebSocketHandler client) {
+		long key = OutboundQueue.sectionKey(frames.cx, frames.sy, frames.cz);
+		if (!hashes.containsKey(key)) return false;
+		long hash = hashes.remove(key);
+		if (hash != frames.contentHash(client)) {
+			changed++;
+			return false;
+		}
+		unchanged.add(frames.cx);
+		unchanged.add(frames.cz);
+		unchanged.add(frames.sy);
+		return true;
+	}
+
+	int unchangedCount() {
+		return unchanged.size() / 3;
+	}
+
+	int changedCount() {
+		return changed;
+	}
+
+	/** Manifest sections the stream never reached (outside the region, or empty now). */
+	int unmatchedCount() {
+		return hashes.size();
+	}
+
+	/** SECTIONS_UNCHANGED for every section {@link #holds} matched (possibly none). */
+	EncodedFrame unchangedFrame() {
+		return ProtocolEncoder.sectionsUnchanged(unchanged.elements(), unchangedCount());
+	}
+
+	private static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("varint too long");
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
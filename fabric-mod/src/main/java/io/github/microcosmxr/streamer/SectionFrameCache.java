@@ -0,0 +1,231 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoded sections kept across client joins, keyed by (dimension, cx, cz, sy) with sy the section index, as on the wire.
+ * A region stream takes a section from here instead of capturing it again, so a client joining a minute after another
+ * gets the same translated snapshot and the same encoded frames (see {@link SectionFrames}) for every unchanged section.
+ * <p>
+ * Every section that has been cached has a version: 0 until it changes, then a new value from a server-wide counter each
+ * time a block or light change invalidates it (even after its entry was evicted). A capture reads the version before it
+ * starts ({@link #version}) and is only stored if it is still the same ({@link #put}), so a change that lands in between
+ * (light invalidations come from the light engine's thread) never leaves a stale entry. Bounded by {@link StreamerConfig#SECTION_CACHE_ENTRIES}, least recently used first out. An entry whose
+ * section leaves every client's window is kept for {@link StreamerConfig#SECTION_CACHE_GRACE_MILLIS} more
+ * ({@link #retainWatched}, {@link #expire}), so a client joining after the last one left still finds it; the sections
+ * the cache holds are tracked by {@link WatchedSections} ({@link #sections}), so their changes keep invalidating them.
+ * <p>
+ * Thread-safe: lookups and block invalidations come from the game thread, light invalidations from the light engine.
+ */
+final class SectionFrameCache {
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private final Map<ServerLevel, Long2LongOpenHashMap> versions = new IdentityHashMap<>();
+	private long versionCounter;
+
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+	final AtomicLong evictions = new AtomicLong();
+	final AtomicLong invalidations = new AtomicLong();
+
+	static boolean enabled() {
+		return StreamerConfig.SECTION_CACHE_ENTRIES > 0;
+	}
+
+	/** Cached frames for the section, or null. */
+	synchronized SectionFrames get(ServerLevel level, int cx, int cz, int sy) {
+		Entry entry = entries.get(new Key(level, SectionPos.asLong(cx, sy, cz)));
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.frames;
+	}
+
+	/**
+	 * Cache frames built from a capture (game thread) that started at version; dropped if the section changed since, its
+	 * invalidation having come before the entry it should have removed.
+	 */
+	synchronized void put(ServerLevel level, SectionFrames frames, long version) {
+		if (!enabled()) return;
+		long section = SectionPos.asLong(frames.cx, frames.sy, frames.cz);
+		if (version(level, section) != version) return;
+		entries.put(new Key(level, section), new Entry(frames));
+		while (entries.size() > StreamerConfig.SECTION_CACHE_ENTRIES) {
+			var eldest = entries.entrySet().iterator();
+			eldest.next();
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Current version of a section (0 if it never changed while the server was running), read before capturing it for
+	 * {@link #put}; from now on changes to the section bump it (untracked sections stay at 0 and cost nothing).
+	 */
+	synchronized long version(ServerLevel level, int cx, int cz, int sy) {
+		if (!enabled()) return 0;
+		long section = SectionPos.asLong(cx, sy, cz);
+		versions.computeIfAbsent(level, l -> new Long2LongOpenHashMap()).putIfAbsent(section, 0);
+		return version(level, section);
+	}
+
+	/**
+	 * A block in the section changed: drop its entry and bump its version. With "surface" on, a block on a section face
+	 * does the same to the neighbour across it, whose visible-block mask may depend on it.
+	 */
+	void invalidateBlock(ServerLevel level, int x, int y, int z) {
+		int ly = y - level.dimensionType().minY();
+		int cx = x >> 4;
+		int sy = ly >> 4;
+		int cz = z >> 4;
+		invalidate(level, SectionPos.asLong(cx, sy, cz));
+		if (!StreamerConfig.SURFACE) return;
+		if ((ly & 15) == 0 && sy > 0) invalidate(level, SectionPos.asLong(cx, sy - 1, cz));
+		if ((ly & 15) == 15) invalidate(level, SectionPos.asLong(cx, sy + 1, cz));
+		if ((z & 15) == 0) invalidate(level, SectionPos.asLong(cx, sy, cz - 1));
+		if ((z & 15) == 15) invalidate(level, SectionPos.asLong(cx, sy, cz + 1));
+		if ((x & 15) == 0) invalidate(level, SectionPos.asLong(cx - 1, sy, cz));
+		if ((x & 15) == 15) invalidate(level, SectionPos.asLong(cx + 1, sy, cz));
+	}
+
+	/**
+	 * Light changed in a light section (world section coordinates, may lie one outside the build height): drop the
+	 * matching entry and bump its version.
+	 */
+	void invalidateLight(ServerLevel level, SectionPos pos) {
+		int sy = pos.y() - (level.dimensionType().minY() >> 4);
+		if (sy < 0 || sy >= level.getSectionsCount()) return;
+		invalidate(level, SectionPos.asLong(pos.x(), sy, pos.z()));
+	}
+
+	/**
+	 * Start the grace period of entries whose section no window holds any more (end it for those back in one), drop the
+	 * expired ones, and the versions of sections neither watched nor cached (game thread, after {@link WatchedSections}
+	 * was rebuilt with {@link #sections}).
+	 */
+	synchronized void retainWatched(long now) {
+		for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+			Key key = entry.getKey();
+			Entry cached = entry.getValue();
+			if (watched(key.level(), key.section())) {
+				cached.unwatched = false;
+			} else if (!cached.unwatched) {
+				cached.unwatched = true;
+				cached.unwatchedSince = now;
+			}
+		}
+		expire(now);
+		for (var levelVersions = versions.entrySet().iterator(); levelVersions.hasNext(); ) {
+			var entry = levelVersions.next();
+			ServerLevel level = entry.getKey();
+			for (LongIterator sections = entry.getValue().keySet().iterator(); sections.hasNext(); ) {
+				long section = sections.nextLong();
+				if (!watched(level, section) && !entries.containsKey(new Key(level, section))) sections.remove();
+			}
+			if (entry.getValue().isEmpty()) levelVersions.remove();
+		}
+	}
+
+	/**
+	 * Drop entries outside every window for longer than the grace period (game thread); returns whether any went, so
+	 * {@link WatchedSections} stops tracking them. Their versions stay until the next {@link #retainWatched}.
+	 */
+	synchronized boolean expire(long now) {
+		long grace = StreamerConfig.SECTION_CACHE_GRACE_MILLIS * 1_000_000L;
+		boolean expired = false;
+		for (var it = entries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (entry.unwatched && now - entry.unwatchedSince >= grace) {
+				it.remove();
+				evictions.incrementAndGet();
+				expired = true;
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Every cached section, as world section keys by level, for {@link WatchedSections#rebuild}; with "surface" also
+	 * its neighbours, whose face blocks change its visible-block mask (game thread).
+	 */
+	synchronized Map<ServerLevel, LongOpenHashSet> sections() {
+		Map<ServerLevel, LongOpenHashSet> byLevel = new IdentityHashMap<>();
+		for (Key key : entries.keySet()) {
+			LongOpenHashSet set = byLevel.computeIfAbsent(key.level(), l -> new LongOpenHashSet());
+			int x = SectionPos.x(key.section());
+			int y = (key.level().dimensionType().minY() >> 4) + SectionPos.y(key.section());
+			int z = SectionPos.z(key.section());
+			set.add(SectionPos.asLong(x, y, z));
+			if (!StreamerConfig.SURFACE) continue;
+			set.add(SectionPos.asLong(x, y - 1, z));
+			set.add(SectionPos.asLong(x, y + 1, z));
+			set.add(SectionPos.asLong(x, y, z - 1));
+			set.add(SectionPos.asLong(x, y, z + 1));
+			set.add(SectionPos.asLong(x - 1, y, z));
+			set.add(SectionPos.asLong(x + 1, y, z));
+		}
+		for (LongOpenHashSet set : byLevel.values()) {
+			set.trim();
+		}
+		return byLevel;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		versions.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/** One-line stats for logs. */
+	String describe() {
+		long h = hits.get();
+		long m = misses.get();
+		return String.format("%d entries, %d hits / %d misses (%.0f%% hit), %d evictions, %d invalidations", size(), h, m,
+			h + m > 0 ? h * 100.0 / (h + m) : 0.0, evictions.get(), invalidations.get());
+	}
+
+	private synchronized void invalidate(ServerLevel level, long section) {
+		Long2LongOpenHashMap levelVersions = versions.get(level);
+		if (levelVersions == null || !levelVersions.containsKey(section)) return;
+		levelVersions.put(section, ++versionCounter);
+		if (entries.remove(new Key(level, section)) != null) invalidations.incrementAndGet();
+	}
+
+	/** Whether a cache key (section index, not world section y) is in {@link WatchedSections}. */
+	private static boolean watched(ServerLevel level, long section) {
+		int minSection = level.dimensionType().minY() >> 4;
+		return WatchedSections.contains(level, SectionPos.of(SectionPos.x(section), minSection + SectionPos.y(section), SectionPos.z(section)));
+	}
+
+	private long version(ServerLevel level, long section) {
+		Long2LongOpenHashMap levelVersions = versions.get(level);
+		return levelVersions != null ? levelVersions.get(section) : 0;
+	}
+
+	private record Key(ServerLevel level, long section) {}
+
+	private static final class Entry {
+		final SectionFrames frames;
+		/** No window holds the section; since unwatchedSince (nanoTime). */
+		boolean unwatched;
+		long unwatchedSince;
+
+		Entry(SectionFrames frames) {
+			this.frames = frames;
+		}
+	}
+}
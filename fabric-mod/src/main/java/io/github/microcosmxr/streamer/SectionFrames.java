@@ -0,0 +1,120 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.ChunkAccess;
+
+import java.util.function.Supplier;
+
+/**
+ * One section snapshot going to several clients: translated once, and encoded once per wire format in use (protocol 1,
+ * compact, compact with numeric ids, either compact form with the content hash for "resume" clients), each on the first
+ * client lane that needs it. Clients of the same format share the frame. Far-field clients get SECTION_LOD frames
+ * instead, from one {@link SectionLod} pyramid, likewise encoded once per level and palette form. Frames made by
+ * {@link #capture} also carry the section's {@link SectionSurface}, computed once, for "surface" clients.
+ */
+final class SectionFrames {
+
+	static final int FORMAT_V1 = 0;
+	static final int FORMAT_COMPACT = 1;
+	static final int FORMAT_COMPACT_IDS = 2;
+	static final int FORMAT_COMPACT_HASH = 3;
+	static final int FORMAT_COMPACT_IDS_HASH = 4;
+
+	final int cx;
+	final int cz;
+	final int sy;
+	private final Supplier<ChunkSerializer.SectionSnapshot> snapshot;
+	/** Per format, then per compact format with the surface mask (format + 4). */
+	@SuppressWarnings("unchecked")
+	private final Supplier<EncodedFrame>[] frames = new Supplier[9];
+	/** Null unless captured with the neighbours' faces. */
+	private final Supplier<SectionSurface> surface;
+	private final Supplier<SectionLod> lod;
+	/** SECTION_LOD per (level - 1) * 2 + (numeric ids ? 1 : 0). */
+	@SuppressWarnings("unchecked")
+	private final Supplier<EncodedFrame>[] lodFrames = new Supplier[SectionLod.MAX_LEVEL * 2];
+
+	SectionFrames(int cx, int cz, int sy, Supplier<ChunkSerializer.SectionSnapshot> snapshot) {
+		this(cx, cz, sy, snapshot, null);
+	}
+
+	private SectionFrames(int cx, int cz, int sy, Supplier<ChunkSerializer.SectionSnapshot> snapshot,
+	                      Supplier<SectionSurface> surface) {
+		this.cx = cx;
+		this.cz = cz;
+		this.sy = sy;
+		this.snapshot = EncodedFrame.once(snapshot);
+		this.lod = EncodedFrame.once(() -> new SectionLod(this.snapshot.get()));
+		this.surface = surface != null ? EncodedFrame.once(surface) : null;
+	}
+
+	/**
+	 * Capture section sy of chunk now (game thread): the section, and with "surface" on which of its faces the neighbours
+	 * seal. Translation and the visibility pass happen on the first client lane that needs them.
+	 */
+	static SectionFrames capture(ServerLevel level, ChunkAccess chunk, int sy) {
+		ChunkSerializer.SectionCapture capture = ChunkSerializer.capture(level, chunk, sy);
+		RegistryAccess registryAccess = level.registryAccess();
+		Supplier<ChunkSerializer.SectionSnapshot> snapshot = () -> {
+			long start = System.nanoTime();
+			ChunkSerializer.SectionSnapshot snap = ChunkSerializer.translate(registryAccess, capture);
+			StreamerMetrics.serialized(capture.chunkX, sy, capture.chunkZ, start);
+			return snap;
+		};
+		if (!StreamerConfig.SURFACE) return new SectionFrames(capture.chunkX, capture.chunkZ, sy, snapshot, null);
+		int sealedFaces = SectionSurface.sealedFaces(level, chunk, sy);
+		return new SectionFrames(capture.chunkX, capture.chunkZ, sy, snapshot, () -> SectionSurface.compute(capture, sealedFaces));
+	}
+
+	/**
+	 * Hash of what the client is sent for this section (translates it if no client has yet): the content hash, mixed with
+	 * the surface for "surface" clients (see {@link SectionSurface#contentHash}). Call on an outbound lane.
+	 */
+	long contentHash(StreamerWebSocketHandler client) {
+		long hash = snapshot.get().contentHash();
+		return usesSurface(client) ? surface.get().contentHash(hash) : hash;
+	}
+
+	private boolean usesSurface(StreamerWebSocketHandler client) {
+		return surface != null && client.supports(ProtocolFeature.SURFACE) && client.sectionFormat() != FORMAT_V1;
+	}
+
+	/** Lazy frame in the client's current format. */
+	synchronized Supplier<EncodedFrame> forClient(StreamerWebSocketHandler client) {
+		int format = client.sectionFormat();
+		boolean withSurface = usesSurface(client);
+		int slot = withSurface ? format + 4 : format;
+		Supplier<EncodedFrame> frame = frames[slot];
+		if (frame == null) {
+			IdTable ids = format == FORMAT_COMPACT_IDS || format == FORMAT_COMPACT_IDS_HASH ? client.idTable() : null;
+			boolean hash = format == FORMAT_COMPACT_HASH || format == FORMAT_COMPACT_IDS_HASH;
+			frame = EncodedFrame.once(() -> {
+				ChunkSerializer.SectionSnapshot snap = snapshot.get();
+				SectionSurface sectionSurface = withSurface ? surface.get() : null;
+				long start = System.nanoTime();
+				return StreamerMetrics.encoded(format == FORMAT_V1
+					? ProtocolEncoder.chunkSectionSnapshot(cx, cz, sy, snap)
+					: ProtocolEncoder.chunkSectionCompact(cx, cz, sy, snap, ids, hash, sectionSurface), cx, sy, cz, start);
+			});
+			frames[slot] = frame;
+		}
+		return frame;
+	}
+
+	/** Lazy SECTION_LOD at level (1 to {@link SectionLod#MAX_LEVEL}) in the client's palette form. */
+	synchronized Supplier<EncodedFrame> lodForClient(StreamerWebSocketHandler client, int level) {
+		IdTable ids = client.idTable();
+		int slot = (level - 1) * 2 + (ids != null ? 1 : 0);
+		Supplier<EncodedFrame> frame = lodFrames[slot];
+		if (frame == null) {
+			frame = EncodedFrame.once(() -> {
+				SectionLod pyramid = lod.get();
+				long start = System.nanoTime();
+				return StreamerMetrics.encoded(ProtocolEncoder.sectionLod(cx, cz, sy, level, pyramid, ids), cx, sy, cz, start);
+			});
+			lodFrames[slot] = frame;
+		}
+		return frame;
+	}
+}
@@ -0,0 +1,93 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.List;
+
+/**
+ * Downsampled copies of one section for far-field detail (feature "lod"), built from its translated snapshot as a mip
+ * pyramid: level 1 has 8³ cells of 2³ blocks, level 2 4³ cells, level 3 2³ cells, each level from the one below. A cell
+ * is solid when at least half of its eight children are; it then takes the most common block among its solid children,
+ * ties going to the upper children (the ones a viewer above the tabletop sees). Cells are indexed (y * n + z) * n + x
+ * like blocks in a section; values are indices into the snapshot's palette, or {@link #AIR}.
+ * <p>
+ * Levels are built on first use and kept; each costs one pass over the level below (4096 reads for level 1).
+ */
+final class SectionLod {
+
+	static final int MAX_LEVEL = 3;
+	static final short AIR = -1;
+
+	final List<String> palette;
+	private final short[][] levels = new short[MAX_LEVEL + 1][];
+
+	SectionLod(ChunkSerializer.SectionSnapshot snap) {
+		this.palette = snap.palette;
+		boolean[] air = new boolean[palette.size()];
+		for (int i = 0; i < air.length; i++) {
+			air[i] = isAir(palette.get(i));
+		}
+		short[] blocks = new short[4096];
+		for (int i = 0; i < 4096; i++) {
+			short index = snap.indices[i];
+			blocks[i] = air[index] ? AIR : index;
+		}
+		levels[0] = blocks;
+	}
+
+	/** Cells per side at level (16 at level 0). */
+	static int size(int level) {
+		return 16 >> level;
+	}
+
+	/** Cells of level 1 to {@link #MAX_LEVEL}; do not modify. */
+	synchronized short[] cells(int level) {
+		for (int l = 1; l <= level; l++) {
+			if (levels[l] == null) levels[l] = downsample(levels[l - 1], size(l));
+		}
+		return levels[level];
+	}
+
+	private static short[] downsample(short[] below, int n) {
+		int m = n * 2;
+		short[] cells = new short[n * n * n];
+		short[] children = new short[8];
+		for (int y = 0; y < n; y++) {
+			for (int z = 0; z < n; z++) {
+				for (int x = 0; x < n; x++) {
+					// Upper layer first, so ties go up
+					int solid = 0;
+					for (int dy = 1; dy >= 0; dy--) {
+						for (int dz = 0; dz < 2; dz++) {
+							for (int dx = 0; dx < 2; dx++) {
+								short child = below[((y * 2 + dy) * m + z * 2 + dz) * m + x * 2 + dx];
+								if (child != AIR) children[solid++] = child;
+							}
+						}
+					}
+					cells[(y * n + z) * n + x] = solid >= 4 ? mostCommon(children, solid) : AIR;
+				}
+			}
+		}
+		return cells;
+	}
+
+	/** Most common of values[0..count), the earliest on ties. */
+	private static short mostCommon(short[] values, int count) {
+		short best = values[0];
+		int bestCount = 0;
+		for (int i = 0; i < count; i++) {
+			int c = 0;
+			for (int j = i; j < count; j++) {
+				if (values[j] == values[i]) c++;
+			}
+			if (c > bestCount) {
+				best = values[i];
+				bestCount = c;
+			}
+		}
+		return best;
+	}
+
+	static boolean isAir(String blockId) {
+		return blockId.equals("minecraft:air") || blockId.equals("minecraft:cave_air") || blockId.equals("minecraft:void_air");
+	}
+}
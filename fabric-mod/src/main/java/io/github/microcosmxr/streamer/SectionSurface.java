@@ -0,0 +1,162 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+/**
+ * Which blocks of a section can be seen (feature "surface"), for clients that only mesh visible cells. Opaque means
+ * {@link BlockState#isSolidRender()}, a full opaque cube, as in the client's own VisGraph; every other state (air, water,
+ * glass, leaves, plants, and partial shapes such as slabs, stairs, snow layers and carpets) is see-through.
+ * <p>
+ * Two passes, like the client's own visibility graph but on the server:
+ * <ul>
+ *   <li>Game thread, from palettes only ({@link #sealedFaces}, {@link #isHidden}): a neighbour section whose palette has
+ *   no see-through state seals the face it shares with this one. A section of only opaque states whose six faces are
+ *   all sealed cannot be seen at all and is sent as SECTION_HIDDEN.</li>
+ *   <li>Any thread, from the capture ({@link #compute}): a flood fill through see-through cells from the faces that are
+ *   not sealed. A block is visible if the fill reaches it, reaches one of its neighbours, or it lies on an unsealed
+ *   face. Pockets the fill never reaches (caves enclosed within the section) are left out along with their walls.</li>
+ * </ul>
+ * Faces are numbered like {@link net.minecraft.core.Direction#get3DDataValue()}: 0 down, 1 up, 2 north (-z), 3 south (+z),
+ * 4 west (-x), 5 east (+x).
+ */
+final class SectionSurface {
+
+	static final int ALL_FACES = 0x3F;
+	private static final int AIR = 0;
+	private static final int SEE_THROUGH = 1;
+	private static final int OPAQUE = 2;
+
+	/** Faces whose neighbour holds only opaque states. */
+	final int sealedFaces;
+	/** Visible-block bitmask (bit i of byte i &gt;&gt; 3 for block i), or null when every non-air block is visible. */
+	final byte[] exposed;
+
+	private SectionSurface(int sealedFaces, byte[] exposed) {
+		this.sealedFaces = sealedFaces;
+		this.exposed = exposed;
+	}
+
+	/**
+	 * Hash sent with this surface in place of the section's content hash: the mask depends on the neighbours too, so a
+	 * resumed section is only skipped if both are unchanged.
+	 */
+	long contentHash(long content) {
+		return exposed == null ? content : content ^ (sealedFaces + 1) * 0x9E3779B97F4A7C15L;
+	}
+
+	/** Whether the section holds only opaque states (game thread). */
+	static boolean isOpaque(LevelChunkSection section) {
+		return section != null && !section.hasOnlyAir() && !section.maybeHas(state -> !isOpaque(state));
+	}
+
+	/** Whether state hides everything behind it on all six faces. */
+	static boolean isOpaque(BlockState state) {
+		return state.isSolidRender();
+	}
+
+	/**
+	 * Faces of section sy of chunk sealed by their neighbour (game thread). Below the level counts as sealed, above it and
+	 * chunks that are not loaded as open.
+	 */
+	static int sealedFaces(ServerLevel level, ChunkAccess chunk, int sy) {
+		int cx = chunk.getPos().x;
+		int cz = chunk.getPos().z;
+		int sealed = 0;
+		if (sy == 0 || isOpaque(chunk.getSection(sy - 1))) sealed |= 1;
+		if (sy + 1 < level.getSectionsCount() && isOpaque(chunk.getSection(sy + 1))) sealed |= 2;
+		if (isOpaqueAt(level, cx, cz - 1, sy)) sealed |= 4;
+		if (isOpaqueAt(level, cx, cz + 1, sy)) sealed |= 8;
+		if (isOpaqueAt(level, cx - 1, cz, sy)) sealed |= 16;
+		if (isOpaqueAt(level, cx + 1, cz, sy)) sealed |= 32;
+		return sealed;
+	}
+
+	/** Whether section sy of chunk cannot be seen from anywhere (game thread). */
+	static boolean isHidden(ServerLevel level, ChunkAccess chunk, int sy) {
+		return isOpaque(chunk.getSection(sy)) && sealedFaces(level, chunk, sy) == ALL_FACES;
+	}
+
+	private static boolean isOpaqueAt(ServerLevel level, int cx, int cz, int sy) {
+		ChunkAccess chunk = level.getChunkSource().getChunkNow(cx, cz);
+		return chunk != null && isOpaque(chunk.getSection(sy));
+	}
+
+	/** Visible blocks of a capture, given its {@link #sealedFaces} (any thread). */
+	static SectionSurface compute(ChunkSerializer.SectionCapture capture, int sealedFaces) {
+		if (capture.isEmpty()) return new SectionSurface(sealedFaces, null);
+		PalettedContainer<BlockState> states = capture.states;
+		byte[] kinds = new byte[4096];
+		for (int y = 0; y < 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					BlockState state = states.get(x, y, z);
+					kinds[(y * 16 + z) * 16 + x] = (byte) (isOpaque(state) ? OPAQUE : state.isAir() ? AIR : SEE_THROUGH);
+				}
+			}
+		}
+
+		// Flood fill through see-through cells from the open faces
+		boolean[] reached = new boolean[4096];
+		int[] queue = new int[4096];
+		int tail = 0;
+		for (int i = 0; i < 4096; i++) {
+			if (kinds[i] != OPAQUE && openFaces(i, sealedFaces) != 0) {
+				reached[i] = true;
+				queue[tail++] = i;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int i = queue[head];
+			int x = i & 15;
+			int z = (i >> 4) & 15;
+			int y = i >> 8;
+			if (y > 0) tail = visit(kinds, reached, queue, tail, i - 256);
+			if (y < 15) tail = visit(kinds, reached, queue, tail, i + 256);
+			if (z > 0) tail = visit(kinds, reached, queue, tail, i - 16);
+			if (z < 15) tail = visit(kinds, reached, queue, tail, i + 16);
+			if (x > 0) tail = visit(kinds, reached, queue, tail, i - 1);
+			if (x < 15) tail = visit(kinds, reached, queue, tail, i + 1);
+		}
+
+		byte[] exposed = new byte[512];
+		int blocks = 0;
+		int visible = 0;
+		for (int i = 0; i < 4096; i++) {
+			if (kinds[i] == AIR) continue;
+			blocks++;
+			int x = i & 15;
+			int z = (i >> 4) & 15;
+			int y = i >> 8;
+			boolean seen = reached[i] || openFaces(i, sealedFaces) != 0
+				|| y > 0 && reached[i - 256] || y < 15 && reached[i + 256]
+				|| z > 0 && reached[i - 16] || z < 15 && reached[i + 16]
+				|| x > 0 && reached[i - 1] || x < 15 && reached[i + 1];
+			if (seen) {
+				exposed[i >> 3] |= (byte) (1 << (i & 7));
+				visible++;
+			}
+		}
+		return new SectionSurface(sealedFaces, visible == blocks ? null : exposed);
+	}
+
+	/** Faces of the section that block i lies on and that are not sealed. */
+	private static int openFaces(int i, int sealedFaces) {
+		int x = i & 15;
+		int z = (i >> 4) & 15;
+		int y = i >> 8;
+		int faces = (y == 0 ? 1 : 0) | (y == 15 ? 2 : 0) | (z == 0 ? 4 : 0) | (z == 15 ? 8 : 0) | (x == 0 ? 16 : 0)
+			| (x == 15 ? 32 : 0);
+		return faces & ~sealedFaces;
+	}
+
+	private static int visit(byte[] kinds, boolean[] reached, int[] queue, int tail, int i) {
+		if (reached[i] || kinds[i] == OPAQUE) return tail;
+		reached[i] = true;
+		queue[tail++] = i;
+		return tail;
+	}
+}
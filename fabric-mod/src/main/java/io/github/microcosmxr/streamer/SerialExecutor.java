@@ -0,0 +1,59 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared executor. Each streamer client owns one, so its frames
+ * leave in the order the game thread produced them (a BLOCK_DELTA never overtakes the snapshot it patches) while
+ * different clients encode in parallel. Drains at most {@link #BATCH} tasks before yielding the worker to other lanes.
+ */
+final class SerialExecutor implements Executor {
+
+	private static final int BATCH = 64;
+
+	private final Executor executor;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+
+	private void schedule() {
+		if (!scheduled.compareAndSet(false, true)) return;
+		try {
+			executor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			// Pool shut down (server stopping): drop what is queued
+			tasks.clear();
+			scheduled.set(false);
+		}
+	}
+
+	private void drain() {
+		try {
+			for (int i = 0; i < BATCH; i++) {
+				Runnable task = tasks.poll();
+				if (task == null) break;
+				try {
+					task.run();
+				} catch (Exception e) {
+					MicrocosmStreamerMod.LOGGER.warn("Streamer outbound task failed", e);
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			if (!tasks.isEmpty()) schedule();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A recorded streamer session (written by {@link SessionRecorder}, served by {@link SessionReplay}): everything one
+ * connection was sent, in order, with the tick and time it went out. Append-only, big-endian:
+ * <ul>
+ *   <li>Header, {@link #HEADER_BYTES}: int magic "MCSR", int version, long start (epoch millis), long length (end of the
+ *   last complete record, updated at every keyframe and on close), int keyframe interval in ticks, int reserved.</li>
+ *   <li>Records: int bodyLength, byte kind, int tick, int millis since start, long section key (as in
+ *   {@link OutboundQueue#sectionKey}; {@link #NO_SECTION} unless a section or delta), then the body: the message exactly
+ *   as the client received it (text as UTF-8). Kind 0 (unwritten file space) ends the log.</li>
+ *   <li>Every keyframe interval, a {@link #KIND_KEYFRAME} record whose body is the varint offset of the first record
+ *   it does not cover (records from there on, up to the keyframe itself, came in while it was built; a seek replays
+ *   them), varint count, then the offsets of the records that rebuild what the client held before that offset (see
+ *   {@link SessionState}), first one as a varint, the rest as varint differences to the previous one (64-bit, so a
+ *   negative difference wraps).</li>
+ * </ul>
+ * Opened read-only and mapped whole; the keyframe index is built by hopping over the record headers.
+ */
+final class SessionLog {
+
+	static final int MAGIC = 0x4D435352;
+	static final int VERSION = 2;
+	static final int HEADER_BYTES = 32;
+	static final int LENGTH_OFFSET = 16;
+	static final int RECORD_HEADER_BYTES = 21;
+	static final long NO_SECTION = Long.MIN_VALUE;
+	static final String EXTENSION = ".mcsr";
+
+	/** Server → client text (HELLO, SET_ORIGIN). */
+	static final byte KIND_TEXT = 1;
+	/** Binary frame that replaces a section (snapshot, LOD, hidden). */
+	static final byte KIND_SECTION = 2;
+	/** Binary frame of changes to a section (delta, batch). */
+	static final byte KIND_DELTA = 3;
+	/** Any other binary frame. */
+	static final byte KIND_FRAME = 4;
+	/** Client → server text (its HELLO reply, VIEW), for reference; never replayed. */
+	static final byte KIND_CLIENT_TEXT = 5;
+	static final byte KIND_KEYFRAME = 6;
+
+	private final ByteBuffer data;
+	final long startMillis;
+	final int keyframeTicks;
+	private final LongArrayList keyframeOffsets = new LongArrayList();
+	private final IntArrayList keyframeTickList = new IntArrayList();
+	private int records;
+	private int lastTick;
+	private int lastMillis;
+
+	private SessionLog(ByteBuffer data) throws IOException {
+		this.data = data;
+		if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC) throw new IOException("Not a streamer session recording");
+		if (data.getInt(4) != VERSION) throw new IOException("Unsupported recording version " + data.getInt(4));
+		startMillis = data.getLong(8);
+		keyframeTicks = data.getInt(20);
+		// A recorder that did not close cleanly leaves length at its last keyframe; complete records after it still count
+		data.limit((int) index(data.capacity()));
+	}
+
+	/** Map the recording at path. */
+	static SessionLog open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The recorder stops before 2 GiB; only premapped, unwritten space lies beyond
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			return new SessionLog(data);
+		}
+	}
+
+	/** Scan the records (past the recorded length, up to capacity, if they are complete); returns the end offset. */
+	private long index(int capacity) {
+		long offset = HEADER_BYTES;
+		while (offset + RECORD_HEADER_BYTES <= capacity) {
+			int length = data.getInt((int) offset);
+			byte kind = data.get((int) offset + 4);
+			if (kind < KIND_TEXT || kind > KIND_KEYFRAME || length < 0 || offset + RECORD_HEADER_BYTES + length > capacity) break;
+			int tick = data.getInt((int) offset + 5);
+			if (kind == KIND_KEYFRAME) {
+				keyframeOffsets.add(offset);
+				keyframeTickList.add(tick);
+			}
+			records++;
+			lastTick = tick;
+			lastMillis = data.getInt((int) offset + 9);
+			offset += RECORD_HEADER_BYTES + length;
+		}
+		return offset;
+	}
+
+	/** Offset of the first record. */
+	long first() {
+		return HEADER_BYTES;
+	}
+
+	/** Offset just past the last record. */
+	long end() {
+		return data.limit();
+	}
+
+	int records() {
+		return records;
+	}
+
+	int lastTick() {
+		return lastTick;
+	}
+
+	int lastMillis() {
+		return lastMillis;
+	}
+
+	int keyframes() {
+		return keyframeOffsets.size();
+	}
+
+	/** The record at offset (which must be a record start before {@link #end()}). */
+	Record read(long offset) {
+		int at = (int) offset;
+		int length = data.getInt(at);
+		ByteBuffer body = data.slice(at + RECORD_HEADER_BYTES, length).asReadOnlyBuffer();
+		return new Record(offset, data.get(at + 4), data.getInt(at + 5), data.getInt(at + 9), data.getLong(at + 13), body);
+	}
+
+	/** Offset of the last keyframe at or before tick, or -1 if there is none. */
+	long keyframeAtOrBefore(int tick) {
+		int lo = 0;
+		int hi = keyframeTickList.size() - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keyframeTickList.getInt(mid) <= tick) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found < 0 ? -1 : keyframeOffsets.getLong(found);
+	}
+
+	/** Offset of the first record a keyframe body does not cover, where a seek carries on from it. */
+	static long keyframeResume(ByteBuffer body) {
+		return readVarLong(body.duplicate());
+	}
+
+	/** Record offsets listed in a keyframe body. */
+	static long[] keyframeOffsets(ByteBuffer body) {
+		ByteBuffer in = body.duplicate();
+		readVarLong(in);
+		long[] offsets = new long[readVarInt(in)];
+		long offset = 0;
+		for (int i = 0; i < offsets.length; i++) {
+			offset += readVarLong(in);
+			offsets[i] = offset;
+		}
+		return offsets;
+	}
+
+	static int readVarInt(ByteBuffer in) {
+		return (int) readVarLong(in);
+	}
+
+	static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("varint too long");
+	}
+
+	static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/** One record; body is a read-only view into the mapped file. */
+	record Record(long offset, byte kind, int tick, int millis, long sectionKey, ByteBuffer body) {
+		long next() {
+			return offset + RECORD_HEADER_BYTES + body.capacity();
+		}
+
+		boolean isText() {
+			return kind == KIND_TEXT || kind == KIND_CLIENT_TEXT;
+		}
+
+		String text() {
+			return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package io.github.microcosmxr.streamer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tees everything one connection is sent into a {@link SessionLog} file, in the order it goes out (called from its
+ * {@link OutboundQueue} as frames are handed to the socket) with the server tick and time.
+ * <p>
+ * Writes are copies into a {@link MappedByteBuffer} segment of the file; the OS writes the pages back. A background
+ * thread maps the next segment before the current one fills, so a caller on the game thread or a client lane never
+ * waits for the file to grow, and every keyframe interval it works out the client's {@link SessionState} from the records
+ * since the last keyframe and appends a keyframe. It also flushes and closes the file once the recording is closed, so
+ * {@link #close()} never waits on disk either. Recording stops (with a warning) before the file reaches 2 GiB.
+ * <p>
+ * Thread-safe: records come from the client's lane and the game thread, ticks from the game thread.
+ */
+final class SessionRecorder implements AutoCloseable {
+
+	private static final long SEGMENT_BYTES = 16L << 20;
+	/** Below 2 GiB with the current and the premapped segment, so {@link SessionLog} can map the whole file. */
+	private static final long MAX_BYTES = Integer.MAX_VALUE - 2 * SEGMENT_BYTES;
+
+	private static final int PENDING_WAKE = 4096;
+
+	final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final long startNanos = System.nanoTime();
+	private final Thread keeper;
+	private final ByteBuffer recordHeader = ByteBuffer.allocate(SessionLog.RECORD_HEADER_BYTES);
+
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	/** Mapped by the keeper thread ahead of need. */
+	private volatile MappedByteBuffer nextSegment;
+	/** Offset of the next record. */
+	private long position = SessionLog.HEADER_BYTES;
+	/** Records since the keeper last applied them to its state. */
+	private List<Pending> pending = new ArrayList<>();
+	private final SessionState state = new SessionState();
+	private volatile int tick;
+	private volatile boolean keyframeDue;
+	private volatile boolean closed;
+	private boolean full;
+	private long records;
+
+	SessionRecorder(Path path) throws IOException {
+		this.path = path;
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, SessionLog.HEADER_BYTES);
+		header.putInt(0, SessionLog.MAGIC);
+		header.putInt(4, SessionLog.VERSION);
+		header.putLong(8, System.currentTimeMillis());
+		header.putLong(SessionLog.LENGTH_OFFSET, position);
+		header.putInt(20, StreamerConfig.RECORD_KEYFRAME_TICKS);
+		segment.position(SessionLog.HEADER_BYTES);
+		keeper = new Thread(this::keep, "MicrocosmStreamer-Recorder");
+		keeper.setDaemon(true);
+		keeper.start();
+	}
+
+	/** A text message sent to the client. */
+	void recordText(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		append(SessionLog.KIND_TEXT, SessionLog.NO_SECTION, ByteBuffer.wrap(bytes));
+	}
+
+	/** A text message from the client (kept for reference, not replayed). */
+	void recordClientText(String text) {
+		append(SessionLog.KIND_CLIENT_TEXT, SessionLog.NO_SECTION, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/** A binary frame sent to the client; kind is one of the section kinds in {@link SessionLog}. */
+	void recordFrame(byte kind, long sectionKey, EncodedFrame frame) {
+		append(kind, sectionKey, frame.payload());
+	}
+
+	/** End of a server tick (game thread). */
+	void tick() {
+		int t = ++tick;
+		if (t % StreamerConfig.RECORD_KEYFRAME_TICKS == 0) {
+			keyframeDue = true;
+			LockSupport.unpark(keeper);
+		}
+	}
+
+	int ticks() {
+		return tick;
+	}
+
+	synchronized long bytes() {
+		return position;
+	}
+
+	private synchronized void append(byte kind, long sectionKey, ByteBuffer body) {
+		if (closed || full) return;
+		int length = body.remaining();
+		if (position + SessionLog.RECORD_HEADER_BYTES + length > MAX_BYTES) {
+			full = true;
+			MicrocosmStreamerMod.LOGGER.warn("Session recording {} reached {} bytes; recording stopped", path, position);
+			return;
+		}
+		long offset = position;
+		recordHeader.clear();
+		recordHeader.putInt(length).put(kind).putInt(tick).putInt((int) ((System.nanoTime() - startNanos) / 1_000_000))
+			.putLong(sectionKey).flip();
+		write(recordHeader);
+		ByteBuffer payload = body.duplicate();
+		write(payload);
+		if (kind != SessionLog.KIND_CLIENT_TEXT && kind != SessionLog.KIND_KEYFRAME) {
+			pending.add(new Pending(offset, kind, sectionKey, body));
+			// Let the keeper catch up before a region's worth of frames is held here
+			if (pending.size() == PENDING_WAKE) LockSupport.unpark(keeper);
+		}
+		records++;
+	}
+
+	/** Copy src into the mapped file at position, moving on to the next segment as one fills. */
+	private void write(ByteBuffer src) {
+		while (src.hasRemaining()) {
+			if (!segment.hasRemaining()) nextSegment();
+			int n = Math.min(src.remaining(), segment.remaining());
+			int limit = src.limit();
+			src.limit(src.position() + n);
+			segment.put(src);
+			src.limit(limit);
+			position += n;
+		}
+	}
+
+	private void nextSegment() {
+		MappedByteBuffer next = nextSegment;
+		nextSegment = null;
+		segmentStart += SEGMENT_BYTES;
+		if (next == null) {
+			// The keeper has not caught up (a very large burst): map here
+			try {
+				next = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_BYTES);
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot extend session recording " + path, e);
+			}
+		}
+		segment = next;
+		LockSupport.unpark(keeper);
+	}
+
+	/** Keeper thread: map the next segment ahead of need, write keyframes when due; finish the file once closed. */
+	private void keep() {
+		boolean failed = false;
+		while (!closed) {
+			if (failed) {
+				// Appends go on (mapping their own segments) until the recording is closed
+				LockSupport.park(this);
+				continue;
+			}
+			try {
+				if (nextSegment == null) {
+					long start;
+					synchronized (this) {
+						start = segmentStart + SEGMENT_BYTES;
+					}
+					MappedByteBuffer next = channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_BYTES);
+					synchronized (this) {
+						if (segmentStart + SEGMENT_BYTES == start && nextSegment == null) nextSegment = next;
+					}
+				}
+				if (keyframeDue) {
+					keyframeDue = false;
+					writeKeyframe();
+				} else {
+					applyPending();
+				}
+			} catch (IOException | RuntimeException e) {
+				if (!closed) MicrocosmStreamerMod.LOGGER.warn("Session recorder {} failed", path, e);
+				failed = true;
+				continue;
+			}
+			LockSupport.parkNanos(this, 1_000_000_000L);
+		}
+		finish();
+	}
+
+	/**
+	 * Bring the state up to date and append it as a keyframe, then publish the length in the header. The body is built
+	 * outside the lock; the records appended meanwhile lie between the offset it covers up to and the keyframe.
+	 */
+	private void writeKeyframe() {
+		applyPending();
+		long resume;
+		List<Pending> batch;
+		synchronized (this) {
+			if (closed || full) return;
+			resume = position;
+			batch = takePending();
+		}
+		apply(batch);
+		byte[] body = state.keyframeBody(resume);
+		synchronized (this) {
+			if (closed || full) return;
+			append(SessionLog.KIND_KEYFRAME, SessionLog.NO_SECTION, ByteBuffer.wrap(body));
+			header.putLong(SessionLog.LENGTH_OFFSET, position);
+		}
+	}
+
+	private void applyPending() {
+		List<Pending> batch;
+		synchronized (this) {
+			batch = takePending();
+		}
+		apply(batch);
+	}
+
+	/** The records not applied yet, in order (under the lock). */
+	private List<Pending> takePending() {
+		List<Pending> batch = pending;
+		pending = new ArrayList<>(Math.max(16, batch.size()));
+		return batch;
+	}
+
+	private void apply(List<Pending> batch) {
+		for (Pending record : batch) {
+			state.apply(record.offset, record.kind, record.sectionKey, record.body);
+		}
+	}
+
+	/** Stop recording: nothing more is written, and the keeper thread finishes the file. */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			header.putLong(SessionLog.LENGTH_OFFSET, position);
+		}
+		LockSupport.unpark(keeper);
+	}
+
+	/** Keeper thread, once closed: pages flushed, file closed. */
+	private void finish() {
+		MappedByteBuffer last;
+		long count;
+		long length;
+		synchronized (this) {
+			last = segment;
+			count = records;
+			length = position;
+		}
+		try {
+			last.force();
+			header.force();
+			channel.close();
+		} catch (IOException | RuntimeException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Failed to close session recording {}", path, e);
+		}
+		MicrocosmStreamerMod.LOGGER.info("Session recording {} closed: {} records, {} bytes, {} ticks", path, count, length, tick);
+	}
+
+	/** A record the keeper has not applied to its state yet; body is the frame's own view, not the file. */
+	private record Pending(long offset, byte kind, long sectionKey, ByteBuffer body) {}
+}
@@ -0,0 +1,339 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a recorded session ({@link SessionLog}, see /mr_record) to headsets without a Minecraft server: a WebSocket
+ * server on the streamer's port that sends every connection the recording as it was sent, at its original pace, N times
+ * faster, or from a given tick. Seeks start from the last keyframe before the target, send what the client held at the
+ * target (with a SECTIONS_UNLOAD and ENTITY_DESPAWN for what it holds and should not), then play on from there.
+ * <p>
+ * Frames go out byte for byte as recorded, so a headset should ask for the same features the recorded client did (the
+ * difference is logged when it replies to HELLO). VIEW is ignored. A connection controls its own playback with
+ * "REPLAY [speed=&lt;x&gt;] [seek=&lt;tick&gt;]" (speed=0 pauses); the same tokens on standard input apply to every
+ * connection.
+ * <p>
+ * Run: ./gradlew replay -Preplay="run/streamer-recordings/demo.mcsr --speed 2"
+ * <pre>
+ *   --port &lt;port&gt;      (default 25566)
+ *   --speed &lt;x&gt;        playback speed (default 1)
+ *   --start-tick &lt;t&gt;   tick new connections start at (default 0)
+ *   --loop               start over at the end
+ * </pre>
+ */
+public final class SessionReplay extends WebSocketServer {
+
+	/** Frames on a connection's write queue above which a seek waits for it to drain. */
+	private static final int MAX_QUEUED_FRAMES = 256;
+
+	private final SessionLog log;
+	private final double speed;
+	private final int startTick;
+	private final boolean loop;
+	/** Protocol version and features the recorded client asked for in its HELLO reply. */
+	private final int recordedProtocol;
+	private final Set<ProtocolFeature> recordedFeatures;
+	private final Map<WebSocket, Playback> playbacks = new ConcurrentHashMap<>();
+
+	SessionReplay(SessionLog log, int port, double speed, int startTick, boolean loop) {
+		super(new InetSocketAddress(port));
+		this.log = log;
+		this.speed = speed;
+		this.startTick = startTick;
+		this.loop = loop;
+		String[] hello = recordedHello(log);
+		int protocol = ProtocolEncoder.BASE_PROTOCOL_VERSION;
+		if (hello != null) {
+			try {
+				protocol = Integer.parseInt(hello[1]);
+			} catch (NumberFormatException e) {
+				// Protocol 1, as the server would have used
+			}
+		}
+		recordedProtocol = protocol;
+		recordedFeatures = hello != null ? ProtocolFeature.parse(hello, 2) : EnumSet.noneOf(ProtocolFeature.class);
+		setReuseAddr(true);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: SessionReplay <recording.mcsr> [--port 25566] [--speed 1] [--start-tick 0] [--loop]");
+			System.exit(2);
+		}
+		int port = 25566;
+		double speed = 1;
+		int startTick = 0;
+		boolean loop = false;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port" -> port = Integer.parseInt(args[++i]);
+				case "--speed" -> speed = Double.parseDouble(args[++i]);
+				case "--start-tick" -> startTick = Integer.parseInt(args[++i]);
+				case "--loop" -> loop = true;
+				default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		SessionLog log = SessionLog.open(Path.of(args[0]));
+		SessionReplay replay = new SessionReplay(log, port, speed, startTick, loop);
+		MicrocosmStreamerMod.LOGGER.info("Replaying {}: {} records over {} ticks ({} s), {} keyframes; protocol {} features {}",
+			args[0], log.records(), log.lastTick(), log.lastMillis() / 1000, log.keyframes(), replay.recordedProtocol,
+			replay.recordedFeatures);
+		replay.start();
+		// Console: the same tokens as a client's REPLAY message, for every connection
+		BufferedReader console = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = console.readLine()) != null) {
+			String[] parts = line.trim().split("\\s+");
+			for (Playback playback : replay.playbacks.values()) {
+				playback.control(parts);
+			}
+		}
+		// No console (e.g. run in the background): serve until killed
+		Thread.currentThread().join();
+	}
+
+	/** Tokens of the recorded client's HELLO reply, or null if it never sent one. */
+	private static String[] recordedHello(SessionLog log) {
+		for (long offset = log.first(); offset < log.end(); ) {
+			SessionLog.Record record = log.read(offset);
+			if (record.kind() == SessionLog.KIND_CLIENT_TEXT && record.text().startsWith("HELLO")) {
+				return record.text().trim().split("\\s+");
+			}
+			// The reply arrives within the first second or not at all
+			if (record.millis() > StreamerConfig.HELLO_TIMEOUT_MILLIS + 1000) return null;
+			offset = record.next();
+		}
+		return null;
+	}
+
+	@Override
+	public void onOpen(WebSocket conn, ClientHandshake handshake) {
+		Playback playback = new Playback(conn);
+		playbacks.put(conn, playback);
+		Thread.ofVirtual().name("MicrocosmStreamer-Replay-" + conn.getRemoteSocketAddress()).start(playback::run);
+		MicrocosmStreamerMod.LOGGER.info("Replay client connected: {}", conn.getRemoteSocketAddress());
+	}
+
+	@Override
+	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+		playbacks.remove(conn);
+		MicrocosmStreamerMod.LOGGER.info("Replay client disconnected: {}", conn.getRemoteSocketAddress());
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, String message) {
+		String[] parts = message.trim().split("\\s+");
+		Playback playback = playbacks.get(conn);
+		if (parts[0].equals("REPLAY") && playback != null) {
+			playback.control(parts);
+		} else if (parts[0].equals("HELLO") && parts.length >= 2) {
+			Set<ProtocolFeature> missing = EnumSet.copyOf(recordedFeatures);
+			missing.removeAll(ProtocolFeature.parse(parts, 2));
+			if (!parts[1].equals(String.valueOf(recordedProtocol)) || !missing.isEmpty()) {
+				MicrocosmStreamerMod.LOGGER.warn("Replay client {} asked for protocol {}, features {}; the recording has protocol {}, features {}",
+					conn.getRemoteSocketAddress(), parts[1], ProtocolFeature.parse(parts, 2), recordedProtocol, recordedFeatures);
+			}
+		} else if (parts[0].equals("VIEW")) {
+			MicrocosmStreamerMod.LOGGER.info("Ignoring VIEW from replay client: the recording has one view");
+		}
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, ByteBuffer message) {
+		// RESUME_MANIFEST: the recording is sent in full regardless
+	}
+
+	@Override
+	public void onError(WebSocket conn, Exception ex) {
+		MicrocosmStreamerMod.LOGGER.warn("Replay WebSocket error", ex);
+	}
+
+	@Override
+	public void onStart() {
+		MicrocosmStreamerMod.LOGGER.info("Session replay listening on port {}", getPort());
+	}
+
+	/** One connection's position in the recording, on its own virtual thread. */
+	private final class Playback {
+
+		private final WebSocket conn;
+		/** What this client holds, for seeks. */
+		private SessionState held = new SessionState();
+		private long position = log.first();
+		private boolean helloSent;
+		private volatile double speed = SessionReplay.this.speed;
+		/** Pending seek target, or -1. */
+		private volatile int seekTo = startTick > 0 ? startTick : -1;
+		/** Pace reference: record time baseMillis is due at baseNanos at the current speed. */
+		private long baseMillis;
+		private long baseNanos;
+		private double pacedSpeed;
+
+		Playback(WebSocket conn) {
+			this.conn = conn;
+		}
+
+		/** "[REPLAY] speed=&lt;x&gt; seek=&lt;tick&gt;" from the client or the console. */
+		void control(String[] parts) {
+			for (String part : parts) {
+				try {
+					if (part.startsWith("speed=")) speed = Math.max(0, Double.parseDouble(part.substring(6)));
+					else if (part.startsWith("seek=")) seekTo = Math.max(0, Integer.parseInt(part.substring(5)));
+				} catch (NumberFormatException e) {
+					MicrocosmStreamerMod.LOGGER.warn("Ignoring malformed replay control {}", part);
+				}
+			}
+		}
+
+		void run() {
+			try {
+				boolean finished = false;
+				while (conn.isOpen()) {
+					int target = seekTo;
+					if (target >= 0) {
+						seekTo = -1;
+						seek(target);
+						finished = false;
+						continue;
+					}
+					if (position >= log.end()) {
+						if (loop) {
+							seekTo = startTick;
+						} else if (!finished) {
+							finished = true;
+							MicrocosmStreamerMod.LOGGER.info("Replay finished for {}", conn.getRemoteSocketAddress());
+						}
+						TimeUnit.MILLISECONDS.sleep(100);
+						continue;
+					}
+					SessionLog.Record record = log.read(position);
+					if (!waitUntilDue(record)) continue;
+					send(record);
+					held.apply(record.offset(), record.kind(), record.sectionKey(), record.body());
+					position = record.next();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				MicrocosmStreamerMod.LOGGER.warn("Replay to {} failed", conn.getRemoteSocketAddress(), e);
+				conn.close();
+			}
+		}
+
+		/**
+		 * Sleep until record is due at the current speed; false if the speed changed or a seek arrived meanwhile (the
+		 * caller looks again). Paused (speed 0) playback waits here.
+		 */
+		private boolean waitUntilDue(SessionLog.Record record) throws InterruptedException {
+			double s = speed;
+			if (s != pacedSpeed || s == 0) {
+				pacedSpeed = s;
+				baseMillis = record.millis();
+				baseNanos = System.nanoTime();
+				if (s == 0) {
+					TimeUnit.MILLISECONDS.sleep(50);
+					return false;
+				}
+			}
+			long due = baseNanos + (long) ((record.millis() - baseMillis) * 1_000_000L / s);
+			long wait = due - System.nanoTime();
+			if (wait <= 0) return true;
+			// Short naps, so a seek or speed change does not wait for a long gap in the recording
+			TimeUnit.NANOSECONDS.sleep(Math.min(wait, 50_000_000L));
+			return wait <= 50_000_000L && speed == s && seekTo < 0;
+		}
+
+		/**
+		 * Send what the client holds at tick: state from the last keyframe before it, brought forward record by record,
+		 * minus what the client holds now and should not.
+		 */
+		private void seek(int tick) throws InterruptedException {
+			SessionState next = new SessionState();
+			long from = log.first();
+			long keyframe = log.keyframeAtOrBefore(tick);
+			if (keyframe >= 0) {
+				SessionLog.Record record = log.read(keyframe);
+				for (long offset : SessionLog.keyframeOffsets(record.body())) {
+					SessionLog.Record held = log.read(offset);
+					next.apply(offset, held.kind(), held.sectionKey(), held.body());
+				}
+				from = SessionLog.keyframeResume(record.body());
+			}
+			while (from < log.end()) {
+				SessionLog.Record record = log.read(from);
+				if (record.tick() > tick) break;
+				next.apply(from, record.kind(), record.sectionKey(), record.body());
+				from = record.next();
+			}
+			unloadMissing(next);
+			held = next;
+			for (long offset : next.offsets()) {
+				send(log.read(offset));
+				drain();
+			}
+			position = from;
+			pacedSpeed = -1;
+			MicrocosmStreamerMod.LOGGER.info("Replay to {} at tick {}", conn.getRemoteSocketAddress(), tick);
+		}
+
+		/** SECTIONS_UNLOAD and ENTITY_DESPAWN for what the client holds and next does not. */
+		private void unloadMissing(SessionState next) {
+			if (recordedProtocol >= 2) {
+				int[] sections = held.sectionList();
+				IntArrayList gone = new IntArrayList();
+				for (int i = 0; i < sections.length; i += 3) {
+					if (!next.holds(OutboundQueue.sectionKey(sections[i], sections[i + 2], sections[i + 1]))) {
+						gone.add(sections[i]);
+						gone.add(sections[i + 1]);
+						gone.add(sections[i + 2]);
+					}
+				}
+				if (!gone.isEmpty()) conn.send(ProtocolEncoder.sectionsUnload(gone.elements(), gone.size() / 3).payload());
+			}
+			IntArrayList despawned = new IntArrayList();
+			for (int id : held.entityIds()) {
+				if (!next.holdsEntity(id)) despawned.add(id);
+			}
+			if (!despawned.isEmpty()) conn.send(ProtocolEncoder.entityDespawn(despawned.elements(), despawned.size()).payload());
+		}
+
+		/** Send a recorded message as-is (the server's HELLO only once per connection). */
+		private void send(SessionLog.Record record) {
+			switch (record.kind()) {
+				case SessionLog.KIND_TEXT -> {
+					String text = record.text();
+					if (text.startsWith("HELLO")) {
+						if (helloSent) return;
+						helloSent = true;
+					}
+					conn.send(text);
+				}
+				case SessionLog.KIND_SECTION, SessionLog.KIND_DELTA, SessionLog.KIND_FRAME -> conn.send(record.body().duplicate());
+				default -> {
+				}
+			}
+		}
+
+		/** Let a burst drain from the connection's write queue before queuing more. */
+		private void drain() throws InterruptedException {
+			while (conn.isOpen() && WebSocketOutput.queuedBuffers(conn) > MAX_QUEUED_FRAMES) {
+				TimeUnit.MILLISECONDS.sleep(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What a client of a recorded session holds, as offsets of the {@link SessionLog} records that gave it to it: the latest
+ * HELLO, SET_ORIGIN and ID_TABLE, per section the frame that last replaced it and the deltas since, column summaries,
+ * spawned entities and block entities. Fed every record in order; {@link #offsets()} is what a keyframe stores, and
+ * sending those records in order rebuilds the client's world at that point.
+ * <p>
+ * Entities come back at their spawn position until their next update. Not thread-safe.
+ */
+final class SessionState {
+
+	private static final long NONE = -1;
+
+	private long hello = NONE;
+	private long origin = NONE;
+	private long idTable = NONE;
+	private final Long2ObjectOpenHashMap<LongArrayList> sections = new Long2ObjectOpenHashMap<>();
+	/** Column (ChunkPos key) to its COLUMN_SUMMARY record. */
+	private final Long2LongOpenHashMap summaries = new Long2LongOpenHashMap();
+	private final Int2LongOpenHashMap entities = new Int2LongOpenHashMap();
+	private final Long2LongOpenHashMap blockEntities = new Long2LongOpenHashMap();
+
+	/** Apply the record at offset; body is the message as the client received it (COMPRESSED frames are inflated here). */
+	void apply(long offset, byte kind, long sectionKey, ByteBuffer body) {
+		switch (kind) {
+			case SessionLog.KIND_TEXT -> {
+				String text = StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+				if (text.startsWith("HELLO")) hello = offset;
+				else if (text.startsWith("SET_ORIGIN")) origin = offset;
+			}
+			case SessionLog.KIND_SECTION -> {
+				LongArrayList records = sections.get(sectionKey);
+				if (records == null) {
+					sections.put(sectionKey, records = new LongArrayList(2));
+				} else {
+					records.clear();
+				}
+				records.add(offset);
+				summaries.remove(ChunkPos.asLong(SectionPos.x(sectionKey), SectionPos.z(sectionKey)));
+			}
+			case SessionLog.KIND_DELTA -> {
+				// A client drops deltas for a section it does not hold
+				LongArrayList records = sections.get(sectionKey);
+				if (records != null) records.add(offset);
+			}
+			case SessionLog.KIND_FRAME -> applyFrame(offset, body);
+			default -> {
+			}
+		}
+	}
+
+	private void applyFrame(long offset, ByteBuffer body) {
+		try {
+			ByteBuffer in = body.duplicate();
+			byte type = in.get();
+			if (type == ProtocolEncoder.MSG_COMPRESSED) {
+				in = ByteBuffer.wrap(FrameCompressor.inflate(body));
+				type = in.get();
+			}
+			switch (type) {
+				case ProtocolEncoder.MSG_ID_TABLE -> idTable = offset;
+				case ProtocolEncoder.MSG_SECTIONS_UNLOAD -> {
+					int count = SessionLog.readVarInt(in);
+					for (int i = 0; i < count; i++) {
+						int cx = SessionLog.unZigZag(SessionLog.readVarInt(in));
+						int cz = SessionLog.unZigZag(SessionLog.readVarInt(in));
+						int sy = SessionLog.readVarInt(in);
+						sections.remove(SectionPos.asLong(cx, sy, cz));
+						summaries.remove(ChunkPos.asLong(cx, cz));
+					}
+				}
+				case ProtocolEncoder.MSG_COLUMN_SUMMARY -> {
+					int cx = SessionLog.unZigZag(SessionLog.readVarInt(in));
+					int cz = SessionLog.unZigZag(SessionLog.readVarInt(in));
+					summaries.put(ChunkPos.asLong(cx, cz), offset);
+					for (LongIterator it = sections.keySet().iterator(); it.hasNext(); ) {
+						long key = it.nextLong();
+						if (SectionPos.x(key) == cx && SectionPos.z(key) == cz) it.remove();
+					}
+				}
+				case ProtocolEncoder.MSG_ENTITY_SPAWN -> entities.put(in.getInt(), offset);
+				case ProtocolEncoder.MSG_ENTITY_DESPAWN -> {
+					int count = SessionLog.readVarInt(in);
+					for (int i = 0; i < count; i++) {
+						entities.remove(SessionLog.readVarInt(in));
+					}
+				}
+				case ProtocolEncoder.MSG_BLOCK_ENTITY -> blockEntities.put(BlockPos.asLong(in.getInt(), in.getInt(), in.getInt()), offset);
+				default -> {
+				}
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Skipping malformed frame at offset {} of session recording", offset);
+		}
+	}
+
+	/** Sections held, as (cx, cz, sy) triples. */
+	int[] sectionList() {
+		IntArrayList list = new IntArrayList(sections.size() * 3);
+		for (long key : sections.keySet()) {
+			list.add(SectionPos.x(key));
+			list.add(SectionPos.z(key));
+			list.add(SectionPos.y(key));
+		}
+		return list.toIntArray();
+	}
+
+	/** Whether the client holds section key (as in {@link OutboundQueue#sectionKey}). */
+	boolean holds(long sectionKey) {
+		return sections.containsKey(sectionKey);
+	}
+
+	/** Ids of the entities spawned and not despawned. */
+	int[] entityIds() {
+		return entities.keySet().toIntArray();
+	}
+
+	boolean holdsEntity(int entityId) {
+		return entities.containsKey(entityId);
+	}
+
+	/**
+	 * Records that rebuild this state: HELLO, ID_TABLE and the latest SET_ORIGIN first, then everything else in the order
+	 * it was sent.
+	 */
+	long[] offsets() {
+		LongArrayList rest = new LongArrayList(sections.size() + summaries.size() + entities.size() + blockEntities.size());
+		for (Long2ObjectMap.Entry<LongArrayList> entry : sections.long2ObjectEntrySet()) {
+			rest.addAll(entry.getValue());
+		}
+		rest.addAll(summaries.values());
+		rest.addAll(entities.values());
+		rest.addAll(blockEntities.values());
+		rest.sort(null);
+		LongArrayList all = new LongArrayList(rest.size() + 3);
+		for (long head : new long[] {hello, idTable, origin}) {
+			if (head != NONE) all.add(head);
+		}
+		all.addAll(rest);
+		return all.toLongArray();
+	}
+
+	/** KEYFRAME record body for {@link #offsets()}, the state of the records before offset resume (see {@link SessionLog}). */
+	byte[] keyframeBody(long resume) {
+		long[] offsets = offsets();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(offsets.length * 3 + 10);
+		writeVarLong(out, resume);
+		writeVarLong(out, offsets.length);
+		long previous = 0;
+		for (long offset : offsets) {
+			// A head record can lie after the one that follows it: that difference is negative, ten bytes as a varint
+			writeVarLong(out, offset - previous);
+			previous = offset;
+		}
+		return out.toByteArray();
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
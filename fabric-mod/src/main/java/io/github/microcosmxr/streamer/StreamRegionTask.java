@@ -3,10 +3,17 @@ package io.github.microcosmxr.streamer;
 import java.util.ArrayList;
 import java.util.List;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.core.SectionPos;
 import net.minecraft.core.registries.Registries;
-import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LevelChunkSection;
@@ -14,75 +21,338 @@ import net.minecraft.world.level.entity.EntityTypeTest;
 import net.minecraft.world.phys.AABB;
 
 /**
- * Sends chunk section snapshots, block entities, and entities for a region around the stream origin to a newly connected client.
- * Run on the server (game) thread via server.execute().
+ * Sends chunk section snapshots, block entities, and entities in a client's {@link StreamWindow} to a newly connected
+ * client. Resumable: {@link RegionStreamScheduler} calls {@link #step()} on the game thread each tick until the job is
+ * done, so a join is spread over several ticks instead of one spike. Sections go out nearest-to-origin first (the
+ * tabletop fills in from the center), then column summaries, block entities per column (with their allowlisted NBT, see
+ * {@link BlockEntitySnapshot}), then entities (a one-off spawn each, or the {@link EntityTracker}'s live entities for
+ * "entities" clients). "lod" clients also get the window's far field, from chunks already loaded, as downsampled
+ * sections and column summaries (see {@link StreamWindow#detail}). Sections come from the server's
+ * {@link SectionFrameCache} when an earlier join already captured them and nothing has changed since. A reconnecting
+ * "resume" client is not sent the sections it still holds (see {@link ResumeManifest}). "surface" clients get a
+ * SECTION_HIDDEN marker instead of each buried section inside the window (see {@link SectionSurface}).
+ * <p>
+ * Chunks are never loaded on the game thread: a column that is not loaded is requested from {@link RegionChunkLoads},
+ * its sections wait while the task moves on to the next ones, and they are sent as soon as the load completes. The task
+ * holds the loaded chunks' tickets until it leaves the scheduler, so block entities can be read from the same chunks.
+ * <p>
+ * After an origin move the task is incremental: given what the client holds ({@link HeldRegion}), it only sends the
+ * sections (or their new detail), summaries, block entities and entities it does not. A task cut short by the next move
+ * reports what it got through ({@link #held()}), so continuous panning stays incremental.
  */
 public final class StreamRegionTask {
 
-	/** Chunk radius in X/Z (e.g. 4 → 9×9 = 81 chunks). Kept smaller for headset performance. */
-	private static final int CHUNK_RADIUS_XZ = 4;
-	/** Section range up/down from origin section. Kept smaller for headset performance. */
-	private static final int SECTION_RANGE = 8;
-	private static final int ENTITY_RADIUS = 64;   // stream entities within this block radius of origin
-
-	private StreamRegionTask() {}
-
-	public static void streamRegionToClient(MinecraftServer server, StreamerServer streamerServer, StreamerWebSocketHandler client) {
-		ServerLevel level = server.overworld();
-		if (level == null) return;
-
-		int ox = streamerServer.getOriginX();
-		int oy = streamerServer.getOriginY();
-		int oz = streamerServer.getOriginZ();
-		int originChunkX = ox >> 4;
-		int originChunkZ = oz >> 4;
-		int minY = level.dimensionType().minY();
-		int originSectionIndex = (oy - minY) >> 4;
-
-		int sentSections = 0;
-		for (int dx = -CHUNK_RADIUS_XZ; dx <= CHUNK_RADIUS_XZ; dx++) {
-			for (int dz = -CHUNK_RADIUS_XZ; dz <= CHUNK_RADIUS_XZ; dz++) {
-				int cx = originChunkX + dx;
-				int cz = originChunkZ + dz;
-				ChunkAccess chunk = level.getChunk(cx, cz);
-				if (chunk == null) continue;
-
-				int sectionCount = chunk.getSections().length;
-				int syStart = Math.max(0, originSectionIndex - SECTION_RANGE);
-				int syEnd = Math.min(sectionCount - 1, originSectionIndex + SECTION_RANGE);
-
-				for (int sy = syStart; sy <= syEnd; sy++) {
-					LevelChunkSection section = chunk.getSection(sy);
-					if (section == null || section.hasOnlyAir()) continue;
-
-					ChunkSerializer.SectionSnapshot snap = ChunkSerializer.serializeSection(level, chunk, sy);
-					client.sendChunkSectionSnapshot(cx, cz, sy, snap);
-					sentSections++;
+	private enum Phase { SECTIONS, SUMMARIES, BLOCK_ENTITIES, ENTITIES, DONE }
+
+	private final ServerLevel level;
+	private final StreamerServer streamerServer;
+	private final StreamerWebSocketHandler client;
+	private final StreamWindow window;
+	/** (dx, dy, dz) section offsets and (dx, dz) column offsets nearest first, see {@link StreamWindow#sectionOrder()}. */
+	private final int[] sectionOrder;
+	private final int[] columnOrder;
+	/** What the client already holds (origin move), or null for a full stream. */
+	private final HeldRegion previous;
+	private final int ox;
+	private final int oy;
+	private final int oz;
+	private final int originChunkX;
+	private final int originChunkZ;
+	private final int originSectionIndex;
+	private final int syStart;
+	private final int syEnd;
+
+	private Phase phase = Phase.SECTIONS;
+	/** Cursor into sectionOrder or columnOrder, depending on phase. */
+	private int cursor;
+	/** Chunk loads this task asked for, by column; their tickets are held until {@link #close()}. */
+	private final Long2ObjectMap<RegionChunkLoads.Load> loads = new Long2ObjectOpenHashMap<>();
+	/** sectionOrder entries waiting on their column's load, in order, by column. */
+	private final Long2ObjectMap<IntArrayList> deferred = new Long2ObjectOpenHashMap<>();
+	/** Deferred entries whose column has loaded, sent before the cursor moves on (taken from the end, nearest first). */
+	private final IntArrayList ready = new IntArrayList();
+	/** Sections handled so far (SectionPos keys), for {@link #held()}. */
+	private final LongOpenHashSet handled = new LongOpenHashSet();
+	private int sentSections;
+	private int lodSections;
+	private int hiddenSections;
+	private int summaries;
+	private int cachedSections;
+	private int sentEntities;
+	private long gameThreadNanos;
+	private int ticks;
+	private final long createdMillis = System.currentTimeMillis();
+
+	/** Stream window to client; with previous (same level), only what the client does not hold. */
+	StreamRegionTask(StreamerServer streamerServer, StreamerWebSocketHandler client, StreamWindow window, HeldRegion previous) {
+		this.level = window.level();
+		this.streamerServer = streamerServer;
+		this.client = client;
+		this.window = window;
+		this.sectionOrder = window.sectionOrder();
+		this.columnOrder = window.columnOrder();
+		this.previous = previous != null && previous.window.level() == window.level() ? previous : null;
+		this.ox = window.originX();
+		this.oy = window.originY();
+		this.oz = window.originZ();
+		this.originChunkX = window.chunkX();
+		this.originChunkZ = window.chunkZ();
+		this.originSectionIndex = window.originSectionIndex();
+		this.syStart = window.syStart();
+		this.syEnd = window.syEnd();
+		streamerServer.watch(client, window);
+	}
+
+	StreamerWebSocketHandler client() {
+		return client;
+	}
+
+	public boolean isDone() {
+		return phase == Phase.DONE || !client.isOpen();
+	}
+
+	/** Whether the task has stepped at all (it waits for the client's HELLO reply, up to helloTimeoutMillis, before). */
+	boolean hasStarted() {
+		return ticks > 0;
+	}
+
+	/** What the client holds of this task's window so far: all of it once done (game thread). */
+	HeldRegion held() {
+		if (phase == Phase.DONE) return HeldRegion.complete(window);
+		return HeldRegion.partial(window, previous, phase == Phase.SECTIONS ? handled : null,
+			phase.compareTo(Phase.SUMMARIES) > 0, phase.compareTo(Phase.BLOCK_ENTITIES) > 0, false);
+	}
+
+	/**
+	 * True while the job should not step: the client's outbound queue is too full, or the client has not replied to HELLO
+	 * yet (so its sections would go out in the protocol 1 format) or not sent its resume manifest, and the HELLO timeout
+	 * has not passed.
+	 */
+	boolean isWaiting() {
+		if (client.isBackpressured()) return true;
+		if ((!client.isNegotiated() || client.isAwaitingManifest())
+			&& System.currentTimeMillis() - createdMillis < StreamerConfig.HELLO_TIMEOUT_MILLIS) return true;
+		return isWaitingForChunks();
+	}
+
+	/** Nothing to send until a chunk load completes: the rest of the sections wait on loads, or loads are at the limit. */
+	private boolean isWaitingForChunks() {
+		if (phase != Phase.SECTIONS) return false;
+		pollLoads();
+		if (!ready.isEmpty()) return false;
+		if (cursor < sectionOrder.length) return !streamerServer.chunkLoads().hasCapacity() && nextNeedsLoad();
+		return !deferred.isEmpty();
+	}
+
+	/** Whether the next entry in sectionOrder is a full-detail section in a column that is not loaded or loading. */
+	private boolean nextNeedsLoad() {
+		int packed = sectionOrder[cursor];
+		int sy = originSectionIndex + (byte) (packed >> 8);
+		int cx = originChunkX + (byte) (packed >> 16);
+		int cz = originChunkZ + (byte) packed;
+		return window.sectionDetail(cx, sy, cz) == 0 && !loads.containsKey(ChunkPos.asLong(cx, cz))
+			&& level.getChunkSource().getChunkNow(cx, cz) == null;
+	}
+
+	/** Bookkeeping from the scheduler: game-thread time spent in this job during one tick. */
+	void recordTick(long nanos) {
+		gameThreadNanos += nanos;
+		ticks++;
+	}
+
+	/**
+	 * Advance by one unit of work: one section (captured and queued if non-empty), one column summary, one column of block
+	 * entities, or the entity pass. Returns the number of sections or summaries captured (0 or 1), which the scheduler
+	 * charges against its section budget.
+	 */
+	public int step() {
+		switch (phase) {
+			case SECTIONS -> {
+				pollLoads();
+				if (!ready.isEmpty()) return section(ready.removeInt(ready.size() - 1));
+				if (cursor < sectionOrder.length) return section(sectionOrder[cursor++]);
+				if (!deferred.isEmpty()) return 0;
+				client.finishResume();
+				advance(Phase.SUMMARIES);
+				return 0;
+			}
+			case SUMMARIES -> {
+				if (cursor >= columnOrder.length || !client.supports(ProtocolFeature.LOD)) {
+					advance(Phase.BLOCK_ENTITIES);
+					return 0;
+				}
+				int packed = columnOrder[cursor++];
+				int cx = originChunkX + (byte) (packed >> 8);
+				int cz = originChunkZ + (byte) packed;
+				if (window.detail(cx, cz) != StreamWindow.SUMMARY) return 0;
+				if (previous != null && previous.holdsSummary(cx, cz)) return 0;
+				ChunkAccess chunk = level.getChunkSource().getChunkNow(cx, cz);
+				if (chunk == null) return 0;
+				client.sendColumnSummary(ColumnSummary.capture(level, chunk));
+				summaries++;
+				return 1;
+			}
+			case BLOCK_ENTITIES -> {
+				if (cursor >= columnOrder.length) {
+					advance(Phase.ENTITIES);
+					return 0;
+				}
+				int packed = columnOrder[cursor++];
+				int cx = originChunkX + (byte) (packed >> 8);
+				int cz = originChunkZ + (byte) packed;
+				if (window.detail(cx, cz) != 0) return 0;
+				// Columns the client already has over this window's whole height
+				if (previous != null && previous.holdsBlockEntities(cx, syStart, cz) && previous.holdsBlockEntities(cx, syEnd, cz)) return 0;
+				sendBlockEntities(cx, cz);
+				return 0;
+			}
+			case ENTITIES -> {
+				sendEntities();
+				advance(Phase.DONE);
+				if (previous == null) {
+					MicrocosmStreamerMod.LOGGER.info("Streamed {} chunk sections ({} from cache, {} hidden), {} LOD sections, {} column summaries, block entities, {} entities to new client (origin {} {} {}, game thread {} ms over {} ticks)",
+						sentSections, cachedSections, hiddenSections, lodSections, summaries, sentEntities, ox, oy, oz, String.format("%.2f", gameThreadNanos / 1_000_000.0), ticks);
+				} else {
+					MicrocosmStreamerMod.LOGGER.debug("Streamed {} new chunk sections ({} from cache, {} hidden), {} LOD sections, {} column summaries, {} entities after origin move to {} {} {} (game thread {} ms over {} ticks)",
+						sentSections, cachedSections, hiddenSections, lodSections, summaries, sentEntities, ox, oy, oz, String.format("%.2f", gameThreadNanos / 1_000_000.0), ticks);
 				}
+				return 0;
+			}
+			default -> {
+				return 0;
+			}
+		}
+	}
 
-				// Block entities in this chunk (only LevelChunk has block entity map)
-				if (chunk instanceof LevelChunk levelChunk) {
-					int sectionWorldYMin = minY + syStart * 16;
-					int sectionWorldYMax = minY + syEnd * 16 + 15;
-					levelChunk.getBlockEntities().forEach((pos, blockEntity) -> {
-						if (pos.getY() >= sectionWorldYMin && pos.getY() <= sectionWorldYMax) {
-							String typeId = level.registryAccess().lookupOrThrow(Registries.BLOCK_ENTITY_TYPE).getKey(blockEntity.getType()).toString();
-							client.sendBlockEntity(pos.getX(), pos.getY(), pos.getZ(), typeId, null);
-						}
-					});
+	/** One entry of sectionOrder: captured and queued, deferred until its column loads, or skipped. */
+	private int section(int packed) {
+		int sy = originSectionIndex + (byte) (packed >> 8);
+		int cx = originChunkX + (byte) (packed >> 16);
+		int cz = originChunkZ + (byte) packed;
+		int detail = window.sectionDetail(cx, sy, cz);
+		if (detail < 0 || detail > 0 && !client.supports(ProtocolFeature.LOD)) return 0;
+		boolean surface = detail == 0 && client.supports(ProtocolFeature.SURFACE);
+		// Held as hidden in the previous window's interior: now on a cut face, it must be sent in full
+		if (previous != null && previous.holdsSection(cx, sy, cz, detail) && !(surface && previous.window.isInterior(cx, sy, cz)
+			&& !window.isInterior(cx, sy, cz) && streamerServer.wasSentHidden(level, cx, sy, cz))) return 0;
+		// The far field never loads chunks: what is not loaded is skipped
+		ChunkAccess chunk = level.getChunkSource().getChunkNow(cx, cz);
+		if (chunk == null && detail == 0) {
+			long column = ChunkPos.asLong(cx, cz);
+			RegionChunkLoads.Load load = loads.get(column);
+			if (load == null) {
+				load = streamerServer.chunkLoads().request(level, cx, cz);
+				if (load == null) {
+					// Loads are at the limit: retry this entry once one completes
+					cursor--;
+					return 0;
 				}
+				loads.put(column, load);
 			}
+			if (!load.isDone()) {
+				deferred.computeIfAbsent(column, c -> new IntArrayList()).add(packed);
+				return 0;
+			}
+			chunk = load.chunk();
+		}
+		handled.add(SectionPos.asLong(cx, sy, cz));
+		if (chunk == null) return 0;
+		LevelChunkSection section = chunk.getSection(sy);
+		if (section == null || section.hasOnlyAir()) return 0;
+		if (surface && window.isInterior(cx, sy, cz) && SectionSurface.isHidden(level, chunk, sy)) {
+			// Buried on all sides: a marker instead of the capture
+			streamerServer.markHidden(level, cx, sy, cz);
+			client.sendHiddenSection(cx, cz, sy);
+			hiddenSections++;
+			return 0;
 		}
 
+		if (detail == 0) sentSections++;
+		else lodSections++;
+		SectionFrameCache cache = streamerServer.sectionCache();
+		SectionFrames frames = SectionFrameCache.enabled() ? cache.get(level, cx, cz, sy) : null;
+		if (frames != null) {
+			// Already captured and (probably) encoded for an earlier client: no game-thread work
+			cachedSections++;
+			send(frames, detail);
+			return 0;
+		}
+		frames = streamerServer.captureSection(level, chunk, sy);
+		send(frames, detail);
+		return 1;
+	}
+
+	/** Move the deferred sections of columns whose loads have completed to ready (nearest first once reversed). */
+	private void pollLoads() {
+		if (deferred.isEmpty()) return;
+		ObjectIterator<Long2ObjectMap.Entry<IntArrayList>> it = Long2ObjectMaps.fastIterator(deferred);
+		while (it.hasNext()) {
+			Long2ObjectMap.Entry<IntArrayList> entry = it.next();
+			if (!loads.get(entry.getLongKey()).isDone()) continue;
+			IntArrayList sections = entry.getValue();
+			for (int i = sections.size() - 1; i >= 0; i--) ready.add(sections.getInt(i));
+			it.remove();
+		}
+	}
+
+	/**
+	 * Release the tickets of the chunks this task loaded (game thread); called by the scheduler when the task leaves it,
+	 * finished or not.
+	 */
+	void close() {
+		for (RegionChunkLoads.Load load : loads.values()) load.release();
+		loads.clear();
+		deferred.clear();
+		ready.clear();
+	}
+
+	private void send(SectionFrames frames, int detail) {
+		if (detail == 0) {
+			client.sendSection(frames);
+		} else {
+			client.sendLodSection(frames, detail);
+		}
+	}
+
+	private void advance(Phase next) {
+		phase = next;
+		cursor = 0;
+	}
+
+	private void sendBlockEntities(int cx, int cz) {
+		// Loaded by the section pass (and still ticketed), or skipped there
+		ChunkAccess chunk = level.getChunkSource().getChunkNow(cx, cz);
+		// Block entities in this chunk (only LevelChunk has block entity map)
+		if (chunk instanceof LevelChunk levelChunk) {
+			BlockEntityUpdates updates = streamerServer.blockEntities();
+			int minY = level.dimensionType().minY();
+			int sectionWorldYMin = minY + syStart * 16;
+			int sectionWorldYMax = minY + syEnd * 16 + 15;
+			levelChunk.getBlockEntities().forEach((pos, blockEntity) -> {
+				if (pos.getY() >= sectionWorldYMin && pos.getY() <= sectionWorldYMax && (previous == null
+					|| !previous.holdsBlockEntities(pos.getX() >> 4, (pos.getY() - minY) >> 4, pos.getZ() >> 4))) {
+					updates.send(level, client, BlockEntitySnapshot.capture(level, blockEntity));
+				}
+			});
+		}
+	}
+
+	private void sendEntities() {
+		if (client.supports(ProtocolFeature.ENTITIES)) {
+			// Live clients already watching get entities entering the new window from the tracker
+			if (client.isWatchingEntities()) return;
+			EntityTracker tracker = client.view().entities();
+			sentEntities = tracker.trackedCount();
+			tracker.addWatcher(client);
+			return;
+		}
 		// Entities in range
-		AABB aabb = new AABB(
-			ox - ENTITY_RADIUS, oy - ENTITY_RADIUS, oz - ENTITY_RADIUS,
-			ox + ENTITY_RADIUS, oy + ENTITY_RADIUS, oz + ENTITY_RADIUS
-		);
+		int radius = window.entityRadius();
+		AABB aabb = new AABB(ox - radius, oy - radius, oz - radius, ox + radius, oy + radius, oz + radius);
 		List<Entity> entities = new ArrayList<>();
 		level.getEntities(EntityTypeTest.forClass(Entity.class), aabb, e -> true, entities);
-		int sentEntities = 0;
 		for (Entity entity : entities) {
+			if (previous != null && previous.holdsEntity(entity.getX(), entity.getY(), entity.getZ())) continue;
 			String typeId = level.registryAccess().lookupOrThrow(Registries.ENTITY_TYPE).getKey(entity.getType()).toString();
 			client.sendEntitySpawn(
 				entity.getId(),
@@ -92,7 +362,5 @@ public final class StreamRegionTask {
 			);
 			sentEntities++;
 		}
-
-		MicrocosmStreamerMod.LOGGER.info("Streamed {} chunk sections, block entities, {} entities to new client (origin {} {} {})", sentSections, sentEntities, ox, oy, oz);
 	}
 }
@@ -0,0 +1,70 @@
+package io.github.microcosmxr.streamer;
+
+import net.minecraft.server.level.ServerLevel;
+
+/**
+ * Where and how much of the world one or more clients look at: level, origin and radii (full detail and far field).
+ * The server's shared view follows the origin set by /mr_start; a client that sends VIEW gets a view of its own, either
+ * at its own origin or following the shared one with its own radii. Each view has its own {@link EntityTracker}, so
+ * clients of one view share entity frames.
+ * <p>
+ * Game thread only.
+ */
+final class StreamView {
+
+	/** Whether /mr_start moves this view. */
+	final boolean follows;
+	private ServerLevel level;
+	private int originX;
+	private int originY;
+	private int originZ;
+	private final int chunkRadius;
+	private final int sectionRange;
+	private final int lodRadius;
+	private final EntityTracker entities;
+
+	StreamView(StreamerServer streamerServer, boolean follows, ServerLevel level, int originX, int originY, int originZ,
+	           int chunkRadius, int sectionRange, int lodRadius) {
+		this.follows = follows;
+		this.level = level;
+		this.originX = originX;
+		this.originY = originY;
+		this.originZ = originZ;
+		this.chunkRadius = Math.max(1, Math.min(StreamerConfig.MAX_CHUNK_RADIUS, chunkRadius));
+		this.sectionRange = Math.max(1, Math.min(StreamWindow.MAX_SECTION_RANGE, sectionRange));
+		this.lodRadius = StreamerConfig.LOD ? Math.max(this.chunkRadius, Math.min(StreamerConfig.MAX_LOD_RADIUS, lodRadius)) : this.chunkRadius;
+		this.entities = new EntityTracker(streamerServer, this);
+	}
+
+	void moveTo(ServerLevel level, int x, int y, int z) {
+		this.level = level;
+		this.originX = x;
+		this.originY = y;
+		this.originZ = z;
+	}
+
+	ServerLevel level() {
+		return level;
+	}
+
+	int originX() {
+		return originX;
+	}
+
+	int originY() {
+		return originY;
+	}
+
+	int originZ() {
+		return originZ;
+	}
+
+	EntityTracker entities() {
+		return entities;
+	}
+
+	/** The window this view covers now, or null while it has no level. */
+	StreamWindow window() {
+		return level != null ? StreamWindow.around(level, originX, originY, originZ, chunkRadius, sectionRange, lodRadius) : null;
+	}
+}
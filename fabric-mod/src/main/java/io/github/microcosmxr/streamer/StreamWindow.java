@@ -0,0 +1,161 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The part of the world a client is sent for one view (see {@link StreamView}): full sections in the chunk columns within
+ * chunkRadius of the origin's chunk, sections within sectionRange of its section (clipped to the level's height), and
+ * entities within {@link #entityRadius()} blocks of the origin. Out to lodRadius, "lod" clients also get far-field
+ * detail ({@link #detail}): downsampled sections (see {@link SectionLod}) whose level rises with distance, then one
+ * {@link ColumnSummary} per column. When the view moves, the difference between the old and the new window is what gets
+ * streamed and unloaded. Immutable; equal windows cover the same sections.
+ */
+record StreamWindow(ServerLevel level, int originX, int originY, int originZ, int chunkX, int chunkZ, int syStart, int syEnd,
+                    int chunkRadius, int sectionRange, int lodRadius) {
+
+	/** Largest section range a client may ask for. */
+	static final int MAX_SECTION_RANGE = 16;
+	/** Largest LOD radius (chunk offsets are packed in a byte). */
+	static final int MAX_LOD_RADIUS = 64;
+	/** {@link #detail} of a column sent as a {@link ColumnSummary}. */
+	static final int SUMMARY = SectionLod.MAX_LEVEL + 1;
+
+	/** Section and column visiting orders, per (lodRadius, sectionRange). */
+	private static final ConcurrentHashMap<Integer, int[]> SECTION_ORDERS = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Integer, int[]> COLUMN_ORDERS = new ConcurrentHashMap<>();
+
+	static StreamWindow around(ServerLevel level, int ox, int oy, int oz, int chunkRadius, int sectionRange, int lodRadius) {
+		int originSectionIndex = (oy - level.dimensionType().minY()) >> 4;
+		return new StreamWindow(level, ox, oy, oz, ox >> 4, oz >> 4,
+			Math.max(0, originSectionIndex - sectionRange),
+			Math.min(level.getSectionsCount() - 1, originSectionIndex + sectionRange), chunkRadius, sectionRange,
+			Math.max(chunkRadius, lodRadius));
+	}
+
+	/** Section index of the origin (may lie outside syStart..syEnd near the bottom or top of the level). */
+	int originSectionIndex() {
+		return (originY - level.dimensionType().minY()) >> 4;
+	}
+
+	/** Block radius (cube) around the origin in which entities are streamed: the full-detail horizontal extent. */
+	int entityRadius() {
+		return chunkRadius * 16;
+	}
+
+	/**
+	 * Detail column (cx, cz) is streamed at: 0 full sections, 1 to {@link SectionLod#MAX_LEVEL} downsampled sections,
+	 * {@link #SUMMARY} a column summary, -1 outside the window. Each LOD ring is twice as wide as the one inside it, so
+	 * cells keep roughly the same size on screen.
+	 */
+	int detail(int cx, int cz) {
+		int d = Math.max(Math.abs(cx - chunkX), Math.abs(cz - chunkZ));
+		if (d <= chunkRadius) return 0;
+		if (d > lodRadius) return -1;
+		int ring = d - chunkRadius;
+		for (int lod = 1; lod <= SectionLod.MAX_LEVEL; lod++) {
+			if (ring <= ((1 << lod) - 1) * chunkRadius) return lod;
+		}
+		return SUMMARY;
+	}
+
+	/** Detail section (cx, sy, cz) is sent at (0 to {@link SectionLod#MAX_LEVEL}), or -1 if it is not sent as a section. */
+	int sectionDetail(int cx, int sy, int cz) {
+		if (sy < syStart || sy > syEnd) return -1;
+		int detail = detail(cx, cz);
+		return detail == SUMMARY ? -1 : detail;
+	}
+
+	/** Whether section (cx, sy, cz), sy the section index, is in this window at full detail. */
+	boolean containsSection(int cx, int sy, int cz) {
+		return Math.abs(cx - chunkX) <= chunkRadius && Math.abs(cz - chunkZ) <= chunkRadius && sy >= syStart && sy <= syEnd;
+	}
+
+	/**
+	 * Whether the section and its six neighbours are all in this window at full detail, i.e. the section is not on one of
+	 * the faces where the window cuts the world (those stay visible whatever is next to them).
+	 */
+	boolean isInterior(int cx, int sy, int cz) {
+		return Math.abs(cx - chunkX) < chunkRadius && Math.abs(cz - chunkZ) < chunkRadius && sy > syStart && sy < syEnd;
+	}
+
+	/** Whether column (cx, cz) is in this window at any detail. */
+	boolean containsColumn(int cx, int cz) {
+		return Math.abs(cx - chunkX) <= lodRadius && Math.abs(cz - chunkZ) <= lodRadius;
+	}
+
+	/** Whether an entity at (x, y, z) is in this window's entity box. */
+	boolean containsEntity(double x, double y, double z) {
+		int r = entityRadius();
+		return Math.abs(x - originX) <= r && Math.abs(y - originY) <= r && Math.abs(z - originZ) <= r;
+	}
+
+	/**
+	 * What a client holding this window must drop when it moves to next (everything if next is in another level), as
+	 * (cx, cz, sy) triples for SECTIONS_UNLOAD: sections next does not send at all, and (cx, cz, syStart) for each column
+	 * summary next does not replace with another summary. A section next sends at another detail is not listed (the new
+	 * frame replaces it). Without lod (the client never got far-field detail) only full sections count.
+	 */
+	int[] sectionsNotIn(StreamWindow next, boolean lod) {
+		IntArrayList sections = new IntArrayList();
+		int r = lod ? lodRadius : chunkRadius;
+		boolean sameLevel = next.level == level;
+		for (int cx = chunkX - r; cx <= chunkX + r; cx++) {
+			for (int cz = chunkZ - r; cz <= chunkZ + r; cz++) {
+				int detail = detail(cx, cz);
+				int nextDetail = sameLevel ? next.detail(cx, cz) : -1;
+				if (!lod && nextDetail != 0) nextDetail = -1;
+				if (detail == SUMMARY) {
+					if (nextDetail == SUMMARY) continue;
+					sections.add(cx);
+					sections.add(cz);
+					sections.add(syStart);
+					continue;
+				}
+				if (nextDetail == SUMMARY) continue;
+				for (int sy = syStart; sy <= syEnd; sy++) {
+					if (nextDetail >= 0 && sy >= next.syStart && sy <= next.syEnd) continue;
+					sections.add(cx);
+					sections.add(cz);
+					sections.add(sy);
+				}
+			}
+		}
+		return sections.toIntArray();
+	}
+
+	/** (dx, dy, dz) section offsets out to lodRadius, packed one byte each, sorted by distance from the origin section. */
+	int[] sectionOrder() {
+		return SECTION_ORDERS.computeIfAbsent(lodRadius << 8 | sectionRange, k -> {
+			List<int[]> offsets = new ArrayList<>();
+			for (int dx = -lodRadius; dx <= lodRadius; dx++) {
+				for (int dz = -lodRadius; dz <= lodRadius; dz++) {
+					for (int dy = -sectionRange; dy <= sectionRange; dy++) {
+						offsets.add(new int[] {dx, dy, dz});
+					}
+				}
+			}
+			offsets.sort(Comparator.comparingInt(o -> o[0] * o[0] + o[1] * o[1] + o[2] * o[2]));
+			return offsets.stream().mapToInt(o -> (o[0] & 0xFF) << 16 | (o[1] & 0xFF) << 8 | (o[2] & 0xFF)).toArray();
+		});
+	}
+
+	/** (dx, dz) column offsets out to lodRadius, packed one byte each, sorted by distance. */
+	int[] columnOrder() {
+		return COLUMN_ORDERS.computeIfAbsent(lodRadius, k -> {
+			List<int[]> offsets = new ArrayList<>();
+			for (int dx = -lodRadius; dx <= lodRadius; dx++) {
+				for (int dz = -lodRadius; dz <= lodRadius; dz++) {
+					offsets.add(new int[] {dx, dz});
+				}
+			}
+			offsets.sort(Comparator.comparingInt(o -> o[0] * o[0] + o[1] * o[1]));
+			return offsets.stream().mapToInt(o -> (o[0] & 0xFF) << 8 | (o[1] & 0xFF)).toArray();
+		});
+	}
+}
@@ -0,0 +1,133 @@
+package io.github.microcosmxr.streamer;
+
+/**
+ * Streamer tunables, read once at class load from JVM system properties: -Dmicrocosm.streamer.&lt;name&gt;=value
+ * (e.g. in the server start script). Defaults are what we run on the LAN with Quest headsets.
+ */
+public final class StreamerConfig {
+
+	private static final String PREFIX = "microcosm.streamer.";
+
+	/** Serialize block indices from the section's PalettedContainer (palette + packed storage) instead of per-cell getBlockState. */
+	public static final boolean PALETTE_FAST_PATH = bool("paletteFastPath", true);
+	/** Read each section's block/sky DataLayer once from the light engine instead of 8192 per-block getBrightness calls. */
+	public static final boolean BULK_LIGHT = bool("bulkLight", true);
+	/** Only copy raw section data on the game thread; translate, encode and send on the worker pool. */
+	public static final boolean ASYNC_ENCODE = bool("asyncEncode", true);
+	/** Worker threads for the async encode pipeline. */
+	public static final int ENCODE_THREADS = Math.max(1, integer("encodeThreads", Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+	/** Build each broadcast frame's WebSocket wire bytes once and queue views of them on every connection. */
+	public static final boolean SHARED_WIRE_FRAMES = bool("sharedWireFrames", true);
+	/** Game-thread time region streaming may use per tick, shared by all joining clients. */
+	public static final long REGION_BUDGET_NANOS = longValue("regionBudgetNanos", 2_000_000L);
+	/** Sections region streaming may capture per tick, shared by all joining clients. */
+	public static final int REGION_SECTIONS_PER_TICK = Math.max(1, integer("regionSectionsPerTick", 96));
+	/** Chunk loads region streaming may have in flight at once, shared by all joining clients. */
+	public static final int CHUNK_LOADS_IN_FLIGHT = Math.max(1, integer("chunkLoadsInFlight", 8));
+	/** Let region streaming generate chunks that were never generated; off, such columns are skipped. */
+	public static final boolean GENERATE_CHUNKS = bool("generateChunks", true);
+	/** Chunk radius in X/Z of the shared view (e.g. 4 → 9×9 = 81 chunks), and of client views that do not ask for one. */
+	public static final int CHUNK_RADIUS = Math.max(1, integer("chunkRadius", 4));
+	/** Largest chunk radius a client may ask for in VIEW. */
+	public static final int MAX_CHUNK_RADIUS = Math.max(CHUNK_RADIUS, integer("maxChunkRadius", 8));
+	/** Sections up/down from the origin's section in the shared view, and in client views that do not ask for a range. */
+	public static final int SECTION_RANGE = Math.max(1, Math.min(StreamWindow.MAX_SECTION_RANGE, integer("sectionRange", 8)));
+	/** Bytes per second each client may be sent (0: no limit beyond the socket window); a client may ask for less. */
+	public static final long CLIENT_RATE_BYTES = Math.max(0, longValue("clientRateBytes", 0L));
+	/** Buffer block changes during the tick and flush them coalesced at end of tick. */
+	public static final boolean DELTA_BATCHING = bool("deltaBatching", true);
+	/** Changes to one section in one tick at which the whole section is re-sent as a snapshot instead of deltas. */
+	public static final int DELTA_SNAPSHOT_THRESHOLD = Math.max(1, integer("deltaSnapshotThreshold", 2048));
+	/** Bytes a connection's own write buffer may hold before further frames wait in the client's outbound queue. */
+	public static final long SOCKET_WINDOW_BYTES = Math.max(64 * 1024, longValue("socketWindowBytes", 1L << 20));
+	/** Outbound queue size per client above which region streaming pauses (at half) and the slow-client timer runs. */
+	public static final long CLIENT_QUEUE_BYTES = Math.max(1L << 20, longValue("clientQueueBytes", 8L << 20));
+	/** How long a client may stay above clientQueueBytes before it is disconnected. */
+	public static final long CLIENT_OVER_LIMIT_MILLIS = Math.max(1000, longValue("clientOverLimitMillis", 10_000L));
+	/** How long region streaming for a new client waits for its HELLO reply before falling back to protocol 1. */
+	public static final long HELLO_TIMEOUT_MILLIS = Math.max(0, longValue("helloTimeoutMillis", 100L));
+
+	/** Offer the "deflate" feature (compressed large frames) in HELLO. */
+	public static final boolean COMPRESSION = bool("compression", true);
+	/** Frames smaller than this are never compressed. */
+	public static final int COMPRESS_THRESHOLD = Math.max(0, integer("compressThreshold", 512));
+	/** Deflater level, 1 (fastest) to 9 (smallest); see CompressionBenchmark. */
+	public static final int COMPRESS_LEVEL = Math.min(9, Math.max(1, integer("compressLevel", 1)));
+
+	/** Offer the "ids" feature (numeric id table instead of id strings) in HELLO. */
+	public static final boolean NUMERIC_IDS = bool("numericIds", true);
+
+	/** Offer the "resume" feature (section hashes and reconnect manifests) in HELLO. */
+	public static final boolean RESUME = bool("resume", true);
+
+	/** Offer the "entities" feature (live entity spawn/update/despawn) in HELLO. */
+	public static final boolean ENTITY_TRACKING = bool("entityTracking", true);
+
+	/** Offer the "lod" feature (downsampled far sections and column summaries) in HELLO. */
+	public static final boolean LOD = bool("lod", true);
+	/** Chunk radius out to which "lod" clients get far-field detail beyond chunkRadius (views that do not ask for one). */
+	public static final int LOD_RADIUS = LOD
+		? Math.max(CHUNK_RADIUS, Math.min(StreamWindow.MAX_LOD_RADIUS, integer("lodRadius", 4 * CHUNK_RADIUS))) : CHUNK_RADIUS;
+	/** Largest LOD radius a client may ask for in VIEW. */
+	public static final int MAX_LOD_RADIUS = LOD
+		? Math.max(LOD_RADIUS, Math.min(StreamWindow.MAX_LOD_RADIUS, integer("maxLodRadius", 32))) : MAX_CHUNK_RADIUS;
+	/** Ticks between re-sends of far-field sections and column summaries that changed. */
+	public static final int LOD_REFRESH_TICKS = Math.max(1, integer("lodRefreshTicks", 20));
+
+	/** Offer the "surface" feature (hidden sections and visible-block masks) in HELLO. */
+	public static final boolean SURFACE = bool("surface", true);
+
+	/**
+	 * Block entity NBT sent in BLOCK_ENTITY, as "type=key,key;type=key": the top-level keys of each type that affect how
+	 * it looks. Other types are sent without NBT and their changes are not streamed; "none" sends no NBT at all.
+	 */
+	public static final String BLOCK_ENTITY_NBT = string("blockEntityNbt", "sign=front_text,back_text;"
+		+ "hanging_sign=front_text,back_text;banner=patterns,CustomName;skull=profile,custom_name;"
+		+ "chest=Items;trapped_chest=Items;barrel=Items;shulker_box=Items;"
+		+ "furnace=Items;blast_furnace=Items;smoker=Items;campfire=Items;"
+		+ "lectern=Book;decorated_pot=sherds,item;chiseled_bookshelf=Items;jukebox=RecordItem;brushable_block=item");
+
+	/** Sections kept encoded across client joins (0 disables the cache); roughly 30-50 KB each. */
+	public static final int SECTION_CACHE_ENTRIES = Math.max(0, integer("sectionCacheEntries", 2048));
+	/** How long a cached section is kept after it leaves every client's window (its changes are tracked meanwhile). */
+	public static final long SECTION_CACHE_GRACE_MILLIS = Math.max(0, longValue("sectionCacheGraceMillis", 120_000L));
+
+	/** Directory /mr_record writes session recordings to (relative to the server directory). */
+	public static final String RECORD_DIR = string("recordDir", "streamer-recordings");
+	/** Ticks between keyframes in a session recording; a replay seek starts at the last one before its target. */
+	public static final int RECORD_KEYFRAME_TICKS = Math.max(1, integer("recordKeyframeTicks", 200));
+
+	private StreamerConfig() {}
+
+	static boolean bool(String name, boolean def) {
+		String value = System.getProperty(PREFIX + name);
+		return value != null ? Boolean.parseBoolean(value.trim()) : def;
+	}
+
+	static String string(String name, String def) {
+		String value = System.getProperty(PREFIX + name);
+		return value != null && !value.isBlank() ? value.trim() : def;
+	}
+
+	static int integer(String name, int def) {
+		String value = System.getProperty(PREFIX + name);
+		if (value == null) return def;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Ignoring invalid {}{}={}, using {}", PREFIX, name, value, def);
+			return def;
+		}
+	}
+
+	static long longValue(String name, long def) {
+		String value = System.getProperty(PREFIX + name);
+		if (value == null) return def;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Ignoring invalid {}{}={}, using {}", PREFIX, name, value, def);
+			return def;
+		}
+	}
+}
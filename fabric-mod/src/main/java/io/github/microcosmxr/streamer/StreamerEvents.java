@@ -0,0 +1,118 @@
+package io.github.microcosmxr.streamer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for the streamer, next to Minecraft's own tick events in a recording (e.g. jcmd &lt;pid&gt;
+ * JFR.start) so streamer cost can be lined up with MSPT. They cost an enabled-check unless a recording turns them on.
+ * Worker-side events carry their time as a field, since they are committed where {@link StreamerMetrics} measures.
+ */
+final class StreamerEvents {
+
+	private StreamerEvents() {}
+
+	@Name("microcosm.StreamerTick")
+	@Label("Streamer Tick")
+	@Category({"Microcosm", "Streamer"})
+	@Description("Game-thread time of the streamer at the end of a server tick")
+	@StackTrace(false)
+	static final class Tick extends Event {
+		@Label("Block Changes")
+		int deltas;
+		@Label("Clients")
+		int clients;
+		@Label("Region Streams")
+		int regionStreams;
+	}
+
+	@Name("microcosm.SectionSerialize")
+	@Label("Section Serialize")
+	@Category({"Microcosm", "Streamer"})
+	@Description("Translation of one captured section on a worker")
+	@StackTrace(false)
+	static final class SectionSerialize extends Event {
+		@Label("Chunk X")
+		int chunkX;
+		@Label("Section Index")
+		int sectionIndex;
+		@Label("Chunk Z")
+		int chunkZ;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+
+	@Name("microcosm.SectionEncode")
+	@Label("Section Encode")
+	@Category({"Microcosm", "Streamer"})
+	@Description("Encoding of one section frame in one wire format on a worker")
+	@StackTrace(false)
+	static final class SectionEncode extends Event {
+		@Label("Chunk X")
+		int chunkX;
+		@Label("Section Index")
+		int sectionIndex;
+		@Label("Chunk Z")
+		int chunkZ;
+		@Label("Message Type")
+		byte messageType;
+		@Label("Size")
+		@DataAmount
+		int bytes;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+
+	@Name("microcosm.StreamerClient")
+	@Label("Streamer Client")
+	@Category({"Microcosm", "Streamer"})
+	@Description("Outbound totals and queue depth of one connected client")
+	@Period("1 s")
+	@StackTrace(false)
+	static final class Client extends Event {
+		@Label("Address")
+		String address;
+		@Label("Frames Sent")
+		long framesSent;
+		@Label("Bytes Sent")
+		@DataAmount
+		long bytesSent;
+		@Label("Queued")
+		@DataAmount
+		long queuedBytes;
+		@Label("Being Encoded")
+		@DataAmount
+		long pendingEncodeBytes;
+	}
+
+	/** Emit a {@link Client} event per client of server every period, while it runs. */
+	static Runnable registerClients(StreamerServer server) {
+		Runnable hook = () -> {
+			for (StreamerWebSocketHandler client : server.getClients()) {
+				Client event = new Client();
+				event.address = String.valueOf(client.remoteAddress());
+				event.framesSent = client.outboundQueue().framesSent.get();
+				event.bytesSent = client.outboundQueue().bytesSent.get();
+				event.queuedBytes = client.outboundQueue().queuedBytes();
+				event.pendingEncodeBytes = client.pendingEncodeBytes();
+				event.commit();
+			}
+		};
+		FlightRecorder.addPeriodicEvent(Client.class, hook);
+		return hook;
+	}
+
+	static void unregisterClients(Runnable hook) {
+		FlightRecorder.removePeriodicEvent(hook);
+	}
+}
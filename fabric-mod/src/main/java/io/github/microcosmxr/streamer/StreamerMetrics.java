@@ -0,0 +1,204 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on streamer counters, read by /mr_stats ({@link MrStatsCommand}). Everything is a {@link LongAdder}: recording
+ * from many client lanes at once touches per-thread cells instead of one contended word, so measuring a hot path costs
+ * it a few nanoseconds. Readers sum the cells, so a snapshot taken while lanes are running is approximate.
+ * <p>
+ * The same points also emit JFR events ({@link StreamerEvents}), which cost nothing unless a recording enables them.
+ */
+final class StreamerMetrics {
+
+	/** Sections translated from a capture (once per section, however many clients get it). */
+	static final LongAdder sectionsSerialized = new LongAdder();
+	/** Section frames (full, LOD and hidden markers) handed to connections, summed over clients. */
+	static final LongAdder sectionsSent = new LongAdder();
+	/** Frames and bytes handed to connections by message type; COMPRESSED frames count under the type they carry. */
+	private static final LongAdder[] framesByType = adders(256);
+	private static final LongAdder[] bytesByType = adders(256);
+	private static final LongAdder textFrames = new LongAdder();
+	private static final LongAdder textBytes = new LongAdder();
+
+	/** Worker time to translate one section capture. */
+	static final Histogram serializeNanos = new Histogram();
+	/** Worker time to encode one section frame (full or LOD, once per format). */
+	static final Histogram encodeNanos = new Histogram();
+	/** Game-thread time of one {@link StreamerServer#tick()}: deltas, region streams, LOD refresh, entities, pumps. */
+	static final Histogram tickNanos = new Histogram();
+	/** Block changes flushed per tick (ticks with none included). */
+	static final Histogram deltasPerTick = new Histogram();
+
+	private StreamerMetrics() {}
+
+	static void serialized(int cx, int sy, int cz, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		sectionsSerialized.increment();
+		serializeNanos.record(nanos);
+		StreamerEvents.SectionSerialize event = new StreamerEvents.SectionSerialize();
+		if (event.shouldCommit()) {
+			event.chunkX = cx;
+			event.sectionIndex = sy;
+			event.chunkZ = cz;
+			event.time = nanos;
+			event.commit();
+		}
+	}
+
+	/** Record an encode started at startNanos and pass its frame through. */
+	static EncodedFrame encoded(EncodedFrame frame, int cx, int sy, int cz, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		encodeNanos.record(nanos);
+		StreamerEvents.SectionEncode event = new StreamerEvents.SectionEncode();
+		if (frame != null && event.shouldCommit()) {
+			event.chunkX = cx;
+			event.sectionIndex = sy;
+			event.chunkZ = cz;
+			event.messageType = frame.contentType();
+			event.bytes = frame.size();
+			event.time = nanos;
+			event.commit();
+		}
+		return frame;
+	}
+
+	/** A frame handed to a connection by {@link OutboundQueue}; section says it is a section snapshot. */
+	static void sent(EncodedFrame frame, boolean section) {
+		int type = frame.contentType() & 0xFF;
+		framesByType[type].increment();
+		bytesByType[type].add(frame.size());
+		if (section) sectionsSent.increment();
+	}
+
+	static void sentText(int bytes) {
+		textFrames.increment();
+		textBytes.add(bytes);
+	}
+
+	/** End of a streamer tick that began with event.begin() at startNanos. */
+	static void tick(StreamerEvents.Tick event, long startNanos, int deltas, int clients, int regionStreams) {
+		tickNanos.record(System.nanoTime() - startNanos);
+		deltasPerTick.record(deltas);
+		if (event.shouldCommit()) {
+			event.deltas = deltas;
+			event.clients = clients;
+			event.regionStreams = regionStreams;
+			event.commit();
+		}
+	}
+
+	static long framesSent(int type) {
+		return framesByType[type].sum();
+	}
+
+	static long bytesSent(int type) {
+		return bytesByType[type].sum();
+	}
+
+	static long textFramesSent() {
+		return textFrames.sum();
+	}
+
+	static long textBytesSent() {
+		return textBytes.sum();
+	}
+
+	/** Name of a message type for reports (README "Protocol"). */
+	static String typeName(int type) {
+		return switch (type) {
+			case ProtocolEncoder.MSG_HELLO -> "HELLO";
+			case ProtocolEncoder.MSG_SET_ORIGIN -> "SET_ORIGIN";
+			case ProtocolEncoder.MSG_CHUNK_SECTION_SNAPSHOT -> "CHUNK_SECTION_SNAPSHOT";
+			case ProtocolEncoder.MSG_BLOCK_DELTA -> "BLOCK_DELTA";
+			case ProtocolEncoder.MSG_BLOCK_ENTITY -> "BLOCK_ENTITY";
+			case ProtocolEncoder.MSG_ENTITY_SPAWN -> "ENTITY_SPAWN";
+			case ProtocolEncoder.MSG_BLOCK_DELTA_BATCH -> "BLOCK_DELTA_BATCH";
+			case ProtocolEncoder.MSG_CHUNK_SECTION_COMPACT -> "CHUNK_SECTION_COMPACT";
+			case ProtocolEncoder.MSG_ID_TABLE -> "ID_TABLE";
+			case ProtocolEncoder.MSG_BLOCK_DELTA_IDS -> "BLOCK_DELTA_IDS";
+			case ProtocolEncoder.MSG_SECTIONS_UNCHANGED -> "SECTIONS_UNCHANGED";
+			case ProtocolEncoder.MSG_ENTITY_UPDATE -> "ENTITY_UPDATE";
+			case ProtocolEncoder.MSG_ENTITY_DESPAWN -> "ENTITY_DESPAWN";
+			case ProtocolEncoder.MSG_SECTIONS_UNLOAD -> "SECTIONS_UNLOAD";
+			case ProtocolEncoder.MSG_SECTION_LOD -> "SECTION_LOD";
+			case ProtocolEncoder.MSG_COLUMN_SUMMARY -> "COLUMN_SUMMARY";
+			case ProtocolEncoder.MSG_SECTION_HIDDEN -> "SECTION_HIDDEN";
+			default -> "type " + type;
+		};
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Power-of-two histogram of non-negative values: bucket b counts values in [2^(b-1), 2^b), so percentiles are upper
+	 * bounds within a factor of two. Recording is one bucket, count and sum increment, all striped.
+	 */
+	static final class Histogram {
+
+		private static final int BUCKETS = 48;
+
+		private final LongAdder[] buckets = adders(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+
+		void record(long value) {
+			int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, value));
+			buckets[Math.min(bucket, BUCKETS - 1)].increment();
+			count.increment();
+			sum.add(value);
+		}
+
+		long count() {
+			return count.sum();
+		}
+
+		long sum() {
+			return sum.sum();
+		}
+
+		/** Upper bound of the value below which fraction p (0 to 1) of the recorded values fall; 0 if none. */
+		long percentile(double p) {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				counts[b] = buckets[b].sum();
+				total += counts[b];
+			}
+			if (total == 0) return 0;
+			long rank = (long) Math.ceil(p * total);
+			long seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += counts[b];
+				if (seen >= rank && counts[b] > 0) return 1L << b;
+			}
+			return 1L << (BUCKETS - 1);
+		}
+
+		/** e.g. "1234 × mean 56.7 µs, p50 < 64.0 µs, p99 < 512.0 µs" for nanosecond values. */
+		String describeNanos() {
+			long n = count();
+			if (n == 0) return "none";
+			return n + " × mean " + micros(sum() / n) + ", p50 < " + micros(percentile(0.5)) + ", p99 < "
+				+ micros(percentile(0.99)) + ", max < " + micros(percentile(1));
+		}
+
+		/** e.g. "1200 × mean 3.2, p50 < 4, p99 < 64" for counts. */
+		String describeCounts() {
+			long n = count();
+			if (n == 0) return "none";
+			return n + " × mean " + String.format("%.1f", (double) sum() / n) + ", p50 < " + percentile(0.5) + ", p99 < "
+				+ percentile(0.99) + ", max < " + percentile(1);
+		}
+
+		private static String micros(long nanos) {
+			return nanos >= 10_000_000 ? String.format("%.1f ms", nanos / 1_000_000.0) : String.format("%.1f µs", nanos / 1_000.0);
+		}
+	}
+}
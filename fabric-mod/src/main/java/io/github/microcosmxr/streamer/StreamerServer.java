@@ -1,15 +1,30 @@
 package io.github.microcosmxr.streamer;
 
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * WebSocket server that streams chunk/block data to connected clients (e.g. Unity).
- * Runs on the game thread when sending; accepts connections on a background thread.
+ * Frames are produced on the game thread and translated/encoded/sent on a small worker pool (see StreamerWorkers);
+ * accepts connections on a background thread.
  */
 public class StreamerServer {
 
@@ -18,30 +33,243 @@ public class StreamerServer {
 	private final List<StreamerWebSocketHandler> clients = new CopyOnWriteArrayList<>();
 	private StreamerWebSocketServer wsServer;
 	private Thread wsThread;
-	private volatile int originX;
-	private volatile int originY;
-	private volatile int originZ;
+	private StreamerWorkers workers;
+	/** Region streams for joining clients; touched on the game thread only. */
+	private final RegionStreamScheduler regionStreams = new RegionStreamScheduler();
+	/** Chunk loads region streams are waiting on, across all of them; game thread only. */
+	private final RegionChunkLoads chunkLoads = new RegionChunkLoads();
+	/** Block changes buffered during the tick; touched on the game thread only. */
+	private final BlockDeltaBatcher deltaBatcher = new BlockDeltaBatcher();
+	/** Block entities that changed during the tick, and the hashes of what was broadcast (see BlockEntityUpdates). */
+	private final BlockEntityUpdates blockEntities = new BlockEntityUpdates();
+	/** View every client starts in, moved by /mr_start; touched on the game thread only. */
+	private final StreamView defaultView;
+	/** Which clients watch each chunk column, for routing changes; touched on the game thread only. */
+	private final SubscriberIndex subscribers = new SubscriberIndex();
+	/** A client's window changed since {@link WatchedSections} was last rebuilt; game thread only. */
+	private boolean watchedDirty;
+	/**
+	 * Far-field sections (keys as in {@link SectionFrameCache}: section index, not world y) changed since the last LOD
+	 * refresh, per level; game thread only.
+	 */
+	private final Map<ServerLevel, LongOpenHashSet> lodDirty = new IdentityHashMap<>();
+	private int ticksSinceLodRefresh;
+	private int ticksSinceCacheExpiry;
+	/**
+	 * Sections some "surface" client was sent as SECTION_HIDDEN (keys as in lodDirty), per level, and those of them a
+	 * see-through block next to or inside them has uncovered this tick; game thread only.
+	 */
+	private final Map<ServerLevel, LongOpenHashSet> hiddenSections = new IdentityHashMap<>();
+	private final Map<ServerLevel, LongOpenHashSet> revealed = new IdentityHashMap<>();
+	/** Encoded sections reused across client joins. */
+	private final SectionFrameCache sectionCache = new SectionFrameCache();
+	private IdTable idTable;
+	private boolean idTableFailed;
+	/** Periodic JFR hook for per-client events while running (see {@link StreamerEvents}). */
+	private Runnable clientEvents;
+	/** Session recording waiting for the next client, or recording it (/mr_record); changed under this. */
+	private SessionRecorder recorder;
+	private volatile StreamerWebSocketHandler recordedClient;
 	private static final double DEFAULT_SCALE = 0.2;
 
 	public StreamerServer(MinecraftServer server, int port) {
 		this.server = server;
 		this.port = port;
-		this.originX = 0;
-		this.originY = 64;
-		this.originZ = 0;
+		this.defaultView = new StreamView(this, true, server.overworld(), 0, 64, 0, StreamerConfig.CHUNK_RADIUS, StreamerConfig.SECTION_RANGE,
+			StreamerConfig.LOD_RADIUS);
 	}
 
+	/**
+	 * Move the stream origin within its current dimension (game thread).
+	 */
 	public void setOrigin(int x, int y, int z) {
-		this.originX = x;
-		this.originY = y;
-		this.originZ = z;
+		setOrigin(defaultView.level() != null ? defaultView.level() : server.overworld(), x, y, z);
+	}
+
+	/**
+	 * Move the stream origin to (x, y, z) in level (game thread). Every client whose view follows it gets SET_ORIGIN, then
+	 * only the difference between its old and new {@link StreamWindow}: sections that left go out as one SECTIONS_UNLOAD
+	 * (protocol 2 clients; all of them when the dimension changes), sections that entered are streamed like a join. A
+	 * client still in its first region stream starts over around the new origin. Clients with a VIEW of their own stay
+	 * where they are.
+	 */
+	public void setOrigin(ServerLevel level, int x, int y, int z) {
+		defaultView.moveTo(level, x, y, z);
+		// Clients moved from the same window share the unload frame
+		Map<UnloadKey, Unload> unloads = new HashMap<>();
+		for (StreamerWebSocketHandler client : clients) {
+			StreamView view = client.view();
+			if (view == null || !view.follows) continue;
+			if (view != defaultView) view.moveTo(level, x, y, z);
+			moveClient(client, unloads);
+		}
+	}
+
+	/** Origin of the shared view (game thread). */
+	public int getOriginX() { return defaultView.originX(); }
+	public int getOriginY() { return defaultView.originY(); }
+	public int getOriginZ() { return defaultView.originZ(); }
+
+	/** Level of the shared view (game thread). */
+	public ServerLevel getOriginLevel() { return defaultView.level(); }
+
+	/** Id of level's dimension as sent in SET_ORIGIN and accepted in VIEW dim=, e.g. "minecraft:the_nether". */
+	static String dimensionId(ServerLevel level) {
+		return level.dimension().identifier().toString();
+	}
+
+	/** Loaded level with that dimension id, or null. */
+	private ServerLevel levelById(String id) {
+		for (ServerLevel level : server.getAllLevels()) {
+			if (dimensionId(level).equals(id)) return level;
+		}
+		return null;
+	}
+
+	/**
+	 * A client's VIEW request (any thread): on the game thread, give it a view of its own (at x, y, z, or following the
+	 * shared origin) with the given radii, and stream the difference as for an origin move. "VIEW follow" without radii
+	 * returns the client to the shared view. dimension (null: the client's current one) only applies to an own origin.
+	 */
+	void requestView(StreamerWebSocketHandler client, boolean follows, String dimension, int x, int y, int z, int chunkRadius,
+	                 int sectionRange, int lodRadius) {
+		server.execute(() -> {
+			if (!client.isOpen()) return;
+			ServerLevel level = client.view() != null ? client.view().level() : defaultView.level();
+			if (dimension != null) {
+				level = levelById(dimension);
+				if (level == null) {
+					MicrocosmStreamerMod.LOGGER.warn("Ignoring VIEW for unknown dimension {}", dimension);
+					return;
+				}
+			}
+			StreamView view;
+			if (follows && chunkRadius == StreamerConfig.CHUNK_RADIUS && sectionRange == StreamerConfig.SECTION_RANGE
+				&& lodRadius == StreamerConfig.LOD_RADIUS) {
+				view = defaultView;
+			} else if (follows) {
+				view = new StreamView(this, true, defaultView.level(), defaultView.originX(), defaultView.originY(), defaultView.originZ(),
+					chunkRadius, sectionRange, lodRadius);
+			} else {
+				view = new StreamView(this, false, level, x, y, z, chunkRadius, sectionRange, lodRadius);
+			}
+			StreamView old = client.view();
+			if (old != null && old != view) old.entities().removeWatcher(client);
+			client.setView(view);
+			moveClient(client, new HashMap<>());
+			StreamWindow window = view.window();
+			MicrocosmStreamerMod.LOGGER.info("Streamer client view: {} {} {} in {}, radius {} chunks (LOD {}), {} sections up/down{}",
+				view.originX(), view.originY(), view.originZ(), dimensionId(view.level()), window.chunkRadius(), window.lodRadius(),
+				window.sectionRange(), follows ? " (follows origin)" : "");
+		});
+	}
+
+	/**
+	 * SET_ORIGIN for the client's view, then unload and stream the difference between its current window and the view's
+	 * (game thread). With no region stream yet, the join's stream picks up the view when it starts.
+	 */
+	private void moveClient(StreamerWebSocketHandler client, Map<UnloadKey, Unload> unloads) {
+		StreamView view = client.view();
+		client.sendSetOrigin(view.originX(), view.originY(), view.originZ(), DEFAULT_SCALE, dimensionId(view.level()));
+		StreamWindow current = client.window();
+		StreamWindow next = view.window();
+		if (next == null || current == null) return;
+		// A stream cut short by this move leaves the client with only part of its window
+		StreamRegionTask cutShort = regionStreams.cancel(client);
+		HeldRegion held = cutShort != null ? cutShort.held() : HeldRegion.complete(current);
+		if (client.protocolVersion() >= 2) {
+			Unload unload = unloads.computeIfAbsent(new UnloadKey(current, client.supports(ProtocolFeature.LOD)), k -> {
+				int[] sections = k.from().sectionsNotIn(next, k.lod());
+				return new Unload(sections, sections.length > 0 ? ProtocolEncoder.sectionsUnload(sections, sections.length / 3) : null);
+			});
+			client.sendSectionsUnload(unload.sections(), unload.frame());
+		}
+		regionStreams.add(new StreamRegionTask(this, client, next, held));
+	}
+
+	/**
+	 * client replied to HELLO (WebSocket thread). A region stream that started without the reply (it came after
+	 * helloTimeoutMillis) went out as to a protocol 1 client; what it sent stays valid, later frames follow the negotiated
+	 * format, and the same window is streamed again for what "lod" (the far field) and "entities" (tracking) add.
+	 */
+	void onNegotiated(StreamerWebSocketHandler client) {
+		boolean lod = client.supports(ProtocolFeature.LOD);
+		if (!lod && !client.supports(ProtocolFeature.ENTITIES)) return;
+		server.execute(() -> {
+			StreamWindow window = client.window();
+			if (!client.isOpen() || window == null) return;
+			StreamRegionTask running = regionStreams.find(client);
+			// Not started yet: it streams with the negotiated features from the start
+			if (running != null && !running.hasStarted()) return;
+			if (running == null && !lod && client.isWatchingEntities()) return;
+			HeldRegion held = running != null ? regionStreams.cancel(client).held() : HeldRegion.complete(window);
+			regionStreams.add(new StreamRegionTask(this, client, window, lod ? held.withoutFarField() : held));
+			MicrocosmStreamerMod.LOGGER.info("Streamer client replied to HELLO after its region stream started; streaming what its features add");
+		});
+	}
+
+	/** Clients leaving the same window share an unload frame if they also hold the same far field. */
+	private record UnloadKey(StreamWindow from, boolean lod) {}
+
+	/** The sections (cx, cz, sy triples) leaving a window and their SECTIONS_UNLOAD frame (null when none leave). */
+	private record Unload(int[] sections, EncodedFrame frame) {}
+
+	/**
+	 * Record that client's stream now covers window (game thread): block changes and snapshots in it are routed to it.
+	 * {@link WatchedSections} follows at the start of the next tick, before the region stream captures anything.
+	 */
+	void watch(StreamerWebSocketHandler client, StreamWindow window) {
+		subscribers.move(client, client.window(), window);
+		client.setWindow(window);
+		watchedDirty = true;
+	}
+
+	/**
+	 * Rebuild {@link WatchedSections} from the clients' windows and the sections still cached, and start the grace period
+	 * of cached sections no client watches any more: their changes stay tracked until they expire.
+	 */
+	private void rebuildWatched() {
+		watchedDirty = false;
+		List<StreamWindow> windows = new ArrayList<>(clients.size());
+		for (StreamerWebSocketHandler client : clients) {
+			windows.add(client.window());
+		}
+		WatchedSections.rebuild(windows, sectionCache.sections());
+		sectionCache.retainWatched(System.nanoTime());
+		blockEntities.retainWatched();
+		for (Map.Entry<ServerLevel, LongOpenHashSet> entry : hiddenSections.entrySet()) {
+			ServerLevel level = entry.getKey();
+			int minY = level.dimensionType().minY();
+			for (LongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+				long key = it.nextLong();
+				if (!WatchedSections.contains(level, SectionPos.x(key) << 4, minY + (SectionPos.y(key) << 4), SectionPos.z(key) << 4)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/** Record that section (cx, sy, cz) of level went out as SECTION_HIDDEN (game thread). */
+	void markHidden(ServerLevel level, int cx, int sy, int cz) {
+		hiddenSections.computeIfAbsent(level, l -> new LongOpenHashSet()).add(SectionPos.asLong(cx, sy, cz));
+	}
+
+	/** Whether section (cx, sy, cz) of level went out as SECTION_HIDDEN and has not been uncovered since (game thread). */
+	boolean wasSentHidden(ServerLevel level, int cx, int sy, int cz) {
+		LongOpenHashSet hidden = hiddenSections.get(level);
+		return hidden != null && hidden.contains(SectionPos.asLong(cx, sy, cz));
+	}
+
+	/** Clients whose window covers column (cx, cz) of level (game thread); check the section height per client. */
+	List<StreamerWebSocketHandler> subscribers(ServerLevel level, int cx, int cz) {
+		return subscribers.subscribers(level, cx, cz);
 	}
 
-	public int getOriginX() { return originX; }
-	public int getOriginY() { return originY; }
-	public int getOriginZ() { return originZ; }
 
 	public void start() {
+		workers = new StreamerWorkers(StreamerConfig.ENCODE_THREADS);
+		blockEntities.start(workers.newLane());
+		clientEvents = StreamerEvents.registerClients(this);
 		try {
 			wsServer = new StreamerWebSocketServer(new InetSocketAddress(port), server, this);
 			wsServer.setReuseAddr(true);
@@ -62,33 +290,332 @@ public class StreamerServer {
 			}
 			wsServer = null;
 		}
+		if (clientEvents != null) {
+			StreamerEvents.unregisterClients(clientEvents);
+			clientEvents = null;
+		}
+		stopRecording();
 		clients.clear();
+		regionStreams.clear();
+		deltaBatcher.clear();
+		MicrocosmStreamerMod.LOGGER.info("Block entities: {}", blockEntities.describe());
+		blockEntities.clear();
+		subscribers.clear();
+		lodDirty.clear();
+		hiddenSections.clear();
+		revealed.clear();
+		WatchedSections.clear();
+		EntityTracker entityTracker = defaultView.entities();
+		MicrocosmStreamerMod.LOGGER.info("Entity tracker: {} spawns, {} updates, {} despawns sent", entityTracker.spawnsSent,
+			entityTracker.updatesSent, entityTracker.despawnsSent);
+		entityTracker.clear();
+		MicrocosmStreamerMod.LOGGER.info("Section cache: {}", sectionCache.describe());
+		sectionCache.clear();
+		if (workers != null) {
+			workers.shutdown();
+			workers = null;
+		}
+	}
+
+	/**
+	 * Record the session of the next client to connect into a {@link SessionLog} at path, until it disconnects or
+	 * {@link #stopRecording} (any thread). Fails if a recording is already armed or running.
+	 */
+	synchronized SessionRecorder startRecording(Path path) throws IOException {
+		if (recorder != null) throw new IOException("Already recording to " + recorder.path);
+		recorder = new SessionRecorder(path);
+		MicrocosmStreamerMod.LOGGER.info("Recording the next streamer client to connect to {}", path);
+		return recorder;
+	}
+
+	/** Stop and close the current recording (any thread); returns it, or null if there was none. */
+	synchronized SessionRecorder stopRecording() {
+		SessionRecorder stopped = recorder;
+		if (stopped == null) return null;
+		if (recordedClient != null) recordedClient.setRecorder(null);
+		recorder = null;
+		recordedClient = null;
+		stopped.close();
+		return stopped;
+	}
+
+	/** The current recording and whether its client has connected, for /mr_record. */
+	synchronized SessionRecorder recording() {
+		return recorder;
+	}
+
+	synchronized boolean isRecordingClient() {
+		return recordedClient != null;
+	}
+
+	/** Attach an armed recording to a client that just connected, before anything is sent to it. */
+	private synchronized void attachRecorder(StreamerWebSocketHandler client) {
+		if (recorder == null || recordedClient != null) return;
+		recordedClient = client;
+		client.setRecorder(recorder);
+		MicrocosmStreamerMod.LOGGER.info("Recording streamer client {} to {}", client.remoteAddress(), recorder.path);
+	}
+
+	SectionFrameCache sectionCache() {
+		return sectionCache;
+	}
+
+	BlockEntityUpdates blockEntities() {
+		return blockEntities;
+	}
+
+	RegionChunkLoads chunkLoads() {
+		return chunkLoads;
+	}
+
+	/** Numeric id table for this server's registries, built on first use (null if it cannot be built). */
+	synchronized IdTable idTable() {
+		if (idTable == null && !idTableFailed) {
+			idTable = IdTable.build(server.registryAccess());
+			idTableFailed = idTable == null;
+		}
+		return idTable;
+	}
+
+	/** Ordered outbound lane for a new client on the encode worker pool (inline if the pool is not running). */
+	Executor newOutboundLane() {
+		StreamerWorkers w = workers;
+		return w != null ? w.newLane() : Runnable::run;
 	}
 
 	void onOpen(StreamerWebSocketHandler client) {
+		attachRecorder(client);
 		clients.add(client);
 		MicrocosmStreamerMod.LOGGER.info("Streamer client connected (total: {})", clients.size());
-		// Send HELLO + SET_ORIGIN immediately
+		// Send HELLO immediately; SET_ORIGIN and the region stream for the client's view follow on the game thread
 		client.sendHello();
-		client.sendSetOrigin(originX, originY, originZ, DEFAULT_SCALE);
-		// Stream chunk region on next server tick (must run on game thread)
-		server.execute(() -> StreamRegionTask.streamRegionToClient(server, this, client));
+		server.execute(() -> {
+			if (client.view() == null) client.setView(defaultView);
+			StreamView view = client.view();
+			client.sendSetOrigin(view.originX(), view.originY(), view.originZ(), DEFAULT_SCALE, dimensionId(view.level()));
+			// Stream chunk region over the next ticks, within the per-tick budget
+			StreamWindow window = view.window();
+			if (window != null && client.window() == null) regionStreams.add(new StreamRegionTask(this, client, window, null));
+		});
+	}
+
+	/** Called at the end of every server tick (game thread). */
+	public void tick() {
+		long start = System.nanoTime();
+		StreamerEvents.Tick event = new StreamerEvents.Tick();
+		event.begin();
+		if (++ticksSinceCacheExpiry >= 20) {
+			ticksSinceCacheExpiry = 0;
+			// Sections whose grace period ran out need no tracking any more
+			if (sectionCache.expire(start)) watchedDirty = true;
+		}
+		if (watchedDirty) rebuildWatched();
+		// Uncovered sections go out before this tick's deltas, which clients would otherwise drop for a hidden section
+		if (!revealed.isEmpty()) sendRevealed();
+		int deltas = deltaBatcher.flush(this);
+		blockEntities.flush(this);
+		regionStreams.tick();
+		if (++ticksSinceLodRefresh >= StreamerConfig.LOD_REFRESH_TICKS) {
+			ticksSinceLodRefresh = 0;
+			refreshLod();
+		}
+		defaultView.entities().tick();
+		for (StreamerWebSocketHandler client : clients) {
+			StreamView view = client.view();
+			if (view != null && view != defaultView) view.entities().tick();
+		}
+		// Frames left queued because a connection's write buffer was full go out as it drains
+		for (StreamerWebSocketHandler client : clients) {
+			client.pumpOutbound();
+		}
+		StreamerWebSocketHandler recorded = recordedClient;
+		SessionRecorder r = recorded != null ? recorded.recorder() : null;
+		if (r != null) r.tick();
+		StreamerMetrics.tick(event, start, deltas, clients.size(), regionStreams.size());
+	}
+
+	public boolean hasClients() {
+		return !clients.isEmpty();
+	}
+
+	List<StreamerWebSocketHandler> getClients() {
+		return clients;
+	}
+
+	/** Clients still in a region stream (game thread). */
+	int regionStreamCount() {
+		return regionStreams.size();
+	}
+
+	/** A block changed in a watched column (game thread): batched until end of tick, or sent now if batching is off. */
+	public void onBlockChanged(ServerLevel level, int x, int y, int z, BlockState newState) {
+		if (StreamerConfig.LOD) markLodDirty(level, x, y, z);
+		if (!hiddenSections.isEmpty() && !SectionSurface.isOpaque(newState)) reveal(level, x, y, z);
+		if (StreamerConfig.DELTA_BATCHING) {
+			deltaBatcher.record(level, x, y, z, newState);
+		} else {
+			broadcastBlockDelta(level, x, y, z, ChunkSerializer.blockStateToString(level.registryAccess(), newState));
+		}
+	}
+
+	/** A block entity in a watched section called setChanged (game thread): re-sent at end of tick if clients see a change. */
+	public void onBlockEntityChanged(ServerLevel level, BlockEntity blockEntity) {
+		blockEntities.record(level, blockEntity);
+	}
+
+	/**
+	 * A see-through block at (x, y, z) can uncover the section it is in and, on a section face, the neighbour across it:
+	 * those that went out hidden are sent in full at the start of the next tick.
+	 */
+	private void reveal(ServerLevel level, int x, int y, int z) {
+		LongOpenHashSet hidden = hiddenSections.get(level);
+		if (hidden == null) return;
+		int cx = x >> 4;
+		int cz = z >> 4;
+		int ly = y - level.dimensionType().minY();
+		int sy = ly >> 4;
+		reveal(level, hidden, cx, sy, cz);
+		if ((ly & 15) == 0) reveal(level, hidden, cx, sy - 1, cz);
+		if ((ly & 15) == 15) reveal(level, hidden, cx, sy + 1, cz);
+		if ((z & 15) == 0) reveal(level, hidden, cx, sy, cz - 1);
+		if ((z & 15) == 15) reveal(level, hidden, cx, sy, cz + 1);
+		if ((x & 15) == 0) reveal(level, hidden, cx - 1, sy, cz);
+		if ((x & 15) == 15) reveal(level, hidden, cx + 1, sy, cz);
+	}
+
+	private void reveal(ServerLevel level, LongOpenHashSet hidden, int cx, int sy, int cz) {
+		long key = SectionPos.asLong(cx, sy, cz);
+		if (hidden.remove(key)) revealed.computeIfAbsent(level, l -> new LongOpenHashSet()).add(key);
+	}
+
+	/** Capture every revealed section and send it to the clients whose window holds it (game thread). */
+	private void sendRevealed() {
+		for (Map.Entry<ServerLevel, LongOpenHashSet> entry : revealed.entrySet()) {
+			ServerLevel level = entry.getKey();
+			for (LongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+				long key = it.nextLong();
+				ChunkAccess chunk = level.getChunkSource().getChunkNow(SectionPos.x(key), SectionPos.z(key));
+				if (chunk != null) broadcastSection(level, chunk, SectionPos.y(key));
+			}
+		}
+		revealed.clear();
+	}
+
+	/** Remember the block's section for the next LOD refresh if some "lod" client holds its column as far field. */
+	private void markLodDirty(ServerLevel level, int x, int y, int z) {
+		int cx = x >> 4;
+		int cz = z >> 4;
+		for (StreamerWebSocketHandler client : subscribers(level, cx, cz)) {
+			if (client.supports(ProtocolFeature.LOD) && client.window().detail(cx, cz) > 0) {
+				int sy = (y - level.dimensionType().minY()) >> 4;
+				lodDirty.computeIfAbsent(level, l -> new LongOpenHashSet()).add(SectionPos.asLong(cx, sy, cz));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Re-send the far field changed since the last refresh (game thread, every lodRefreshTicks): each dirty section is
+	 * captured once and sent as SECTION_LOD at every level "lod" clients hold it at, each dirty summary column is
+	 * captured once and sent as COLUMN_SUMMARY. Far-field blocks are not sent as deltas, so a column that keeps changing
+	 * costs at most one capture per refresh. Chunks unloaded since are skipped.
+	 */
+	private void refreshLod() {
+		if (lodDirty.isEmpty()) return;
+		for (Map.Entry<ServerLevel, LongOpenHashSet> entry : lodDirty.entrySet()) {
+			ServerLevel level = entry.getKey();
+			LongOpenHashSet summarized = new LongOpenHashSet();
+			for (LongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+				long key = it.nextLong();
+				int cx = SectionPos.x(key);
+				int sy = SectionPos.y(key);
+				int cz = SectionPos.z(key);
+				ChunkAccess chunk = level.getChunkSource().getChunkNow(cx, cz);
+				if (chunk == null) continue;
+				boolean summaryDone = summarized.contains(ChunkPos.asLong(cx, cz));
+				SectionFrames frames = null;
+				ColumnSummary summary = null;
+				for (StreamerWebSocketHandler client : subscribers(level, cx, cz)) {
+					if (!client.supports(ProtocolFeature.LOD)) continue;
+					StreamWindow window = client.window();
+					if (window.detail(cx, cz) == StreamWindow.SUMMARY) {
+						if (summaryDone) continue;
+						if (summary == null) summary = ColumnSummary.capture(level, chunk);
+						client.sendColumnSummary(summary);
+						continue;
+					}
+					int lod = window.sectionDetail(cx, sy, cz);
+					if (lod < 1) continue;
+					if (frames == null) frames = captureSection(level, chunk, sy);
+					client.sendLodSection(frames, lod);
+				}
+				if (summary != null) summarized.add(ChunkPos.asLong(cx, cz));
+			}
+		}
+		lodDirty.clear();
 	}
 
 	void onClose(StreamerWebSocketHandler client) {
 		clients.remove(client);
-		MicrocosmStreamerMod.LOGGER.info("Streamer client disconnected (remaining: {})", clients.size());
+		if (client.recorder() != null) stopRecording();
+		server.execute(() -> watch(client, null));
+		MicrocosmStreamerMod.LOGGER.info("Streamer client disconnected (remaining: {}; {})", clients.size(), client.describeOutbound());
+		client.outboundQueue().clear();
 	}
 
-	public void broadcastChunkSectionSnapshot(int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap) {
-		for (StreamerWebSocketHandler client : clients) {
-			client.sendChunkSectionSnapshot(cx, cz, sy, snap);
+	/**
+	 * Encoded once per wire format, on the first client lane that needs it; clients of that format share the frame. Sent
+	 * only to clients whose window (in level) covers the section.
+	 */
+	public void broadcastChunkSectionSnapshot(ServerLevel level, int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap) {
+		List<StreamerWebSocketHandler> watching = subscribers(level, cx, cz);
+		if (watching.isEmpty()) return;
+		SectionFrames frames = new SectionFrames(cx, cz, sy, () -> snap);
+		for (StreamerWebSocketHandler client : watching) {
+			if (client.window().containsSection(cx, sy, cz)) client.sendSection(frames);
+		}
+	}
+
+	/**
+	 * Like broadcastChunkSectionSnapshot, but translation also happens off the game thread (once for all clients).
+	 * Captures section sy of chunk now ({@link #captureSection}, game thread), replacing its entry in the section cache.
+	 * Sent only to clients whose window covers the section.
+	 */
+	void broadcastSection(ServerLevel level, ChunkAccess chunk, int sy) {
+		SectionFrames frames = captureSection(level, chunk, sy);
+		for (StreamerWebSocketHandler client : subscribers(level, frames.cx, frames.cz)) {
+			if (client.window().containsSection(frames.cx, frames.sy, frames.cz)) client.sendSection(frames);
+		}
+	}
+
+	/**
+	 * Capture section sy of chunk (game thread) and cache it, unless a block or light change to it lands before the entry
+	 * is stored (see {@link SectionFrameCache#version}).
+	 */
+	SectionFrames captureSection(ServerLevel level, ChunkAccess chunk, int sy) {
+		long version = sectionCache.version(level, chunk.getPos().x, chunk.getPos().z, sy);
+		SectionFrames frames = SectionFrames.capture(level, chunk, sy);
+		sectionCache.put(level, frames, version);
+		return frames;
+	}
+
+	/** BLOCK_DELTA to clients whose window (in level) covers the block. */
+	public void broadcastBlockDelta(ServerLevel level, int x, int y, int z, String blockStateId) {
+		List<StreamerWebSocketHandler> watching = subscribers(level, x >> 4, z >> 4);
+		if (watching.isEmpty()) return;
+		EncodedFrame frame = ProtocolEncoder.blockDelta(x, y, z, blockStateId);
+		if (frame == null) return;
+		int sy = (y - level.dimensionType().minY()) >> 4;
+		for (StreamerWebSocketHandler client : watching) {
+			if (client.window().containsSection(x >> 4, sy, z >> 4)) client.sendSectionDelta(x >> 4, z >> 4, sy, frame);
 		}
 	}
 
-	public void broadcastBlockDelta(int x, int y, int z, String blockStateId) {
+	/** Send one shared frame to every client. */
+	public void broadcastFrame(EncodedFrame frame) {
+		if (frame == null) return;
 		for (StreamerWebSocketHandler client : clients) {
-			client.sendBlockDelta(x, y, z, blockStateId);
+			client.sendFrame(frame);
 		}
 	}
 }
@@ -1,146 +1,436 @@
 package io.github.microcosmxr.streamer;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketListener;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
- * Encodes and sends protocol messages to a single WebSocket client.
- * Protocol: text for HELLO/SET_ORIGIN (easy to debug), binary for CHUNK_SECTION_SNAPSHOT and BLOCK_DELTA.
+ * Sends protocol messages to a single WebSocket client (encoding lives in {@link ProtocolEncoder}).
+ * Protocol: text for HELLO/SET_ORIGIN (easy to debug), binary for sections, deltas and entities; the section format
+ * follows the version negotiated in HELLO.
+ * Every frame goes through this client's outbound lane (see {@link SerialExecutor}), so frames keep the order in which
+ * they were queued even when snapshots are translated and encoded on the worker pool, and then waits in a bounded
+ * {@link OutboundQueue} until the connection can take it.
  */
 public class StreamerWebSocketHandler {
 
-	private static final String PROTOCOL_VERSION = "1";
-	private static final byte MSG_HELLO = 0;
-	private static final byte MSG_SET_ORIGIN = 1;
-	private static final byte MSG_CHUNK_SECTION_SNAPSHOT = 2;
-	private static final byte MSG_BLOCK_DELTA = 3;
-	private static final byte MSG_BLOCK_ENTITY = 4;
-	private static final byte MSG_ENTITY_SPAWN = 5;
+	/** Rough encoded size of a v1 section snapshot, for backpressure before it is encoded. */
+	private static final long SNAPSHOT_ESTIMATE_BYTES = 16 * 1024;
 
 	private final WebSocket socket;
 	private final StreamerServer streamerServer;
+	private final Executor outbound;
+	private final OutboundQueue queue;
+	/** Estimated bytes of snapshots captured but not yet encoded into the queue. */
+	private final AtomicLong pendingEncodeBytes = new AtomicLong();
+	/** Features this client asked for in its HELLO reply (none until it replies). */
+	private volatile Set<ProtocolFeature> features = EnumSet.noneOf(ProtocolFeature.class);
+	/** Protocol version agreed in the HELLO exchange; selects the section snapshot format. */
+	private volatile int protocolVersion = ProtocolEncoder.BASE_PROTOCOL_VERSION;
+	private volatile boolean helloReceived;
+	/** Set on the outbound lane right after the client has the id table, so later frames may use numeric ids. */
+	private volatile IdTable idTable;
+	private volatile boolean manifestReceived;
+	/** Set on the game thread once the client has the tracked entities and gets live updates (feature "entities"). */
+	private volatile boolean watchingEntities;
+	/** What this client looks at (game thread): the server's shared view unless it sent VIEW. */
+	private volatile StreamView view;
+	/** Window of the client's latest region stream (game thread); null until it starts. */
+	private volatile StreamWindow window;
+	/** Sections the client still holds (feature "resume"); null when it sent none or once its region stream is done. */
+	private volatile ResumeManifest resume;
+	/** Set while this connection's session is recorded (/mr_record). */
+	private volatile SessionRecorder recorder;
+	/** Dimension of the last SET_ORIGIN queued; outbound lane only. */
+	private String originDimension;
 
-	public StreamerWebSocketHandler(WebSocket socket, StreamerServer streamerServer) {
+	public StreamerWebSocketHandler(WebSocket socket, StreamerServer streamerServer, WebSocketListener listener) {
 		this.socket = socket;
 		this.streamerServer = streamerServer;
+		this.outbound = streamerServer.newOutboundLane();
+		this.queue = new OutboundQueue(socket, new WebSocketOutput(socket, StreamerConfig.SHARED_WIRE_FRAMES ? listener : null));
+		queue.setRate(StreamerConfig.CLIENT_RATE_BYTES);
+	}
+
+	public boolean isOpen() {
+		return socket.isOpen();
+	}
+
+	public boolean supports(ProtocolFeature feature) {
+		return features.contains(feature);
+	}
+
+	public int protocolVersion() {
+		return protocolVersion;
+	}
+
+	/** Id table the client holds (feature "ids"), or null while it gets string ids. */
+	public IdTable idTable() {
+		return idTable;
+	}
+
+	/** Section wire format for this client right now (see {@link SectionFrames}). */
+	int sectionFormat() {
+		boolean hash = features.contains(ProtocolFeature.RESUME);
+		if (idTable != null) return hash ? SectionFrames.FORMAT_COMPACT_IDS_HASH : SectionFrames.FORMAT_COMPACT_IDS;
+		if (protocolVersion < 2) return SectionFrames.FORMAT_V1;
+		return hash ? SectionFrames.FORMAT_COMPACT_HASH : SectionFrames.FORMAT_COMPACT;
+	}
+
+	/** True once the client has replied to HELLO (old clients never do). */
+	public boolean isNegotiated() {
+		return helloReceived;
+	}
+
+	StreamView view() {
+		return view;
+	}
+
+	void setView(StreamView view) {
+		this.view = view;
+	}
+
+	/** The part of the world this client has been sent (or is being sent), or null before its region stream. */
+	StreamWindow window() {
+		return window;
+	}
+
+	void setWindow(StreamWindow window) {
+		this.window = window;
+	}
+
+	/** True once the {@link EntityTracker} sends this client live entity frames. */
+	public boolean isWatchingEntities() {
+		return watchingEntities;
+	}
+
+	void setWatchingEntities(boolean watching) {
+		watchingEntities = watching;
+	}
+
+	/** True while a "resume" client's manifest has not arrived yet. */
+	public boolean isAwaitingManifest() {
+		return features.contains(ProtocolFeature.RESUME) && !manifestReceived;
+	}
+
+	/**
+	 * Text message from the client (WebSocket thread). "HELLO &lt;version&gt; &lt;feature&gt; ..." selects the protocol
+	 * version (the lower of the client's and ours) and optional features. With "ids", a token "ids=&lt;hash&gt;" names the
+	 * id table the client has cached; the table is only sent if the hash differs.
+	 * <p>
+	 * "VIEW &lt;x&gt; &lt;y&gt; &lt;z&gt; [radius=&lt;chunks&gt;] [height=&lt;sections&gt;] [lod=&lt;chunks&gt;]
+	 * [rate=&lt;bytes/s&gt;] [dim=&lt;dimension&gt;]" gives this client its own view at that origin (in its current
+	 * dimension unless dim= names another); "VIEW follow [...]" follows the shared origin again (with its own radii if
+	 * given). Applied on the game thread like an origin move.
+	 */
+	void onText(String message) {
+		SessionRecorder r = recorder;
+		if (r != null) r.recordClientText(message);
+		String[] parts = message.trim().split("\\s+");
+		if (parts.length >= 2 && parts[0].equals("HELLO")) {
+			int version;
+			try {
+				version = Integer.parseInt(parts[1]);
+			} catch (NumberFormatException e) {
+				version = ProtocolEncoder.BASE_PROTOCOL_VERSION;
+			}
+			protocolVersion = Math.max(ProtocolEncoder.BASE_PROTOCOL_VERSION, Math.min(version, ProtocolEncoder.PROTOCOL_VERSION));
+			Set<ProtocolFeature> requested = ProtocolFeature.parse(parts, 2);
+			if (requested.contains(ProtocolFeature.NUMERIC_IDS)) {
+				IdTable table = protocolVersion >= 2 ? streamerServer.idTable() : null;
+				if (table != null) {
+					// A recording must hold the table: it is replayed to clients that may not have it cached
+					sendIdTable(table, recorder != null || !table.hashHex().equals(token(parts, "ids=")));
+				} else {
+					requested.remove(ProtocolFeature.NUMERIC_IDS);
+				}
+			}
+			if (protocolVersion < 2) {
+				requested.remove(ProtocolFeature.RESUME);
+				requested.remove(ProtocolFeature.LOD);
+				requested.remove(ProtocolFeature.SURFACE);
+			}
+			features = requested;
+			helloReceived = true;
+			MicrocosmStreamerMod.LOGGER.info("Streamer client HELLO {} (using protocol {}) features {}", parts[1], protocolVersion, features);
+			streamerServer.onNegotiated(this);
+		} else if (parts.length >= 2 && parts[0].equals("VIEW")) {
+			onView(parts);
+		}
+	}
+
+	private void onView(String[] parts) {
+		long rate = intToken(parts, "rate=", -1);
+		if (rate >= 0) {
+			// Never above the server's own cap
+			long cap = StreamerConfig.CLIENT_RATE_BYTES;
+			queue.setRate(cap > 0 ? (rate > 0 ? Math.min(rate, cap) : cap) : rate);
+		}
+		int radius = intToken(parts, "radius=", StreamerConfig.CHUNK_RADIUS);
+		int height = intToken(parts, "height=", StreamerConfig.SECTION_RANGE);
+		int lod = intToken(parts, "lod=", StreamerConfig.LOD_RADIUS);
+		String dimension = token(parts, "dim=");
+		if (parts[1].equals("follow")) {
+			streamerServer.requestView(this, true, null, 0, 0, 0, radius, height, lod);
+			return;
+		}
+		try {
+			int x = Integer.parseInt(parts[1]);
+			int y = Integer.parseInt(parts[2]);
+			int z = Integer.parseInt(parts[3]);
+			streamerServer.requestView(this, false, dimension, x, y, z, radius, height, lod);
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			MicrocosmStreamerMod.LOGGER.warn("Ignoring malformed VIEW from streamer client: {}", String.join(" ", parts));
+		}
+	}
+
+	private static int intToken(String[] parts, String prefix, int def) {
+		String value = token(parts, prefix);
+		if (value == null) return def;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+
+	/**
+	 * Binary message from the client (WebSocket thread). The only one so far is RESUME_MANIFEST (feature "resume"), sent
+	 * once right after the HELLO reply; a malformed manifest just means every section is sent.
+	 */
+	void onBinary(ByteBuffer message) {
+		if (!message.hasRemaining() || message.get(message.position()) != ProtocolEncoder.MSG_RESUME_MANIFEST) return;
+		if (!features.contains(ProtocolFeature.RESUME) || manifestReceived) {
+			MicrocosmStreamerMod.LOGGER.warn("Ignoring unexpected resume manifest from streamer client");
+			return;
+		}
+		ResumeManifest manifest = recorder == null ? ResumeManifest.parse(message) : null;
+		if (recorder != null) {
+			MicrocosmStreamerMod.LOGGER.info("Ignoring resume manifest of recorded streamer client: a recording holds every section");
+		} else if (manifest != null) {
+			resume = manifest;
+			MicrocosmStreamerMod.LOGGER.info("Streamer client resuming with {} sections", manifest.size());
+		}
+		manifestReceived = true;
+	}
+
+	/** Value of the first "prefix..." token after the version, or null. */
+	private static String token(String[] parts, String prefix) {
+		for (int i = 2; i < parts.length; i++) {
+			if (parts[i].startsWith(prefix)) return parts[i].substring(prefix.length());
+		}
+		return null;
+	}
+
+	/** Queue ID_TABLE (unless the client has it cached) and switch this client to numeric ids behind it on the lane. */
+	private void sendIdTable(IdTable table, boolean download) {
+		outbound.execute(() -> {
+			if (download) queue.offerFrame(forWire(table.frame()));
+			idTable = table;
+			queue.pump();
+		});
 	}
 
 	public void sendHello() {
 		if (socket.isOpen()) {
-			socket.send("HELLO " + PROTOCOL_VERSION);
+			String text = "HELLO " + ProtocolEncoder.PROTOCOL_VERSION + " " + ProtocolFeature.advertised();
+			outbound.execute(() -> {
+				queue.offerText(text);
+				queue.pump();
+			});
 		}
 	}
 
-	public void sendSetOrigin(int x0, int y0, int z0, double scale) {
+	public void sendSetOrigin(int x0, int y0, int z0, double scale, String dimension) {
 		if (socket.isOpen()) {
-			socket.send("SET_ORIGIN " + x0 + " " + y0 + " " + z0 + " " + scale);
+			String text = "SET_ORIGIN " + x0 + " " + y0 + " " + z0 + " " + scale + " " + dimension;
+			outbound.execute(() -> {
+				// Section keys carry no dimension: nothing queued for the old level may merge with the new level's frames
+				if (originDimension != null && !originDimension.equals(dimension)) queue.dropPendingSections();
+				originDimension = dimension;
+				queue.offerText(text);
+				queue.pump();
+			});
 		}
 	}
 
 	public void sendChunkSectionSnapshot(int cx, int cz, int sy, ChunkSerializer.SectionSnapshot snap) {
-		if (!socket.isOpen()) return;
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DataOutputStream out = new DataOutputStream(baos);
-			out.writeByte(MSG_CHUNK_SECTION_SNAPSHOT);
-			out.writeInt(cx);
-			out.writeInt(cz);
-			out.writeInt(sy);
-			// Block palette + indices
-			out.writeInt(snap.palette.size());
-			for (String s : snap.palette) {
-				byte[] b = s.getBytes(StandardCharsets.UTF_8);
-				out.writeShort(b.length);
-				out.write(b);
-			}
-			for (int i = 0; i < 4096; i++) {
-				out.writeShort(snap.indices[i] & 0xFFFF);
-			}
-			// Block light (4096 bytes), sky light (4096 bytes)
-			out.write(snap.blockLight, 0, 4096);
-			out.write(snap.skyLight, 0, 4096);
-			// Biome palette + 64 indices
-			out.writeInt(snap.biomePalette.size());
-			for (String s : snap.biomePalette) {
-				byte[] b = s.getBytes(StandardCharsets.UTF_8);
-				out.writeShort(b.length);
-				out.write(b);
-			}
-			for (int i = 0; i < 64; i++) {
-				out.writeShort(snap.biomeIndices[i] & 0xFFFF);
-			}
-			out.flush();
-			socket.send(baos.toByteArray());
-		} catch (IOException e) {
-			MicrocosmStreamerMod.LOGGER.warn("Failed to send chunk section snapshot", e);
+		boolean hash = supports(ProtocolFeature.RESUME);
+		sendLazySnapshot(cx, cz, sy, () -> ProtocolEncoder.sectionSnapshot(protocolVersion, cx, cz, sy, snap, idTable, hash));
+	}
+
+	/**
+	 * Queue a section shared with other clients, in this client's format. While a resume manifest is active, the lane
+	 * first compares the section's content hash with the client's and skips it if they match.
+	 */
+	public void sendSection(SectionFrames frames) {
+		Supplier<EncodedFrame> frame = frames.forClient(this);
+		if (resume == null) {
+			sendLazySnapshot(frames.cx, frames.cz, frames.sy, frame);
+			return;
 		}
+		sendLazySnapshot(frames.cx, frames.cz, frames.sy, () -> {
+			ResumeManifest manifest = resume;
+			return manifest != null && manifest.holds(frames, this) ? null : frame.get();
+		});
 	}
 
-	public void sendBlockDelta(int x, int y, int z, String blockStateId) {
+	/** Queue SECTION_HIDDEN ("surface" clients): the section cannot be seen; it replaces the client's copy. */
+	public void sendHiddenSection(int cx, int cz, int sy) {
+		sendLazySnapshot(cx, cz, sy, () -> ProtocolEncoder.sectionHidden(cx, cz, sy));
+	}
+
+	/** Queue a shared section downsampled to lod (1 to {@link SectionLod#MAX_LEVEL}); it replaces the client's copy. */
+	public void sendLodSection(SectionFrames frames, int lod) {
+		sendLazySnapshot(frames.cx, frames.cz, frames.sy, frames.lodForClient(this, lod));
+	}
+
+	/**
+	 * Queue a column summary; it replaces every section of that column the client holds, and what is still queued for
+	 * them is dropped.
+	 */
+	public void sendColumnSummary(ColumnSummary summary) {
 		if (!socket.isOpen()) return;
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DataOutputStream out = new DataOutputStream(baos);
-			out.writeByte(MSG_BLOCK_DELTA);
-			out.writeInt(x);
-			out.writeInt(y);
-			out.writeInt(z);
-			byte[] b = blockStateId.getBytes(StandardCharsets.UTF_8);
-			out.writeShort(b.length & 0xFFFF);
-			out.write(b);
-			out.flush();
-			socket.send(baos.toByteArray());
-		} catch (IOException e) {
-			MicrocosmStreamerMod.LOGGER.warn("Failed to send block delta", e);
-		}
+		Supplier<EncodedFrame> frame = summary.forClient(this);
+		outbound.execute(() -> {
+			queue.offerColumnSummary(summary.cx, summary.cz, forWire(frame.get()));
+			queue.pump();
+		});
+	}
+
+	/**
+	 * End of this client's section stream: queue SECTIONS_UNCHANGED for the sections skipped against its resume manifest
+	 * (if it sent one) and drop the manifest.
+	 */
+	public void finishResume() {
+		if (resume == null) return;
+		outbound.execute(() -> {
+			ResumeManifest manifest = resume;
+			if (manifest == null) return;
+			resume = null;
+			queue.offerFrame(forWire(manifest.unchangedFrame()));
+			queue.pump();
+			MicrocosmStreamerMod.LOGGER.info("Resumed streamer client: {} sections unchanged, {} changed, {} no longer in range",
+				manifest.unchangedCount(), manifest.changedCount(), manifest.unmatchedCount());
+		});
+	}
+
+	public void sendBlockDelta(int x, int y, int z, String blockStateId) {
+		sendFrame(ProtocolEncoder.blockDelta(x, y, z, blockStateId));
 	}
 
 	public void sendBlockEntity(int x, int y, int z, String typeId, byte[] nbt) {
-		if (!socket.isOpen()) return;
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DataOutputStream out = new DataOutputStream(baos);
-			out.writeByte(MSG_BLOCK_ENTITY);
-			out.writeInt(x);
-			out.writeInt(y);
-			out.writeInt(z);
-			byte[] typeBytes = typeId.getBytes(StandardCharsets.UTF_8);
-			out.writeShort(typeBytes.length & 0xFFFF);
-			out.write(typeBytes);
-			int nbtLen = nbt != null ? nbt.length : 0;
-			out.writeInt(nbtLen);
-			if (nbtLen > 0) out.write(nbt);
-			out.flush();
-			socket.send(baos.toByteArray());
-		} catch (IOException e) {
-			MicrocosmStreamerMod.LOGGER.warn("Failed to send block entity", e);
-		}
+		sendFrame(ProtocolEncoder.blockEntity(x, y, z, typeId, nbt));
 	}
 
 	public void sendEntitySpawn(int entityId, String typeId, double x, double y, double z, float yaw, float pitch) {
+		sendFrame(ProtocolEncoder.entitySpawn(entityId, typeId, x, y, z, yaw, pitch));
+	}
+
+	/** Queue an already-encoded frame (possibly shared with other clients). */
+	public void sendFrame(EncodedFrame frame) {
+		if (frame == null || !socket.isOpen()) return;
+		outbound.execute(() -> {
+			queue.offerFrame(forWire(frame));
+			queue.pump();
+		});
+	}
+
+	/**
+	 * Queue SECTIONS_UNLOAD (possibly shared with other clients) for sections ((cx, cz, sy) triples); what is still queued
+	 * for those sections is dropped.
+	 */
+	public void sendSectionsUnload(int[] sections, EncodedFrame frame) {
+		if (frame == null || !socket.isOpen()) return;
+		outbound.execute(() -> {
+			queue.offerUnload(sections, forWire(frame));
+			queue.pump();
+		});
+	}
+
+	/** Queue a delta frame for section (cx, cz, sy); dropped if a newer snapshot of that section is queued before it is sent. */
+	public void sendSectionDelta(int cx, int cz, int sy, EncodedFrame frame) {
+		if (frame == null || !socket.isOpen()) return;
+		long key = OutboundQueue.sectionKey(cx, sy, cz);
+		outbound.execute(() -> {
+			queue.offerDelta(key, forWire(frame));
+			queue.pump();
+		});
+	}
+
+	/**
+	 * Queue a snapshot of section (cx, cz, sy) that is encoded on the outbound lane (see {@link EncodedFrame#once} for
+	 * shared broadcast frames). Replaces an older snapshot of the same section that has not been sent yet.
+	 */
+	public void sendLazySnapshot(int cx, int cz, int sy, Supplier<EncodedFrame> frame) {
 		if (!socket.isOpen()) return;
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DataOutputStream out = new DataOutputStream(baos);
-			out.writeByte(MSG_ENTITY_SPAWN);
-			out.writeInt(entityId);
-			byte[] typeBytes = typeId.getBytes(StandardCharsets.UTF_8);
-			out.writeShort(typeBytes.length & 0xFFFF);
-			out.write(typeBytes);
-			out.writeDouble(x);
-			out.writeDouble(y);
-			out.writeDouble(z);
-			out.writeFloat(yaw);
-			out.writeFloat(pitch);
-			out.flush();
-			socket.send(baos.toByteArray());
-		} catch (IOException e) {
-			MicrocosmStreamerMod.LOGGER.warn("Failed to send entity spawn", e);
-		}
+		long key = OutboundQueue.sectionKey(cx, sy, cz);
+		pendingEncodeBytes.addAndGet(SNAPSHOT_ESTIMATE_BYTES);
+		outbound.execute(() -> {
+			try {
+				if (!socket.isOpen()) return;
+				queue.offerSnapshot(key, forWire(frame.get()));
+				queue.pump();
+			} finally {
+				pendingEncodeBytes.addAndGet(-SNAPSHOT_ESTIMATE_BYTES);
+			}
+		});
+	}
+
+	/** The frame as this client receives it: compressed for "deflate" clients (on the calling lane, shared across clients). */
+	private EncodedFrame forWire(EncodedFrame frame) {
+		return frame != null && features.contains(ProtocolFeature.DEFLATE) ? frame.compressed() : frame;
+	}
+
+	/**
+	 * Record everything this connection is sent from now on (null stops). Attached before HELLO, so the recording holds
+	 * the whole session.
+	 */
+	void setRecorder(SessionRecorder recorder) {
+		this.recorder = recorder;
+		queue.setRecorder(recorder);
+	}
+
+	SessionRecorder recorder() {
+		return recorder;
+	}
+
+	/** Push queued frames to the connection as its write buffer drains (server tick). */
+	void pumpOutbound() {
+		queue.pump();
+	}
+
+	/** True while this client has more queued or being encoded than half its limit; producers should wait. */
+	public boolean isBackpressured() {
+		return queue.queuedBytes() + pendingEncodeBytes.get() > StreamerConfig.CLIENT_QUEUE_BYTES / 2;
+	}
+
+	OutboundQueue outboundQueue() {
+		return queue;
+	}
+
+	/** Estimated bytes of snapshots queued on the lane and not yet encoded. */
+	long pendingEncodeBytes() {
+		return pendingEncodeBytes.get();
+	}
+
+	/** Client's address (null once the connection is gone). */
+	InetSocketAddress remoteAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	/** One-line outbound counters for logs. */
+	String describeOutbound() {
+		return "sent " + queue.framesSent.get() + " frames / " + queue.bytesSent.get() + " bytes, "
+			+ queue.snapshotsReplaced.get() + " snapshots replaced, " + queue.deltasDropped.get() + " deltas dropped, "
+			+ queue.overLimitEvents.get() + " times over limit, " + queue.queuedBytes() + " bytes still queued"
+			+ (supports(ProtocolFeature.DEFLATE) ? "; all clients: " + FrameCompressor.describe() : "");
 	}
 }
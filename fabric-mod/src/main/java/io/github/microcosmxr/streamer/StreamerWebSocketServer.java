@@ -4,6 +4,7 @@ import org.java_websocket.WebSocket;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -22,7 +23,7 @@ public class StreamerWebSocketServer extends WebSocketServer {
 
 	@Override
 	public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
-		StreamerWebSocketHandler handler = new StreamerWebSocketHandler(conn, streamerServer);
+		StreamerWebSocketHandler handler = new StreamerWebSocketHandler(conn, streamerServer, this);
 		handlers.put(conn, handler);
 		streamerServer.onOpen(handler);
 	}
@@ -37,7 +38,16 @@ public class StreamerWebSocketServer extends WebSocketServer {
 
 	@Override
 	public void onMessage(WebSocket conn, String message) {
-		// Optional: handle text commands from client (e.g. request chunk at x,z)
+		// Text commands from client: HELLO feature negotiation (more later, e.g. request chunk at x,z)
+		StreamerWebSocketHandler handler = handlers.get(conn);
+		if (handler != null) handler.onText(message);
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, ByteBuffer message) {
+		// Binary messages from client: RESUME_MANIFEST
+		StreamerWebSocketHandler handler = handlers.get(conn);
+		if (handler != null) handler.onBinary(message);
 	}
 
 	@Override
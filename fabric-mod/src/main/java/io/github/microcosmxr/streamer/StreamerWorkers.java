@@ -0,0 +1,41 @@
+package io.github.microcosmxr.streamer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of daemon threads that translate, encode and send frames off the game thread.
+ * Work reaches it through per-client {@link SerialExecutor} lanes, so the pool queue holds at most one task per client.
+ */
+final class StreamerWorkers {
+
+	private final ExecutorService pool;
+
+	StreamerWorkers(int threads) {
+		AtomicInteger counter = new AtomicInteger();
+		this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, "MicrocosmStreamer-Encode-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/** New ordered lane for one client; runs tasks inline when the async pipeline is disabled. */
+	Executor newLane() {
+		return StreamerConfig.ASYNC_ENCODE ? new SerialExecutor(pool) : Runnable::run;
+	}
+
+	void shutdown() {
+		pool.shutdown();
+		try {
+			if (!pool.awaitTermination(2, TimeUnit.SECONDS)) pool.shutdownNow();
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which clients watch each chunk column: per level, a map from {@link ChunkPos#asLong} to the clients whose
+ * {@link StreamWindow} covers that column at any detail. Routing a block change or section snapshot looks at the
+ * subscribers of one column (then checks the section height), not at every client. (The mixins' early reject is
+ * {@link WatchedSections}.)
+ * <p>
+ * Game thread only; updated whenever a client's window changes or it disconnects.
+ */
+final class SubscriberIndex {
+
+	private final Map<ServerLevel, Long2ObjectOpenHashMap<ObjectArrayList<StreamerWebSocketHandler>>> columns = new IdentityHashMap<>();
+
+	/** Move client's subscriptions from one window to another; either may be null (join, leave). */
+	void move(StreamerWebSocketHandler client, StreamWindow from, StreamWindow to) {
+		if (from != null) forEachColumn(from, (map, column) -> {
+			ObjectArrayList<StreamerWebSocketHandler> subscribers = map.get(column);
+			if (subscribers == null) return;
+			subscribers.remove(client);
+			if (subscribers.isEmpty()) map.remove(column);
+		});
+		if (to != null) forEachColumn(to, (map, column) ->
+			map.computeIfAbsent(column, c -> new ObjectArrayList<>(2)).add(client));
+		if (from != null) {
+			Long2ObjectOpenHashMap<ObjectArrayList<StreamerWebSocketHandler>> map = columns.get(from.level());
+			if (map != null && map.isEmpty()) columns.remove(from.level());
+		}
+	}
+
+	/** Clients watching column (cx, cz) of level; empty if none. Do not modify. */
+	List<StreamerWebSocketHandler> subscribers(ServerLevel level, int cx, int cz) {
+		Long2ObjectOpenHashMap<ObjectArrayList<StreamerWebSocketHandler>> map = columns.get(level);
+		if (map == null) return List.of();
+		ObjectArrayList<StreamerWebSocketHandler> subscribers = map.get(ChunkPos.asLong(cx, cz));
+		return subscribers != null ? subscribers : List.of();
+	}
+
+	void clear() {
+		columns.clear();
+	}
+
+	private void forEachColumn(StreamWindow window, ColumnAction action) {
+		Long2ObjectOpenHashMap<ObjectArrayList<StreamerWebSocketHandler>> map = columns.computeIfAbsent(window.level(), l -> new Long2ObjectOpenHashMap<>());
+		int r = window.lodRadius();
+		for (int cx = window.chunkX() - r; cx <= window.chunkX() + r; cx++) {
+			for (int cz = window.chunkZ() - r; cz <= window.chunkZ() + r; cz++) {
+				action.accept(map, ChunkPos.asLong(cx, cz));
+			}
+		}
+	}
+
+	private interface ColumnAction {
+		void accept(Long2ObjectOpenHashMap<ObjectArrayList<StreamerWebSocketHandler>> map, long column);
+	}
+}
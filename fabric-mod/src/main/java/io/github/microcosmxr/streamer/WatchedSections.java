@@ -0,0 +1,138 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every section some client's {@link StreamWindow} covers (far field included), as {@link SectionPos#asLong} keys in
+ * world section coordinates, per level; and, apart, the sections {@link SectionFrameCache} still holds, whose changes
+ * must drop its entries even after every window has left them. The setBlock and light mixins ask {@link #tracked}
+ * before anything else, so changes anywhere else on the server (worldgen, farms, redstone far away) cost one volatile
+ * read and one or two hash lookups, and nothing at all while no client is connected and the cache is empty.
+ * <p>
+ * Immutable snapshots: rebuilt on the game thread whenever a client's window changes, read lock-free from any thread.
+ * Run ./gradlew benchWatchedSections for the per-call cost.
+ */
+public final class WatchedSections {
+
+	private static final WatchedSections NONE = new WatchedSections(new Object[0], new LongOpenHashSet[0], new LongOpenHashSet[0]);
+	private static volatile WatchedSections current = NONE;
+
+	/** Levels (few: usually one) and their section sets, scanned by identity. */
+	private final Object[] levels;
+	private final LongOpenHashSet[] sections;
+	/** Sections held by the section cache, per level (only those outside every window need be here); null for none. */
+	private final LongOpenHashSet[] cached;
+
+	private WatchedSections(Object[] levels, LongOpenHashSet[] sections, LongOpenHashSet[] cached) {
+		this.levels = levels;
+		this.sections = sections;
+		this.cached = cached;
+	}
+
+	/** Whether the section holding block (x, y, z) of level is streamed to some client. Any thread. */
+	public static boolean contains(Object level, int x, int y, int z) {
+		WatchedSections watched = current;
+		Object[] levels = watched.levels;
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] == level) return watched.sections[i].contains(SectionPos.asLong(x >> 4, y >> 4, z >> 4));
+		}
+		return false;
+	}
+
+	/** Same, for a section in world section coordinates. Any thread. */
+	public static boolean contains(Object level, SectionPos pos) {
+		WatchedSections watched = current;
+		Object[] levels = watched.levels;
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] == level) return watched.sections[i].contains(pos.asLong());
+		}
+		return false;
+	}
+
+	/**
+	 * Whether a change to the section holding block (x, y, z) of level must be reported: it is streamed to some client or
+	 * held by the section cache. Any thread.
+	 */
+	public static boolean tracked(Object level, int x, int y, int z) {
+		WatchedSections watched = current;
+		Object[] levels = watched.levels;
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] != level) continue;
+			long key = SectionPos.asLong(x >> 4, y >> 4, z >> 4);
+			return watched.sections[i].contains(key) || watched.cached[i] != null && watched.cached[i].contains(key);
+		}
+		return false;
+	}
+
+	/** Same, for a section in world section coordinates. Any thread. */
+	public static boolean tracked(Object level, SectionPos pos) {
+		WatchedSections watched = current;
+		Object[] levels = watched.levels;
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] != level) continue;
+			long key = pos.asLong();
+			return watched.sections[i].contains(key) || watched.cached[i] != null && watched.cached[i].contains(key);
+		}
+		return false;
+	}
+
+	/**
+	 * Replace the snapshot with the sections of these windows (game thread; null entries are skipped), tracking cached
+	 * (world section keys by level, not modified afterwards) as well.
+	 */
+	static void rebuild(List<StreamWindow> windows, Map<ServerLevel, LongOpenHashSet> cached) {
+		Map<ServerLevel, LongOpenHashSet> byLevel = new IdentityHashMap<>();
+		for (ServerLevel level : cached.keySet()) {
+			byLevel.put(level, new LongOpenHashSet());
+		}
+		for (StreamWindow window : windows) {
+			if (window == null) continue;
+			LongOpenHashSet set = byLevel.computeIfAbsent(window.level(), l -> new LongOpenHashSet());
+			int minSection = window.level().dimensionType().minY() >> 4;
+			int sections = window.level().getSectionsCount();
+			// With "surface", one section more all round: the masks of the window's outer sections depend on their neighbours
+			int margin = StreamerConfig.SURFACE ? 1 : 0;
+			int r = window.lodRadius() + margin;
+			for (int cx = window.chunkX() - r; cx <= window.chunkX() + r; cx++) {
+				for (int cz = window.chunkZ() - r; cz <= window.chunkZ() + r; cz++) {
+					// A column summary depends on the whole column
+					boolean summary = window.detail(cx, cz) == StreamWindow.SUMMARY;
+					int syStart = summary ? 0 : Math.max(0, window.syStart() - margin);
+					int syEnd = summary ? sections - 1 : Math.min(sections - 1, window.syEnd() + margin);
+					for (int sy = syStart; sy <= syEnd; sy++) {
+						set.add(SectionPos.asLong(cx, minSection + sy, cz));
+					}
+				}
+			}
+		}
+		List<Object> levels = new ArrayList<>(byLevel.keySet());
+		LongOpenHashSet[] sections = new LongOpenHashSet[levels.size()];
+		LongOpenHashSet[] cachedSections = new LongOpenHashSet[levels.size()];
+		for (int i = 0; i < sections.length; i++) {
+			sections[i] = byLevel.get(levels.get(i));
+			sections[i].trim();
+			cachedSections[i] = cached.get(levels.get(i));
+		}
+		install(levels.toArray(), sections, cachedSections);
+	}
+
+	/** Publish a snapshot: sections[i] (world section keys, not modified afterwards) are watched in levels[i]. */
+	static void install(Object[] levels, LongOpenHashSet[] sections) {
+		install(levels, sections, new LongOpenHashSet[levels.length]);
+	}
+
+	private static void install(Object[] levels, LongOpenHashSet[] sections, LongOpenHashSet[] cached) {
+		current = levels.length == 0 ? NONE : new WatchedSections(levels, sections, cached);
+	}
+
+	static void clear() {
+		current = NONE;
+	}
+}
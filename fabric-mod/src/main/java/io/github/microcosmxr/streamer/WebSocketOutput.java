@@ -0,0 +1,111 @@
+package io.github.microcosmxr.streamer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketListener;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.DefaultExtension;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Writes to one connection, and the only code that reaches into Java-WebSocket's internals (written against
+ * Java-WebSocket 1.5.4; re-check on upgrade): {@code WebSocketImpl.outQueue}, the write queue the server's selector
+ * thread drains in order, head first, and {@code WebSocketListener.onWriteDemand}, which wakes that thread.
+ * <p>
+ * On a plain Draft_6455 connection (no extension) with {@link StreamerConfig#SHARED_WIRE_FRAMES}, every frame is queued
+ * as wire bytes built here (a view of the shared {@link EncodedFrame#wireFrame()} for binary frames). The adapter keeps
+ * the buffers it queued, oldest first, with the bytes each held; since the queue is written in order,
+ * {@link #bufferedBytes()} only drops the ones written since the last call and subtracts what went of the next.
+ * Any other connection is written through the public API, which frames the bytes itself; then bufferedBytes() is
+ * what was handed over since the connection last had nothing buffered. That is never less than what it holds, in the
+ * same unit, so the socket window caps both the same way; it only empties in steps, when the whole buffer has drained.
+ * <p>
+ * Not thread-safe: called under its {@link OutboundQueue}'s lock.
+ */
+final class WebSocketOutput {
+
+	/** Server-role draft used only to build text wire frames (no extensions, no masking). */
+	private static final Draft_6455 WIRE_DRAFT = new Draft_6455();
+
+	private final WebSocket socket;
+	/** Set when frames are queued as wire bytes; null to write through the public API. */
+	private final WebSocketImpl impl;
+	private final WebSocketListener listener;
+	/** Buffers queued on impl and not seen fully written, oldest first, with the bytes each held when queued. */
+	private final ArrayDeque<ByteBuffer> queued = new ArrayDeque<>();
+	private final IntArrayFIFOQueue queuedSizes = new IntArrayFIFOQueue();
+	private long queuedBytes;
+	/** Public API only: bytes handed over since the connection last had nothing buffered. */
+	private long handedBytes;
+
+	/** Output for socket; with a listener (the server's), wire bytes are queued directly where the connection allows. */
+	WebSocketOutput(WebSocket socket, WebSocketListener listener) {
+		this.socket = socket;
+		this.listener = listener;
+		this.impl = listener != null && socket instanceof WebSocketImpl wsi && socket.getDraft() instanceof Draft_6455 draft
+			&& draft.getExtension() instanceof DefaultExtension ? wsi : null;
+	}
+
+	void send(String text) {
+		if (impl == null) {
+			socket.send(text);
+			handedBytes += text.length();
+			return;
+		}
+		TextFrame frame = new TextFrame();
+		frame.setPayload(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+		queue(WIRE_DRAFT.createBinaryFrame(frame));
+	}
+
+	void send(EncodedFrame frame) {
+		if (impl == null) {
+			socket.send(frame.payload());
+			handedBytes += frame.size();
+			return;
+		}
+		queue(frame.wireFrame());
+	}
+
+	private void queue(ByteBuffer wire) {
+		queued.add(wire);
+		queuedSizes.enqueue(wire.remaining());
+		queuedBytes += wire.remaining();
+		impl.outQueue.add(wire);
+		listener.onWriteDemand(impl);
+	}
+
+	/**
+	 * Bytes of this connection's frames still waiting to be written. The selector thread advances buffer positions
+	 * without a lock, so a read may lag behind the writes; it then reports more, never less.
+	 */
+	long bufferedBytes() {
+		if (impl == null) {
+			if (!socket.hasBufferedData()) handedBytes = 0;
+			return handedBytes;
+		}
+		ByteBuffer head;
+		while ((head = queued.peek()) != null && !head.hasRemaining()) {
+			queued.poll();
+			queuedBytes -= queuedSizes.dequeueInt();
+		}
+		return head == null ? 0 : queuedBytes - (queuedSizes.firstInt() - head.remaining());
+	}
+
+	/** Forget the buffers queued so far (the connection is closed and will not write them). */
+	void clear() {
+		queued.clear();
+		queuedSizes.clear();
+		queuedBytes = 0;
+		handedBytes = 0;
+	}
+
+	/** Buffers waiting in any Java-WebSocket connection's write queue (0 if it is not a WebSocketImpl). */
+	static int queuedBuffers(WebSocket socket) {
+		return socket instanceof WebSocketImpl impl ? impl.outQueue.size() : 0;
+	}
+}
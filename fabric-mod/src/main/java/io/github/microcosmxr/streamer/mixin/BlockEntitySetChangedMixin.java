@@ -0,0 +1,34 @@
+package io.github.microcosmxr.streamer.mixin;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import io.github.microcosmxr.streamer.BlockDeltaCallback;
+import io.github.microcosmxr.streamer.WatchedSections;
+
+/**
+ * When a block entity is marked changed on the server (sign text edited, chest contents moved, furnace burning), queue a
+ * BLOCK_ENTITY update for streamer clients. Runs for every setChanged, so block entities in sections no client watches
+ * are rejected first with one lookup ({@link WatchedSections}).
+ */
+@Mixin(BlockEntity.class)
+public abstract class BlockEntitySetChangedMixin {
+
+	@Shadow protected Level level;
+	@Shadow @Final protected BlockPos worldPosition;
+
+	@Inject(method = "setChanged()V", at = @At("TAIL"))
+	private void onSetChanged(CallbackInfo ci) {
+		BlockPos pos = worldPosition;
+		if (!WatchedSections.contains(level, pos.getX(), pos.getY(), pos.getZ())) return;  // also rejects client levels and null
+		BlockDeltaCallback.onBlockEntityChanged((ServerLevel) level, (BlockEntity) (Object) this);
+	}
+}
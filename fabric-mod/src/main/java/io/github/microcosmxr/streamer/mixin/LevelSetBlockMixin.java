@@ -10,16 +10,18 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import io.github.microcosmxr.streamer.BlockDeltaCallback;
+import io.github.microcosmxr.streamer.WatchedSections;
 
 /**
- * When a block is set on the server, broadcast BLOCK_DELTA to streamer clients if in range.
+ * When a block is set on the server, broadcast BLOCK_DELTA to streamer clients if in range. Runs for every setBlock on the
+ * server, so sections neither watched nor cached are rejected first with one lookup ({@link WatchedSections#tracked}).
  */
 @Mixin(Level.class)
 public abstract class LevelSetBlockMixin {
 
 	@Inject(method = "setBlock(Lnet/minecraft/core/BlockPos;Lnet/minecraft/world/level/block/state/BlockState;II)Z", at = @At("RETURN"))
 	private void onSetBlock(BlockPos pos, BlockState newState, int flags, int recursionLeft, CallbackInfoReturnable<Boolean> cir) {
-		if (!((Object) this instanceof ServerLevel)) return;
+		if (!WatchedSections.tracked(this, pos.getX(), pos.getY(), pos.getZ())) return;  // also rejects client levels
 		if (!cir.getReturnValueZ()) return; // block wasn't actually set
 		BlockDeltaCallback.onBlockSet((ServerLevel) (Object) this, pos.getX(), pos.getY(), pos.getZ(), newState);
 	}
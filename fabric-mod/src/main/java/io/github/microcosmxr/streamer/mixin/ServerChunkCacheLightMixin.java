@@ -0,0 +1,30 @@
+package io.github.microcosmxr.streamer.mixin;
+
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.LightLayer;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import io.github.microcosmxr.streamer.BlockDeltaCallback;
+import io.github.microcosmxr.streamer.WatchedSections;
+
+/**
+ * When the light engine reports changed light in a tracked section, drop that section from the streamer's section cache.
+ * Called from the light engine's thread; untracked sections cost one lookup ({@link WatchedSections#tracked}).
+ */
+@Mixin(ServerChunkCache.class)
+public abstract class ServerChunkCacheLightMixin {
+
+	@Shadow @Final ServerLevel level;
+
+	@Inject(method = "onLightUpdate", at = @At("HEAD"))
+	private void onLightUpdate(LightLayer layer, SectionPos pos, CallbackInfo ci) {
+		if (WatchedSections.tracked(level, pos)) BlockDeltaCallback.onLightChanged(level, pos);
+	}
+}
@@ -1,26 +1,112 @@
 /**
  * Simple Node WebSocket test client to verify chunk/block streaming.
- * Run: node test-client.js [host] [port]
+ * Run: node test-client.js [host] [port] [view]
  * Example: node test-client.js localhost 25566
+ *          node test-client.js localhost 25566 "100 70 -20 radius=2 dim=minecraft:the_nether"   (own VIEW, see README)
  *
  * Requires: pnpm install (or npm install ws)
  */
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const zlib = require('zlib');
 const WebSocket = require('ws');
 
+// Preset dictionary for COMPRESSED frames (feature "deflate"); same file the mod ships
+const dictionary = fs.readFileSync(path.join(__dirname, 'src/main/resources/microcosm-streamer-deflate.dict'));
+
 const host = process.argv[2] || 'localhost';
 const port = process.argv[3] || '25566';
+const view = process.argv[4];
 const url = `ws://${host}:${port}`;
 
 console.log('Connecting to', url);
 const ws = new WebSocket(url);
 
+// Id table (feature "ids"), cached between runs under its hash
+const idTableCache = path.join(os.tmpdir(), 'microcosm-id-table.bin');
+let idTable = null;
+
+function readVarint(buf, pos) {
+  let value = 0, shift = 0, b;
+  do {
+    b = buf[pos.offset++];
+    value |= (b & 0x7f) << shift;
+    shift += 7;
+  } while (b & 0x80);
+  return value >>> 0;
+}
+
+function parseIdTable(buf) {
+  const pos = { offset: 9 };
+  const lists = [];
+  for (let l = 0; l < 4; l++) {
+    const count = readVarint(buf, pos);
+    const list = [];
+    for (let i = 0; i < count; i++) {
+      const len = readVarint(buf, pos);
+      list.push(buf.toString('utf8', pos.offset, pos.offset + len));
+      pos.offset += len;
+    }
+    lists.push(list);
+  }
+  return { hash: buf.toString('hex', 1, 9), blocks: lists[0], biomes: lists[1] };
+}
+
+if (fs.existsSync(idTableCache)) idTable = parseIdTable(fs.readFileSync(idTableCache));
+
+// Content hashes of the sections received (feature "resume"), "cx,cz,sy" -> 16 hex digits; kept between runs
+const sectionHashCache = path.join(os.tmpdir(), 'microcosm-section-hashes.json');
+const sectionHashes = new Map(fs.existsSync(sectionHashCache) ? JSON.parse(fs.readFileSync(sectionHashCache, 'utf8')) : []);
+
+function writeVarint(bytes, value) {
+  value >>>= 0;
+  while (value >= 0x80) {
+    bytes.push((value & 0x7f) | 0x80);
+    value >>>= 7;
+  }
+  bytes.push(value);
+}
+
+// RESUME_MANIFEST: byte 1, varint count, count x (varint zigzag cx, varint zigzag cz, varint sy, long contentHash)
+function resumeManifest() {
+  const bytes = [1];
+  writeVarint(bytes, sectionHashes.size);
+  const zig = (n) => (n << 1) ^ (n >> 31);
+  for (const [key, hash] of sectionHashes) {
+    const [cx, cz, sy] = key.split(',').map(Number);
+    writeVarint(bytes, zig(cx));
+    writeVarint(bytes, zig(cz));
+    writeVarint(bytes, sy);
+    bytes.push(...Buffer.from(hash, 'hex'));
+  }
+  return Buffer.from(bytes);
+}
+
 ws.on('open', () => {
   console.log('Connected.');
+  // Opt in to optional protocol features (see README "Protocol")
+  ws.send('HELLO 2 batch deflate ids resume entities lod surface' + (idTable ? ' ids=' + idTable.hash : ''));
+  console.log('RESUME_MANIFEST sections=%d', sectionHashes.size);
+  ws.send(resumeManifest());
+  if (view) {
+    console.log('VIEW', view);
+    ws.send('VIEW ' + view);
+  }
 });
 
 ws.on('message', (data) => {
   if (Buffer.isBuffer(data) || data instanceof ArrayBuffer) {
-    const buf = Buffer.from(data);
+    let buf = Buffer.from(data);
+    if (buf[0] === 8) {
+      // COMPRESSED: varint rawLength, then a zlib stream (preset dictionary) of the original message
+      let offset = 1, shift = 0, b;
+      do {
+        b = buf[offset++];
+        shift += 7;
+      } while (b & 0x80);
+      buf = zlib.inflateSync(buf.subarray(offset), { dictionary });
+    }
     const type = buf[0];
     if (type === 2) {
       // CHUNK_SECTION_SNAPSHOT: blocks; then optionally 4096 blockLight + 4096 skyLight + biome palette + 64 indices
@@ -89,6 +175,167 @@ ws.on('message', (data) => {
       const yaw = buf.readFloatBE(base + 24);
       const pitch = buf.readFloatBE(base + 28);
       console.log('ENTITY_SPAWN id=%d type=%s pos=(%.2f,%.2f,%.2f) yaw=%.2f pitch=%.2f', eid, typeId, x, y, z, yaw, pitch);
+    } else if (type === 6) {
+      // BLOCK_DELTA_BATCH: int cx, cz, sy, short paletteLen, palette strings, short count, count x (short pos, short paletteIdx)
+      const cx = buf.readInt32BE(1);
+      const cz = buf.readInt32BE(5);
+      const sy = buf.readInt32BE(9);
+      let offset = 13;
+      const paletteLen = buf.readUInt16BE(offset);
+      offset += 2;
+      const palette = [];
+      for (let i = 0; i < paletteLen; i++) {
+        const len = buf.readUInt16BE(offset);
+        offset += 2;
+        palette.push(buf.toString('utf8', offset, offset + len));
+        offset += len;
+      }
+      const count = buf.readUInt16BE(offset);
+      sectionHashes.delete(cx + ',' + cz + ',' + sy);
+      console.log('BLOCK_DELTA_BATCH cx=%d cz=%d sy=%d changes=%d palette=%s', cx, cz, sy, count, palette.join(', '));
+    } else if (type === 7) {
+      // CHUNK_SECTION_COMPACT (protocol 2): varint zigzag cx, cz, varint sy, byte flags, varint-length palette, packed indices
+      const pos = { offset: 1 };
+      const unzig = (n) => (n >>> 1) ^ -(n & 1);
+      const cx = unzig(readVarint(buf, pos));
+      const cz = unzig(readVarint(buf, pos));
+      const sy = readVarint(buf, pos);
+      const flags = buf[pos.offset++];
+      if (flags & 32) {
+        // Flag 32: long contentHash, named in the next RESUME_MANIFEST
+        sectionHashes.set(cx + ',' + cz + ',' + sy, buf.toString('hex', pos.offset, pos.offset + 8));
+        pos.offset += 8;
+      }
+      const paletteLen = readVarint(buf, pos);
+      const palette = [];
+      for (let i = 0; i < paletteLen; i++) {
+        // Flag 16: varint (id + 1) into the id table, 0 = string follows
+        const id = (flags & 16) ? readVarint(buf, pos) : 0;
+        if (id > 0) {
+          palette.push(idTable ? idTable.blocks[id - 1] : '#' + (id - 1));
+          continue;
+        }
+        const len = readVarint(buf, pos);
+        palette.push(buf.toString('utf8', pos.offset, pos.offset + len));
+        pos.offset += len;
+      }
+      const bits = (flags & 1) ? 0 : buf[pos.offset];
+      if (flags & 64) {
+        // Flag 64: visible-block mask, the last 512 bytes
+        let visible = 0;
+        for (let i = buf.length - 512; i < buf.length; i++) {
+          for (let b = buf[i]; b; b &= b - 1) visible++;
+        }
+        console.log('  surface mask: %d visible blocks', visible);
+      }
+      console.log('CHUNK_SECTION_COMPACT cx=%d cz=%d sy=%d palette=%d bits=%d flags=%d bytes=%d sample=%s',
+        cx, cz, sy, palette.length, bits, flags, buf.length, palette.slice(0, 5).join(', '));
+    } else if (type === 9) {
+      // ID_TABLE: long hash, then blocks, biomes, block entity types, entity types
+      idTable = parseIdTable(buf);
+      fs.writeFileSync(idTableCache, buf);
+      console.log('ID_TABLE hash=%s blocks=%d biomes=%d', idTable.hash, idTable.blocks.length, idTable.biomes.length);
+    } else if (type === 10) {
+      // BLOCK_DELTA_IDS: varint zigzag cx, cz, varint sy, varint count, count x (short pos, varint blockId)
+      const pos = { offset: 1 };
+      const unzig = (n) => (n >>> 1) ^ -(n & 1);
+      const cx = unzig(readVarint(buf, pos));
+      const cz = unzig(readVarint(buf, pos));
+      const sy = readVarint(buf, pos);
+      const count = readVarint(buf, pos);
+      sectionHashes.delete(cx + ',' + cz + ',' + sy);
+      const blocks = [];
+      for (let i = 0; i < count && i < 5; i++) {
+        pos.offset += 2;
+        const id = readVarint(buf, pos);
+        blocks.push(idTable ? idTable.blocks[id] : '#' + id);
+      }
+      console.log('BLOCK_DELTA_IDS cx=%d cz=%d sy=%d changes=%d sample=%s', cx, cz, sy, count, blocks.join(', '));
+    } else if (type === 11) {
+      // SECTIONS_UNCHANGED: varint count, count x (varint zigzag cx, cz, varint sy); kept from the last session
+      const pos = { offset: 1 };
+      const count = readVarint(buf, pos);
+      console.log('SECTIONS_UNCHANGED count=%d', count);
+    } else if (type === 12) {
+      // ENTITY_UPDATE: varint count, count x (varint id, byte mask, masked fields)
+      const pos = { offset: 1 };
+      const count = readVarint(buf, pos);
+      const unzig = (n) => (n >>> 1) ^ -(n & 1);
+      const sample = [];
+      for (let i = 0; i < count; i++) {
+        const id = readVarint(buf, pos);
+        const mask = buf[pos.offset++];
+        const fields = [];
+        for (const [bit, name] of [[1, 'x'], [2, 'y'], [4, 'z']]) {
+          if (mask & bit) fields.push(name + '=' + (unzig(readVarint(buf, pos)) / 32).toFixed(2));
+        }
+        if (mask & 8) fields.push('yaw=' + (buf[pos.offset++] * 360 / 256).toFixed(0));
+        if (mask & 16) fields.push('pitch=' + (buf.readInt8(pos.offset++) * 360 / 256).toFixed(0));
+        if (i < 3) sample.push(id + '(' + fields.join(' ') + ')');
+      }
+      console.log('ENTITY_UPDATE count=%d bytes=%d sample=%s', count, buf.length, sample.join(', '));
+    } else if (type === 13) {
+      // ENTITY_DESPAWN: varint count, count x varint id
+      const pos = { offset: 1 };
+      const count = readVarint(buf, pos);
+      const ids = [];
+      for (let i = 0; i < count; i++) ids.push(readVarint(buf, pos));
+      console.log('ENTITY_DESPAWN ids=%s', ids.join(', '));
+    } else if (type === 14) {
+      // SECTIONS_UNLOAD: varint count, count x (varint zigzag cx, cz, varint sy); left the window after an origin move
+      const pos = { offset: 1 };
+      const unzig = (n) => (n >>> 1) ^ -(n & 1);
+      const count = readVarint(buf, pos);
+      for (let i = 0; i < count; i++) {
+        const cx = unzig(readVarint(buf, pos));
+        const cz = unzig(readVarint(buf, pos));
+        const sy = readVarint(buf, pos);
+        sectionHashes.delete(cx + ',' + cz + ',' + sy);
+      }
+      console.log('SECTIONS_UNLOAD count=%d', count);
+    } else if (type === 17) {
+      // SECTION_HIDDEN: varint zigzag cx, cz, varint sy; buried, nothing to draw
+      const pos = { offset: 1 };
+      const unzig = (n) => (n >>> 1) ^ -(n & 1);
+      const cx = unzig(readVarint(buf, pos));
+      const cz = unzig(readVarint(buf, pos));
+      const sy = readVarint(buf, pos);
+      sectionHashes.delete(cx + ',' + cz + ',' + sy);
+      console.log('SECTION_HIDDEN cx=%d cz=%d sy=%d', cx, cz, sy);
+    } else if (type === 15 || type === 16) {
+      // SECTION_LOD: varint zigzag cx, cz, varint sy, byte level, byte flags, palette, packed cells (far field)
+      // COLUMN_SUMMARY: varint zigzag cx, cz, byte flags, palette, packed top blocks, 256 x varint zigzag height
+      const pos = { offset: 1 };
+      const unzig = (n) => (n >>> 1) ^ -(n & 1);
+      const cx = unzig(readVarint(buf, pos));
+      const cz = unzig(readVarint(buf, pos));
+      const sy = type === 15 ? readVarint(buf, pos) : -1;
+      const level = type === 15 ? buf[pos.offset++] : 0;
+      const flags = buf[pos.offset++];
+      const paletteLen = readVarint(buf, pos);
+      const palette = [];
+      for (let i = 0; i < paletteLen; i++) {
+        const id = (flags & 16) ? readVarint(buf, pos) : 0;
+        if (id > 0) {
+          palette.push(idTable ? idTable.blocks[id - 1] : '#' + (id - 1));
+          continue;
+        }
+        const len = readVarint(buf, pos);
+        palette.push(buf.toString('utf8', pos.offset, pos.offset + len));
+        pos.offset += len;
+      }
+      // Replaces the full section (or column): its content hash no longer applies
+      if (type === 15) {
+        sectionHashes.delete(cx + ',' + cz + ',' + sy);
+        console.log('SECTION_LOD cx=%d cz=%d sy=%d level=%d palette=%d bytes=%d sample=%s',
+          cx, cz, sy, level, palette.length, buf.length, palette.slice(0, 5).join(', '));
+      } else {
+        for (const key of sectionHashes.keys()) {
+          if (key.startsWith(cx + ',' + cz + ',')) sectionHashes.delete(key);
+        }
+        console.log('COLUMN_SUMMARY cx=%d cz=%d palette=%d bytes=%d sample=%s',
+          cx, cz, palette.length, buf.length, palette.slice(0, 5).join(', '));
+      }
     } else {
       console.log('Binary message type', type, 'length', buf.length);
     }
@@ -103,5 +350,6 @@ ws.on('error', (err) => {
 
 ws.on('close', () => {
   console.log('Disconnected.');
+  fs.writeFileSync(sectionHashCache, JSON.stringify([...sectionHashes]));
   process.exit(0);
 });
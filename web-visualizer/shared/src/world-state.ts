@@ -62,7 +62,10 @@ export function createStreamCallbacks(state: WorldState): StreamCallbacks {
       state.dirtySectionKeys.add(key);
     },
     onBlockEntity(x, y, z, typeId, nbt) {
-      state.blockEntities.push({ x, y, z, typeId, nbt });
+      // Re-sent when its NBT changes: replace the earlier one at this position
+      const existing = state.blockEntities.findIndex((be) => be.x === x && be.y === y && be.z === z);
+      if (existing >= 0) state.blockEntities[existing] = { x, y, z, typeId, nbt };
+      else state.blockEntities.push({ x, y, z, typeId, nbt });
     },
     onEntitySpawn(entityId, typeId, x, y, z, yaw, pitch) {
       state.entities.push({ entityId, typeId, x, y, z, yaw, pitch });